@@ -5,6 +5,7 @@ import javax.ws.rs.ext.RuntimeDelegate;
 
 import com.sun.jersey.api.client.Client;
 import com.sun.jersey.api.client.WebResource;
+import org.infinispan.odata.server.InfinispanODataApplication;
 import org.junit.Assert;
 import org.odata4j.consumer.ODataConsumer;
 import org.odata4j.consumer.behaviors.MethodTunnelingBehavior;
@@ -12,7 +13,6 @@ import org.odata4j.format.FormatType;
 import org.odata4j.jersey.consumer.ODataJerseyConsumer;
 import org.odata4j.jersey.consumer.ODataJerseyConsumer.Builder;
 import org.odata4j.jersey.producer.server.ODataJerseyServer;
-import org.odata4j.producer.resources.DefaultODataApplication;
 import org.odata4j.producer.resources.RootApplication;
 import org.odata4j.producer.server.ODataServer;
 
@@ -58,7 +58,7 @@ public class JerseyRuntimeFacade implements RuntimeFacade {
 
     private ODataServer createODataServer(String baseUri) {
 
-        return new ODataJerseyServer(baseUri, DefaultODataApplication.class, RootApplication.class);
+        return new ODataJerseyServer(baseUri, InfinispanODataApplication.class, RootApplication.class);
                   // if needed, use from package: com.sun.jersey.api.container.filter.LoggingFilter;
 //                .addJerseyResponseFilter(LoggingFilter.class).setJerseyTrace(true)
 //                .addJerseyRequestFilter(LoggingFilter.class).setJerseyTrace(true); // log all requests
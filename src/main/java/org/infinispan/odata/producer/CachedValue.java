@@ -1,6 +1,10 @@
 package org.infinispan.odata.producer;
 
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
 import java.io.Serializable;
+import java.util.Set;
 
 import org.hibernate.search.annotations.Analyze;
 import org.hibernate.search.annotations.Field;
@@ -9,10 +13,12 @@ import org.hibernate.search.annotations.Indexed;
 import org.hibernate.search.annotations.Norms;
 import org.hibernate.search.annotations.Store;
 import org.hibernate.search.annotations.TermVector;
+import org.infinispan.commons.marshall.AbstractExternalizer;
+import org.infinispan.commons.util.Util;
 
 /**
  * Instances of this class will be directly stored into Infinispan cache.
- * They encapsulate JsonValueWrapper containing JSON document as a String.
+ * They encapsulate JsonValueWrapper containing JSON document encoded in UTF-8.
  *
  * Not necessary Hibernate search options of @Field annotation are disabled.
  *
@@ -21,6 +27,10 @@ import org.hibernate.search.annotations.TermVector;
  * the element as is, or by the words it contains.
  * It make sense to analyze a text field, but probably not a date field.
  *
+ * Instances are marshalled by Externalizer (replication, state transfer, cache stores) instead of Java
+ * serialization. Externalizers need to be registered in global serialization section of Infinispan
+ * configuration file.
+ *
  * @author Tomas Sykora <tomas@infinispan.org>
  */
 @Indexed
@@ -35,6 +45,17 @@ public class CachedValue implements Serializable {
         this.jsonWrapper = new JsonValueWrapper(json);
     }
 
+    /**
+     * @param jsonBytes -- JSON document encoded in UTF-8, the array is not copied
+     */
+    public CachedValue(byte[] jsonBytes) {
+        this.jsonWrapper = new JsonValueWrapper(jsonBytes);
+    }
+
+    public CachedValue(JsonValueWrapper jsonWrapper) {
+        this.jsonWrapper = jsonWrapper;
+    }
+
     public JsonValueWrapper getJsonValueWrapper() {
         return jsonWrapper;
     }
@@ -57,4 +78,33 @@ public class CachedValue implements Serializable {
     public String toString() {
         return "CachedValue{" + jsonWrapper + "}";
     }
+
+    /**
+     * Wire format is the same as the one of JsonValueWrapper -- wrapper is not written as a nested object,
+     * so no type information is written except of the externalizer id.
+     */
+    public static class Externalizer extends AbstractExternalizer<CachedValue> {
+
+        public static final int ID = 4100;
+
+        @Override
+        public Set<Class<? extends CachedValue>> getTypeClasses() {
+            return Util.<Class<? extends CachedValue>>asSet(CachedValue.class);
+        }
+
+        @Override
+        public Integer getId() {
+            return ID;
+        }
+
+        @Override
+        public void writeObject(ObjectOutput output, CachedValue cachedValue) throws IOException {
+            JsonValueWrapper.writeWrapper(output, cachedValue.jsonWrapper);
+        }
+
+        @Override
+        public CachedValue readObject(ObjectInput input) throws IOException {
+            return new CachedValue(JsonValueWrapper.readWrapper(input));
+        }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,130 @@
+package org.infinispan.odata.producer;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.infinispan.notifications.Listener;
+import org.infinispan.notifications.cachelistener.annotation.CacheEntryModified;
+import org.infinispan.notifications.cachelistener.annotation.CacheEntryRemoved;
+import org.infinispan.notifications.cachelistener.event.CacheEntryModifiedEvent;
+import org.infinispan.notifications.cachelistener.event.CacheEntryRemovedEvent;
+
+/**
+ * Achieved compression of JSON documents stored in a particular cache on this node
+ * (see compression_threshold cache setting).
+ * <p/>
+ * Registered as a listener of the cache: documents are added when they are written (including writes of other
+ * nodes owned by this node), overwritten and removed documents are subtracted (pre-events carry the previous
+ * value). Evicted documents stay counted, they are still stored in the cache store.
+ * <p/>
+ * Exposed over JMX as org.infinispan.odata:type=CompressionStatistics,cache=[cacheName].
+ *
+ * @author Tomas Sykora <tomas@infinispan.org>
+ */
+@Listener
+public class CompressionStatistics implements CompressionStatisticsMBean {
+
+    private final String cacheName;
+    private final int compressionThreshold;
+
+    private final AtomicLong storedDocuments = new AtomicLong();
+    private final AtomicLong compressedDocuments = new AtomicLong();
+    private final AtomicLong originalBytes = new AtomicLong();
+    private final AtomicLong storedBytes = new AtomicLong();
+
+    public CompressionStatistics(String cacheName, int compressionThreshold) {
+        this.cacheName = cacheName;
+        this.compressionThreshold = compressionThreshold;
+    }
+
+    /**
+     * Pre-event carries the overwritten value (null for a new entry), post-event the written one.
+     */
+    @CacheEntryModified
+    public void cacheEntryModified(CacheEntryModifiedEvent event) {
+        if (event.isPre()) {
+            update(event.getValue(), -1);
+        } else {
+            update(event.getValue(), 1);
+        }
+    }
+
+    /**
+     * Pre-event carries the removed value.
+     */
+    @CacheEntryRemoved
+    public void cacheEntryRemoved(CacheEntryRemovedEvent event) {
+        if (event.isPre()) {
+            update(event.getValue(), -1);
+        }
+    }
+
+    /**
+     * @param value -- stored or removed value, values which are not CachedValue are ignored
+     * @param sign  -- 1 for stored values, -1 for removed ones
+     */
+    void update(Object value, int sign) {
+        if (!(value instanceof CachedValue)) {
+            return;
+        }
+        JsonValueWrapper jsonValueWrapper = ((CachedValue) value).getJsonValueWrapper();
+        storedDocuments.addAndGet(sign);
+        if (jsonValueWrapper.isCompressed()) {
+            compressedDocuments.addAndGet(sign);
+        }
+        originalBytes.addAndGet(sign * (long) jsonValueWrapper.getLength());
+        storedBytes.addAndGet(sign * (long) jsonValueWrapper.getStoredLength());
+    }
+
+    /**
+     * Registers statistics in platform MBean server. Failures are only logged.
+     */
+    public void registerMBean() {
+        JmxRegistration.register(this, "CompressionStatistics", cacheName);
+    }
+
+    @Override
+    public String getCacheName() {
+        return cacheName;
+    }
+
+    @Override
+    public int getCompressionThreshold() {
+        return compressionThreshold;
+    }
+
+    @Override
+    public long getStoredDocuments() {
+        return storedDocuments.get();
+    }
+
+    @Override
+    public long getCompressedDocuments() {
+        return compressedDocuments.get();
+    }
+
+    @Override
+    public long getOriginalBytes() {
+        return originalBytes.get();
+    }
+
+    @Override
+    public long getStoredBytes() {
+        return storedBytes.get();
+    }
+
+    @Override
+    public double getCompressionRatio() {
+        long stored = storedBytes.get();
+        return stored == 0 ? 1 : (double) originalBytes.get() / stored;
+    }
+
+    @Override
+    public String toString() {
+        return "CompressionStatistics{" +
+                "cacheName=" + cacheName +
+                ", storedDocuments=" + storedDocuments +
+                ", compressedDocuments=" + compressedDocuments +
+                ", compressionRatio=" + getCompressionRatio() +
+                "}";
+    }
+}
@@ -0,0 +1,26 @@
+package org.infinispan.odata.producer;
+
+/**
+ * JMX management interface of CompressionStatistics.
+ *
+ * @author Tomas Sykora <tomas@infinispan.org>
+ */
+public interface CompressionStatisticsMBean {
+
+    String getCacheName();
+
+    int getCompressionThreshold();
+
+    long getStoredDocuments();
+
+    long getCompressedDocuments();
+
+    long getOriginalBytes();
+
+    long getStoredBytes();
+
+    /**
+     * @return original bytes / stored bytes of documents currently stored on this node, 1 if nothing is stored
+     */
+    double getCompressionRatio();
+}
@@ -0,0 +1,131 @@
+package org.infinispan.odata.producer;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.lucene.search.Query;
+import org.odata4j.expression.CommonExpression;
+
+/**
+ * Bounded LRU cache of Lucene queries translated from OData $filter expressions (one per Infinispan cache).
+ * <p/>
+ * Keys are shapes of normalized $filter strings (see Expression.asFilterString and SlowQueryLog.filterShape),
+ * values are FilterTemplates bound to literals of each request, so lastName eq 'Smith' and lastName eq 'Doe'
+ * are translated only once. A filter whose literals don't fit the cached template (e.g. string literal in place
+ * of numeric one) is a miss and its translation replaces the template.
+ * <p/>
+ * Cached templates are shared by concurrent requests and must not be modified after they are built.
+ * <p/>
+ * Hit rate is exposed over JMX as org.infinispan.odata:type=FilterQueryCache,cache=[cacheName].
+ *
+ * @author Tomas Sykora <tomas@infinispan.org>
+ */
+public class FilterQueryCache implements FilterQueryCacheMBean {
+
+    private final String cacheName;
+    private final int maxSize;
+    private final Map<String, FilterTemplate> templates;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public FilterQueryCache(String cacheName, final int maxSize) {
+        this.cacheName = cacheName;
+        this.maxSize = maxSize;
+        // access order = LRU
+        this.templates = new LinkedHashMap<String, FilterTemplate>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, FilterTemplate> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * @param normalizedFilter -- normalized $filter expression
+     * @param filter           -- the parsed $filter expression, its literals are bound to the cached template
+     * @return Lucene query or null if no filter of the same shape was translated yet (or was evicted)
+     *         or the literals don't fit the cached template
+     */
+    public Query get(String normalizedFilter, CommonExpression filter) {
+        if (maxSize <= 0) {
+            return null;
+        }
+        FilterTemplate template;
+        synchronized (templates) {
+            template = templates.get(SlowQueryLog.filterShape(normalizedFilter));
+        }
+        Query query = template != null ? template.bind(filter) : null;
+        if (query != null) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+        }
+        return query;
+    }
+
+    /**
+     * @param normalizedFilter -- normalized $filter expression
+     * @param template         -- its translation
+     */
+    public void put(String normalizedFilter, FilterTemplate template) {
+        if (maxSize <= 0) {
+            return;
+        }
+        String shape = SlowQueryLog.filterShape(normalizedFilter);
+        synchronized (templates) {
+            templates.put(shape, template);
+        }
+    }
+
+    /**
+     * Registers this cache in platform MBean server. Failures are only logged, the cache works without JMX.
+     */
+    public void registerMBean() {
+        JmxRegistration.register(this, "FilterQueryCache", cacheName);
+    }
+
+    @Override
+    public String getCacheName() {
+        return cacheName;
+    }
+
+    @Override
+    public int getSize() {
+        synchronized (templates) {
+            return templates.size();
+        }
+    }
+
+    @Override
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    @Override
+    public long getHits() {
+        return hits.get();
+    }
+
+    @Override
+    public long getMisses() {
+        return misses.get();
+    }
+
+    @Override
+    public double getHitRate() {
+        long hitCount = hits.get();
+        long total = hitCount + misses.get();
+        return total == 0 ? 0 : (double) hitCount / total;
+    }
+
+    @Override
+    public void clear() {
+        synchronized (templates) {
+            templates.clear();
+        }
+        hits.set(0);
+        misses.set(0);
+    }
+}
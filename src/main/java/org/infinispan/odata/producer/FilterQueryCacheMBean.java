@@ -0,0 +1,26 @@
+package org.infinispan.odata.producer;
+
+/**
+ * JMX management interface of FilterQueryCache.
+ *
+ * @author Tomas Sykora <tomas@infinispan.org>
+ */
+public interface FilterQueryCacheMBean {
+
+    String getCacheName();
+
+    int getSize();
+
+    int getMaxSize();
+
+    long getHits();
+
+    long getMisses();
+
+    /**
+     * @return hits / (hits + misses), 0 if there was no lookup yet
+     */
+    double getHitRate();
+
+    void clear();
+}
@@ -0,0 +1,165 @@
+package org.infinispan.odata.producer;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.Query;
+import org.odata4j.expression.BinaryCommonExpression;
+import org.odata4j.expression.BoolParenExpression;
+import org.odata4j.expression.BooleanLiteral;
+import org.odata4j.expression.CommonExpression;
+import org.odata4j.expression.EndsWithMethodCallExpression;
+import org.odata4j.expression.EntitySimpleProperty;
+import org.odata4j.expression.NotExpression;
+import org.odata4j.expression.StartsWithMethodCallExpression;
+import org.odata4j.expression.StringLiteral;
+import org.odata4j.expression.SubstringOfMethodCallExpression;
+
+/**
+ * Lucene query translated from a $filter expression, with its string and numeric literals as parameters,
+ * so that it can be bound to literals of any other filter of the same shape (see SlowQueryLog.filterShape):
+ * lastName eq 'Smith' and age gt 30 is bound to lastName eq 'Doe' and age gt 40 without translation.
+ * <p/>
+ * Leaf queries built from literals (terms, ranges, prefixes, phrases of n-grams) are recorded by
+ * MapQueryExpressionVisitor together with a Leaf which builds the same kind of query for another value.
+ * Binding rebuilds the BooleanQuery structure above them, queries which don't depend on literals are shared.
+ * <p/>
+ * Filters whose translation depends on values of their literals (comparison of two literals is folded into
+ * a constant) have no template.
+ * <p/>
+ * Instances are immutable and can be shared by threads.
+ *
+ * @author Tomas Sykora <tomas@infinispan.org>
+ */
+public final class FilterTemplate {
+
+    /**
+     * Builds a leaf query for a value of literal.
+     */
+    interface Leaf {
+
+        /**
+         * @param value -- Double for numeric literals, String for string literals
+         * @return query or null if the value is not of the kind the leaf was built for
+         */
+        Query create(Object value);
+    }
+
+    private final Query query;
+    private final Map<Query, Integer> parameters;
+    private final Map<Query, Leaf> leaves;
+    private final int literals;
+
+    /**
+     * @param query      -- translated query
+     * @param parameters -- leaf queries of the translated query (by identity) and indexes of their literals
+     * @param leaves     -- leaf queries of the translated query (by identity) and their builders
+     * @param literals   -- number of literals of the filter (see literals)
+     */
+    FilterTemplate(Query query, IdentityHashMap<Query, Integer> parameters, IdentityHashMap<Query, Leaf> leaves,
+                   int literals) {
+        this.query = query;
+        this.parameters = parameters;
+        this.leaves = leaves;
+        this.literals = literals;
+    }
+
+    /**
+     * @param filter -- filter of the same shape as the translated one
+     * @return the translated query with literals of the given filter or null if the literals don't fit
+     *         (e.g. string literal in place of numeric one)
+     */
+    public Query bind(CommonExpression filter) {
+        List<CommonExpression> literalExpressions = literals(filter);
+        if (literalExpressions == null || literalExpressions.size() != literals) {
+            return null;
+        }
+        List<Object> values = new ArrayList<Object>(literalExpressions.size());
+        for (CommonExpression literal : literalExpressions) {
+            values.add(literalValue(literal));
+        }
+        return bind(query, values);
+    }
+
+    private Query bind(Query template, List<Object> values) {
+        Integer parameter = parameters.get(template);
+        if (parameter != null) {
+            return leaves.get(template).create(values.get(parameter));
+        }
+        if (!(template instanceof BooleanQuery)) {
+            return template;
+        }
+        BooleanQuery booleanTemplate = (BooleanQuery) template;
+        BooleanQuery booleanQuery = new BooleanQuery(booleanTemplate.isCoordDisabled());
+        booleanQuery.setMinimumNumberShouldMatch(booleanTemplate.getMinimumNumberShouldMatch());
+        booleanQuery.setBoost(booleanTemplate.getBoost());
+        for (BooleanClause clause : booleanTemplate.clauses()) {
+            Query bound = bind(clause.getQuery(), values);
+            if (bound == null) {
+                return null;
+            }
+            booleanQuery.add(bound, clause.getOccur());
+        }
+        return booleanQuery;
+    }
+
+    /**
+     * @param filter -- $filter expression
+     * @return string and numeric literals of the filter in order of their occurrence, or null if the filter
+     *         contains expressions which can't be translated
+     */
+    static List<CommonExpression> literals(CommonExpression filter) {
+        List<CommonExpression> literals = new ArrayList<CommonExpression>();
+        return collectLiterals(filter, literals) ? literals : null;
+    }
+
+    private static boolean collectLiterals(CommonExpression expr, List<CommonExpression> literals) {
+        if (expr instanceof StringLiteral || MapQueryExpressionVisitor.numericLiteralValue(expr) != null) {
+            literals.add(expr);
+            return true;
+        }
+        if (expr instanceof BooleanLiteral || expr instanceof EntitySimpleProperty) {
+            return true;
+        }
+        if (expr instanceof BinaryCommonExpression) {
+            return collectLiterals(((BinaryCommonExpression) expr).getLHS(), literals) &&
+                    collectLiterals(((BinaryCommonExpression) expr).getRHS(), literals);
+        }
+        if (expr instanceof BoolParenExpression) {
+            return collectLiterals(((BoolParenExpression) expr).getExpression(), literals);
+        }
+        if (expr instanceof NotExpression) {
+            return collectLiterals(((NotExpression) expr).getExpression(), literals);
+        }
+        if (expr instanceof StartsWithMethodCallExpression) {
+            return collectLiterals(((StartsWithMethodCallExpression) expr).getTarget(), literals) &&
+                    collectLiterals(((StartsWithMethodCallExpression) expr).getValue(), literals);
+        }
+        if (expr instanceof EndsWithMethodCallExpression) {
+            return collectLiterals(((EndsWithMethodCallExpression) expr).getTarget(), literals) &&
+                    collectLiterals(((EndsWithMethodCallExpression) expr).getValue(), literals);
+        }
+        if (expr instanceof SubstringOfMethodCallExpression) {
+            return collectLiterals(((SubstringOfMethodCallExpression) expr).getValue(), literals) &&
+                    collectLiterals(((SubstringOfMethodCallExpression) expr).getTarget(), literals);
+        }
+        return false;
+    }
+
+    /**
+     * @return Double for numeric literals, String for string literals
+     */
+    static Object literalValue(CommonExpression literal) {
+        Double number = MapQueryExpressionVisitor.numericLiteralValue(literal);
+        return number != null ? number : ((StringLiteral) literal).getValue();
+    }
+
+    @Override
+    public String toString() {
+        return query + " (" + literals + " literals)";
+    }
+}
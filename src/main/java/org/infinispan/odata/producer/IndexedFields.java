@@ -0,0 +1,108 @@
+package org.infinispan.odata.producer;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Whitelist of JSON fields which are indexed in a particular cache (see indexed_fields cache setting),
+ * together with the way of their indexing. Fields which are not listed are not indexed at all.
+ * <p/>
+ * Format of the setting: comma separated [path]:[mode] pairs, nested fields are specified by dotted paths.
+ * For instance:
+ * <pre>
+ * &lt;property name="odata.odataCache.indexed_fields" value="lastName:keyword, age:numeric, address.city:analyzed"/&gt;
+ * </pre>
+ * Instances are immutable.
+ *
+ * @author Tomas Sykora <tomas@infinispan.org>
+ */
+public final class IndexedFields {
+
+    private static final Logger log = Logger.getLogger(IndexedFields.class.getName());
+
+    public enum Mode {
+        /**
+         * Tokenized by analyzer, for querying by words. Untokenized keyword field is indexed as well.
+         */
+        ANALYZED,
+        /**
+         * Untokenized keyword field only, for exact matches, comparisons and sorting.
+         */
+        KEYWORD,
+        /**
+         * Numeric (trie) field of type double, for numeric comparisons and sorting. Non-numeric values are skipped.
+         */
+        NUMERIC
+    }
+
+    private final Map<String, Mode> modes;
+    // paths of objects containing indexed fields
+    private final Set<String> parents;
+
+    private IndexedFields(Map<String, Mode> modes) {
+        this.modes = Collections.unmodifiableMap(modes);
+        Set<String> parents = new HashSet<String>();
+        for (String path : modes.keySet()) {
+            int separator = path.lastIndexOf(JsonValueWrapperFieldBridge.PATH_SEPARATOR);
+            while (separator > 0) {
+                path = path.substring(0, separator);
+                parents.add(path);
+                separator = path.lastIndexOf(JsonValueWrapperFieldBridge.PATH_SEPARATOR);
+            }
+        }
+        this.parents = Collections.unmodifiableSet(parents);
+    }
+
+    /**
+     * @param cacheName -- name of the cache, used for logging only
+     * @param value     -- value of indexed_fields setting
+     * @return parsed whitelist, invalid entries are skipped
+     */
+    public static IndexedFields parse(String cacheName, String value) {
+        Map<String, Mode> modes = new HashMap<String, Mode>();
+        for (String entry : value.split(",")) {
+            entry = entry.trim();
+            if (entry.isEmpty()) {
+                continue;
+            }
+            int separator = entry.lastIndexOf(':');
+            try {
+                if (separator <= 0) {
+                    throw new IllegalArgumentException("[path]:[mode] was expected");
+                }
+                modes.put(entry.substring(0, separator).trim(),
+                        Mode.valueOf(entry.substring(separator + 1).trim().toUpperCase()));
+            } catch (IllegalArgumentException e) {
+                log.warn("Invalid indexed field " + entry + " for cache " + cacheName + " skipped. " +
+                        "[path]:[analyzed|keyword|numeric] was expected.");
+            }
+        }
+        return new IndexedFields(modes);
+    }
+
+    /**
+     * @param path -- dotted path of JSON field
+     * @return the way of indexing of the field or null if the field is not indexed
+     */
+    public Mode getMode(String path) {
+        return modes.get(path);
+    }
+
+    /**
+     * @param path -- dotted path of JSON object
+     * @return true if the object contains fields which are indexed
+     */
+    public boolean containsIndexedFields(String path) {
+        return parents.contains(path);
+    }
+
+    @Override
+    public String toString() {
+        return modes.toString();
+    }
+}
@@ -0,0 +1,68 @@
+package org.infinispan.odata.producer;
+
+import org.infinispan.commands.write.PutKeyValueCommand;
+import org.infinispan.commands.write.PutMapCommand;
+import org.infinispan.commands.write.ReplaceCommand;
+import org.infinispan.configuration.cache.ConfigurationBuilder;
+import org.infinispan.configuration.cache.InterceptorConfiguration;
+import org.infinispan.context.InvocationContext;
+import org.infinispan.interceptors.base.BaseCustomInterceptor;
+
+/**
+ * Binds settings of a particular cache (indexed_fields, ngram_fields, stored_fields) to documents written
+ * into the cache, JsonValueWrapperFieldBridge indexes them according to the bound settings.
+ * <p/>
+ * One instance is added to the beginning of the interceptor chain of every indexed cache (see addTo), before
+ * the cache is started. So settings are bound to documents on every node which indexes them, including writes
+ * of other nodes and state transfer, while documents themselves don't carry anything cache specific (wire format
+ * of JsonValueWrapper doesn't depend on the cache). Documents held in memory keep their settings when they are
+ * reindexed.
+ *
+ * @author Tomas Sykora <tomas@infinispan.org>
+ */
+public final class IndexingSettingsInterceptor extends BaseCustomInterceptor {
+
+    private final ODataCacheSettings settings;
+
+    public IndexingSettingsInterceptor(ODataCacheSettings settings) {
+        this.settings = settings;
+    }
+
+    /**
+     * Adds the interceptor to the configuration of the cache, it needs to be started afterwards.
+     *
+     * @param configuration -- configuration of an indexed cache
+     * @param settings      -- settings of the cache, read from the same configuration
+     */
+    public static void addTo(ConfigurationBuilder configuration, ODataCacheSettings settings) {
+        configuration.customInterceptors().addInterceptor()
+                .interceptor(new IndexingSettingsInterceptor(settings))
+                .position(InterceptorConfiguration.Position.FIRST);
+    }
+
+    @Override
+    public Object visitPutKeyValueCommand(InvocationContext ctx, PutKeyValueCommand command) throws Throwable {
+        bind(command.getValue());
+        return super.visitPutKeyValueCommand(ctx, command);
+    }
+
+    @Override
+    public Object visitReplaceCommand(InvocationContext ctx, ReplaceCommand command) throws Throwable {
+        bind(command.getNewValue());
+        return super.visitReplaceCommand(ctx, command);
+    }
+
+    @Override
+    public Object visitPutMapCommand(InvocationContext ctx, PutMapCommand command) throws Throwable {
+        for (Object value : command.getMap().values()) {
+            bind(value);
+        }
+        return super.visitPutMapCommand(ctx, command);
+    }
+
+    private void bind(Object value) {
+        if (value instanceof CachedValue) {
+            ((CachedValue) value).getJsonValueWrapper().bindIndexingSettings(settings);
+        }
+    }
+}
@@ -1,33 +1,82 @@
 package org.infinispan.odata.producer;
 
 import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.net.URLEncoder;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
-
-import javax.transaction.NotSupportedException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
 
 import org.apache.log4j.Logger;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.Sort;
+import org.codehaus.jackson.JsonEncoding;
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonGenerator;
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonToken;
 import org.infinispan.AdvancedCache;
 import org.infinispan.Cache;
+import org.infinispan.commons.util.concurrent.FutureListener;
+import org.infinispan.configuration.cache.Configuration;
+import org.infinispan.configuration.cache.ConfigurationBuilder;
+import org.infinispan.configuration.parsing.ConfigurationBuilderHolder;
+import org.infinispan.configuration.parsing.ParserRegistry;
 import org.infinispan.context.Flag;
+import org.infinispan.distexec.DefaultExecutorService;
+import org.infinispan.distexec.DistributedCallable;
+import org.infinispan.distexec.DistributedExecutorService;
+import org.infinispan.distribution.DistributionManager;
 import org.infinispan.manager.DefaultCacheManager;
+import org.infinispan.notifications.Listener;
+import org.infinispan.notifications.cachemanagerlistener.annotation.CacheStopped;
+import org.infinispan.notifications.cachemanagerlistener.event.CacheStoppedEvent;
 import org.infinispan.query.CacheQuery;
+import org.infinispan.query.FetchOptions;
+import org.infinispan.query.ProjectionConstants;
+import org.infinispan.query.ResultIterator;
 import org.infinispan.query.SearchManager;
+import org.odata4j.core.OEntities;
 import org.odata4j.core.OEntity;
 import org.odata4j.core.OEntityId;
 import org.odata4j.core.OEntityKey;
 import org.odata4j.core.OExtension;
 import org.odata4j.core.OFunctionParameter;
+import org.odata4j.core.OLink;
+import org.odata4j.core.OProperties;
+import org.odata4j.core.OProperty;
 import org.odata4j.core.OSimpleObject;
 import org.odata4j.edm.EdmComplexType;
 import org.odata4j.edm.EdmDataServices;
@@ -42,6 +91,10 @@ import org.odata4j.edm.EdmGenerator;
 import org.odata4j.edm.EdmSchema;
 import org.odata4j.edm.EdmSimpleType;
 import org.odata4j.edm.EdmType;
+import org.odata4j.expression.EntitySimpleProperty;
+import org.odata4j.expression.Expression;
+import org.odata4j.expression.OrderByExpression;
+import org.odata4j.exceptions.BadRequestException;
 import org.odata4j.exceptions.NotImplementedException;
 import org.odata4j.producer.BaseResponse;
 import org.odata4j.producer.CountResponse;
@@ -49,6 +102,7 @@ import org.odata4j.producer.EntitiesResponse;
 import org.odata4j.producer.EntityIdResponse;
 import org.odata4j.producer.EntityQueryInfo;
 import org.odata4j.producer.EntityResponse;
+import org.odata4j.producer.InlineCount;
 import org.odata4j.producer.ODataContext;
 import org.odata4j.producer.ODataProducer;
 import org.odata4j.producer.QueryInfo;
@@ -67,6 +121,10 @@ public class InfinispanProducer implements ODataProducer {
 
     private static final Logger log = Logger.getLogger(InfinispanProducer.class.getName());
 
+    private static final String JSON_UTF8 = "application/json;charset=utf-8";
+    // failed startup doesn't count the ready latch down, awaitReady checks it between waits of this length
+    private static final long STARTUP_FAILURE_CHECK_MILLIS = 100;
+
     private final String namespace;
     private final String containerName;
 
@@ -77,10 +135,36 @@ public class InfinispanProducer implements ODataProducer {
     private final EdmDecorator decorator;
     private final boolean flattenEdm;
 
-    private EdmDataServices metadata;
+    private volatile EdmDataServices metadata;
     private DefaultCacheManager defaultCacheManager = null;
-    // for faster cache access
-    private HashMap<String, AdvancedCache> caches = new HashMap<String, AdvancedCache>();
+    // registry of started caches, read by concurrent HTTP threads; a cache is published in caches only after
+    // all of its components are registered in the other maps
+    private final ConcurrentMap<String, AdvancedCache> caches = new ConcurrentHashMap<String, AdvancedCache>();
+    private final ConcurrentMap<String, FutureTask<AdvancedCache>> cacheStartups =
+            new ConcurrentHashMap<String, FutureTask<AdvancedCache>>();
+    private final ConcurrentMap<String, ODataCacheSettings> cacheSettings =
+            new ConcurrentHashMap<String, ODataCacheSettings>();
+    // settings read from the configuration file before the cache manager is started, see configureCaches
+    private final Map<String, ODataCacheSettings> configuredSettings = new HashMap<String, ODataCacheSettings>();
+    private final ConcurrentMap<String, FilterQueryCache> filterQueryCaches =
+            new ConcurrentHashMap<String, FilterQueryCache>();
+    private final ConcurrentMap<String, QueryResultCache> queryResultCaches =
+            new ConcurrentHashMap<String, QueryResultCache>();
+    private final ConcurrentMap<String, CompressionStatistics> compressionStatistics =
+            new ConcurrentHashMap<String, CompressionStatistics>();
+    private final ConcurrentMap<String, SlowQueryLog> slowQueryLogs = new ConcurrentHashMap<String, SlowQueryLog>();
+    // counted down once all configured caches are started and warmed up, never if the startup fails
+    private final CountDownLatch ready = new CountDownLatch(1);
+    // cause of the failed startup, the producer is never ready then
+    private volatile Throwable startupFailure;
+    private final AtomicLong asyncWriteFailures = new AtomicLong();
+    // bounds asynchronous writes in flight per cache (async_writes_max_pending)
+    private final ConcurrentMap<String, Semaphore> asyncWritePermits = new ConcurrentHashMap<String, Semaphore>();
+    // executors of getAll tasks of distributed caches, shut down when the cache is stopped (see CacheStopListener)
+    private final ConcurrentMap<String, DistributedExecutorService> distributedExecutors =
+            new ConcurrentHashMap<String, DistributedExecutorService>();
+    // thread-safe, used for streamed parsing of client payloads
+    private final JsonFactory jsonFactory = new JsonFactory();
 
     /**
      * Creates a new instance of InfinispanProducer.
@@ -120,8 +204,12 @@ public class InfinispanProducer implements ODataProducer {
         log.info("Infinispan config file: " + ispnConfigFile);
 
         try {
+            ConfigurationBuilderHolder configuration =
+                    new ParserRegistry(Thread.currentThread().getContextClassLoader()).parseFile(ispnConfigFile);
+            configureCaches(configuration);
             // true = start it + start defined caches
-            defaultCacheManager = new DefaultCacheManager(ispnConfigFile, true);
+            defaultCacheManager = new DefaultCacheManager(configuration, true);
+            defaultCacheManager.addListener(new CacheStopListener());
             // immutable collection + note that default cache is not included in this Set
             Set<String> cacheNames = defaultCacheManager.getCacheNames();
 
@@ -130,38 +218,327 @@ public class InfinispanProducer implements ODataProducer {
                 // cacheName = entitySetName
                 eis.put(cacheName, null);
             }
+            startCaches(cacheNames);
         } catch (Exception e) {
             e.printStackTrace();
             log.error("PROBLEMS WITH CREATING DEFAULT CACHE MANAGER! ", e);
+            startupFailure = e;
+        }
+    }
+
+    /**
+     * Reads settings of configured caches and adds IndexingSettingsInterceptor to indexed ones,
+     * so their documents are indexed according to their settings from the very start of the cache.
+     */
+    private void configureCaches(ConfigurationBuilderHolder configuration) {
+        for (Map.Entry<String, ConfigurationBuilder> namedCache :
+                configuration.getNamedConfigurationBuilders().entrySet()) {
+            Configuration cacheConfiguration = namedCache.getValue().build();
+            ODataCacheSettings settings = ODataCacheSettings.fromConfiguration(namedCache.getKey(), cacheConfiguration);
+            configuredSettings.put(namedCache.getKey(), settings);
+            if (cacheConfiguration.indexing().enabled()) {
+                IndexingSettingsInterceptor.addTo(namedCache.getValue(), settings);
+            }
+        }
+    }
+
+    /**
+     * Starts all configured caches in parallel in the background and warms them up (see warmUp),
+     * the producer is ready once it's done (see isReady). The producer is never ready if any of the caches
+     * fails to start (see getStartupFailure), such caches are started again on their first access.
+     */
+    private void startCaches(final Set<String> cacheNames) {
+        Thread startup = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                long start = System.nanoTime();
+                ExecutorService executor = Executors.newFixedThreadPool(
+                        Math.max(1, Math.min(cacheNames.size(), Runtime.getRuntime().availableProcessors())));
+                try {
+                    List<Future<?>> startups = new ArrayList<Future<?>>();
+                    for (final String cacheName : cacheNames) {
+                        startups.add(executor.submit(new Callable<Void>() {
+                            @Override
+                            public Void call() throws Exception {
+                                try {
+                                    warmUp(cacheName, startCache(cacheName));
+                                } catch (ExecutionException e) {
+                                    throw new IllegalStateException("Cache " + cacheName + " failed to start.",
+                                            e.getCause());
+                                }
+                                return null;
+                            }
+                        }));
+                    }
+                    for (Future<?> future : startups) {
+                        future.get();
+                    }
+                    log.info("All caches started and warmed up in " +
+                            TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms, producer is ready.");
+                    ready.countDown();
+                } catch (InterruptedException e) {
+                    startupFailure = e;
+                    log.error("Startup of caches was interrupted, requests are answered by 503.");
+                    Thread.currentThread().interrupt();
+                } catch (ExecutionException e) {
+                    startupFailure = e.getCause();
+                    log.error("Startup of caches failed, requests are answered by 503.", e.getCause());
+                } finally {
+                    executor.shutdown();
+                }
+            }
+        }, "odata-cache-startup");
+        startup.setDaemon(true);
+        startup.start();
+    }
+
+    /**
+     * Opens index of the cache (index readers of the index manager) and prepares query builder by a query
+     * for all entries, so the first query doesn't pay for it.
+     */
+    private void warmUp(String cacheName, AdvancedCache cache) {
+        if (!cache.getCacheConfiguration().indexing().enabled()) {
+            return;
+        }
+        try {
+            SearchManager searchManager = org.infinispan.query.Search.getSearchManager(cache);
+            searchManager.buildQueryBuilderForClass(CachedValue.class).get();
+            int entries = searchManager.getQuery(new MatchAllDocsQuery(), CachedValue.class).getResultSize();
+            log.trace("Index of cache " + cacheName + " warmed up, indexed entries: " + entries);
+        } catch (Exception e) {
+            log.warn("Warm-up of index of cache " + cacheName + " failed.", e);
+        }
+    }
+
+    /**
+     * @return true once all configured caches are started and their indexes are warmed up,
+     *         requests are answered by 503 SERVICE UNAVAILABLE until then
+     */
+    public boolean isReady() {
+        return ready.getCount() == 0;
+    }
+
+    /**
+     * @return cause of the failed startup of caches or null if the startup did not fail (yet)
+     */
+    public Throwable getStartupFailure() {
+        return startupFailure;
+    }
+
+    /**
+     * @throws WebApplicationException with 503 SERVICE UNAVAILABLE response if the producer is not ready yet
+     *                                 or its startup failed
+     */
+    private void checkReady() {
+        if (isReady()) {
+            return;
+        }
+        Throwable failure = startupFailure;
+        String message = failure == null ? "Infinispan OData server is starting, caches are not ready yet." :
+                "Infinispan OData server failed to start caches. " + failure.getMessage();
+        throw new WebApplicationException(Response.status(Response.Status.SERVICE_UNAVAILABLE)
+                .entity(message).build());
+    }
+
+    /**
+     * Waits until the producer is ready (see isReady).
+     *
+     * @return true if the producer is ready, false if the timeout elapsed or the startup failed
+     *         (see getStartupFailure)
+     */
+    public boolean awaitReady(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        long check = TimeUnit.MILLISECONDS.toNanos(STARTUP_FAILURE_CHECK_MILLIS);
+        while (startupFailure == null) {
+            long remaining = deadline - System.nanoTime();
+            if (ready.await(Math.min(remaining, check), TimeUnit.NANOSECONDS)) {
+                return true;
+            }
+            if (remaining <= check) {
+                return false;
+            }
         }
+        return false;
     }
 
     /**
      *
      * Get embedded Infinispan cache which acts as an underlying store for JSON documents.
      *
-     * Look into global map for registered cache. Avoiding multiple asking CacheManager.
+     * Look into concurrent registry of started caches. Avoiding multiple asking CacheManager.
+     * <p/>
+     * Configured caches are registered when the producer is created (see startCaches). If there is no cache
+     * with the given name yet, it's started and registered exactly once, concurrent callers wait for it.
      * <p/>
-     * If there is no cache with the given name, get it from CacheManager and put.
-     *
      * @param cacheName -- name of cache, AdvancedCache is returned.
-     * @return AdvancedCache instance in dependence on a given name.
+     * @return AdvancedCache instance in dependence on a given name or null if the cache can't be started.
      */
-    private AdvancedCache getCache(String cacheName) {
-        if (caches.get(cacheName) != null) {
-            return this.caches.get(cacheName);
-        } else {
-            try {
-                defaultCacheManager.startCache(cacheName);
-                Cache cache = defaultCacheManager.getCache(cacheName);
-                this.caches.put(cacheName, cache.getAdvancedCache());
-                return cache.getAdvancedCache();
-            } catch (Exception e) {
-                e.printStackTrace();
-                log.error("ERROR DURING STARTING CACHE " + cacheName, e);
+    AdvancedCache getCache(String cacheName) {
+        AdvancedCache cache = caches.get(cacheName);
+        if (cache != null) {
+            return cache;
+        }
+        try {
+            return startCache(cacheName);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            log.error("ERROR DURING STARTING CACHE " + cacheName, e.getCause());
+        }
+        return null;
+    }
+
+    /**
+     * Starts and registers the cache exactly once (see registerCache), concurrent callers wait for it.
+     *
+     * @throws ExecutionException with the cause of the failure if the cache can't be started, the next call
+     *                            tries again
+     */
+    private AdvancedCache startCache(final String cacheName) throws ExecutionException, InterruptedException {
+        FutureTask<AdvancedCache> startup = new FutureTask<AdvancedCache>(new Callable<AdvancedCache>() {
+            @Override
+            public AdvancedCache call() throws Exception {
+                return registerCache(cacheName);
             }
+        });
+        FutureTask<AdvancedCache> existing = cacheStartups.putIfAbsent(cacheName, startup);
+        if (existing == null) {
+            startup.run();
+        } else {
+            startup = existing;
+        }
+        try {
+            return startup.get();
+        } catch (ExecutionException e) {
+            // next access tries again
+            cacheStartups.remove(cacheName, startup);
+            throw e;
         }
-        return this.caches.get(cacheName);
+    }
+
+    /**
+     * Starts the cache and registers its settings, FilterQueryCache, QueryResultCache, SlowQueryLog
+     * and CompressionStatistics. Called once per cache (see startCache).
+     */
+    private AdvancedCache registerCache(String cacheName) {
+        defaultCacheManager.startCache(cacheName);
+        Cache cache = defaultCacheManager.getCache(cacheName);
+        ODataCacheSettings settings = configuredSettings.get(cacheName);
+        if (settings == null) {
+            // not defined in the configuration file, created from the default configuration
+            settings = ODataCacheSettings.fromConfiguration(cacheName, cache.getCacheConfiguration());
+        }
+        this.cacheSettings.put(cacheName, settings);
+        FilterQueryCache filterQueryCache = new FilterQueryCache(cacheName, settings.getFilterCacheSize());
+        filterQueryCache.registerMBean();
+        this.filterQueryCaches.put(cacheName, filterQueryCache);
+        registerQueryResultCache(cacheName, cache, settings);
+        if (settings.isAsyncWrites()) {
+            this.asyncWritePermits.put(cacheName, new Semaphore(settings.getAsyncWritesMaxPending()));
+        }
+        if (cache.getCacheConfiguration().clustering().cacheMode().isDistributed()) {
+            // remote keys of getAll are read by tasks executed on their owners
+            this.distributedExecutors.put(cacheName, new DefaultExecutorService(cache));
+        }
+        SlowQueryLog slowQueryLog = new SlowQueryLog(cacheName, settings.getSlowQueryThreshold(),
+                settings.getSlowQueryTopSize());
+        slowQueryLog.registerMBean();
+        this.slowQueryLogs.put(cacheName, slowQueryLog);
+        if (settings.getCompressionThreshold() > 0) {
+            CompressionStatistics statistics = new CompressionStatistics(cacheName, settings.getCompressionThreshold());
+            cache.addListener(statistics);
+            statistics.registerMBean();
+            this.compressionStatistics.put(cacheName, statistics);
+        }
+        // published last, see caches
+        this.caches.put(cacheName, cache.getAdvancedCache());
+        return cache.getAdvancedCache();
+    }
+
+    /**
+     * @param cacheName -- name of cache
+     * @return Infinispan OData server specific settings of the given cache
+     */
+    public ODataCacheSettings getCacheSettings(String cacheName) {
+        if (cacheSettings.get(cacheName) == null) {
+            // settings are registered together with the cache
+            getCache(cacheName);
+        }
+        return cacheSettings.get(cacheName);
+    }
+
+    /**
+     * Creates QueryResultCache for the given cache if it is enabled by result_cache_max_bytes setting.
+     * <p/>
+     * Cache entry listeners are notified only on nodes which store the changed entry, so the result cache
+     * would not be invalidated on the other nodes of distributed cache. It's supported for local and replicated
+     * caches only.
+     */
+    private void registerQueryResultCache(String cacheName, Cache cache, ODataCacheSettings settings) {
+        if (settings.getResultCacheMaxBytes() <= 0) {
+            return;
+        }
+        if (cache.getCacheConfiguration().clustering().cacheMode().isDistributed()) {
+            log.warn("Query result cache is not supported for distributed cache " + cacheName +
+                    " (changes made on other nodes would not invalidate it). Setting " +
+                    ODataCacheSettings.RESULT_CACHE_MAX_BYTES + " ignored.");
+            return;
+        }
+        QueryResultCache queryResultCache = new QueryResultCache(cacheName, settings.getResultCacheMaxBytes());
+        cache.addListener(queryResultCache);
+        queryResultCache.registerMBean();
+        this.queryResultCaches.put(cacheName, queryResultCache);
+    }
+
+    /**
+     * @param cacheName -- name of cache
+     * @return statistics of achieved compression or null if compression is not enabled for the given cache
+     */
+    public CompressionStatistics getCompressionStatistics(String cacheName) {
+        getCache(cacheName);
+        return compressionStatistics.get(cacheName);
+    }
+
+    /**
+     * @param cacheName -- name of cache
+     * @return slow-query log and cost profile of $filter queries of the given cache
+     */
+    public SlowQueryLog getSlowQueryLog(String cacheName) {
+        getCache(cacheName);
+        return slowQueryLogs.get(cacheName);
+    }
+
+    /**
+     * Creates value for the given cache, the document is compressed if it exceeds compression_threshold
+     * cache setting. indexed_fields, ngram_fields and stored_fields settings of the cache are bound to the value
+     * by IndexingSettingsInterceptor when it is written into the cache.
+     *
+     * @param jsonBytes -- JSON document encoded in UTF-8
+     */
+    private CachedValue createCachedValue(String cacheName, byte[] jsonBytes) {
+        ODataCacheSettings settings = getCacheSettings(cacheName);
+        return new CachedValue(JsonValueWrapper.create(jsonBytes, settings.getCompressionThreshold()));
+    }
+
+    /**
+     * @param cacheName -- name of cache
+     * @return cache of serialized query responses or null if it is not enabled for the given cache
+     */
+    public QueryResultCache getQueryResultCache(String cacheName) {
+        getCache(cacheName);
+        return queryResultCaches.get(cacheName);
+    }
+
+    /**
+     * @param cacheName -- name of cache
+     * @return cache of Lucene queries translated from $filter expressions issued against the given cache
+     */
+    public FilterQueryCache getFilterQueryCache(String cacheName) {
+        if (filterQueryCaches.get(cacheName) == null) {
+            // registered together with the cache
+            getCache(cacheName);
+        }
+        return filterQueryCaches.get(cacheName);
     }
 
     @Override
@@ -188,10 +565,27 @@ public class InfinispanProducer implements ODataProducer {
      * @return
      */
     private BaseResponse callFunctionPut(String setNameWhichIsCacheName, String entryKey, CachedValue cachedValue,
-                                         boolean ignoreReturnValues) {
+                                         boolean ignoreReturnValues) throws IOException {
+
+        if (log.isTraceEnabled()) {
+            log.trace("Putting into " + setNameWhichIsCacheName + " cache, entryKey: " +
+                    entryKey + " value: " + cachedValue.toString() + " ignoreReturnValues=" + ignoreReturnValues);
+        }
 
-        log.trace("Putting into " + setNameWhichIsCacheName + " cache, entryKey: " +
-                entryKey + " value: " + cachedValue.toString() + " ignoreReturnValues=" + ignoreReturnValues);
+        if (getCacheSettings(setNameWhichIsCacheName).isAsyncWrites()) {
+            AsyncWriteListener listener = new AsyncWriteListener("put", setNameWhichIsCacheName, entryKey);
+            if (!listener.tryAcquire()) {
+                return asyncWritesBusyResponse(setNameWhichIsCacheName);
+            }
+            try {
+                getCache(setNameWhichIsCacheName).withFlags(Flag.IGNORE_RETURN_VALUES).putAsync(entryKey, cachedValue)
+                        .attachListener(listener);
+            } catch (RuntimeException e) {
+                listener.release();
+                throw e;
+            }
+            return Responses.infinispanResponse(null, null, null, Response.Status.ACCEPTED);
+        }
 
         if (ignoreReturnValues) {
             getCache(setNameWhichIsCacheName).withFlags(Flag.IGNORE_RETURN_VALUES).put(entryKey, cachedValue);
@@ -199,145 +593,625 @@ public class InfinispanProducer implements ODataProducer {
         } else {
             getCache(setNameWhichIsCacheName).put(entryKey, cachedValue);
             CachedValue resultOfPutForResponse = (CachedValue) getCache(setNameWhichIsCacheName).get(entryKey);
-            return Responses.infinispanResponse(EdmSimpleType.STRING, "jsonValue", standardizeJSONresponse(
-                    new StringBuilder(resultOfPutForResponse.getJsonValueWrapper().getJson())).toString(), Response.Status.CREATED);
+            return Responses.infinispanResponse(EdmSimpleType.STRING, "jsonValue",
+                    singleResultResponse(resultOfPutForResponse), Response.Status.CREATED);
         }
     }
 
 
+    /**
+     * HTTP POST request accepted, issued on service/cacheName_putAll URI
+     * <p/>
+     * Body is a JSON object of key -> JSON document pairs, or NDJSON (one such object per line):
+     * <p/>
+     * {"person1":{"name":"Neo"},"person2":{"name":"Trinity"}}
+     * <p/>
+     * Body is parsed as a stream, documents are stored by one putAll operation per put_all_batch_size entries
+     * (see ODataCacheSettings), so memory needed does not depend on the size of the body.
+     * Index updates of one putAll are processed by Infinispan query module as a single batch of index works.
+     *
+     * @return response with number of stored entries
+     */
+    private BaseResponse callFunctionPutAll(String setNameWhichIsCacheName, InputStream jsonInputStream) throws IOException {
+
+        AdvancedCache cache = getCache(setNameWhichIsCacheName).withFlags(Flag.IGNORE_RETURN_VALUES);
+        int batchSize = getCacheSettings(setNameWhichIsCacheName).getPutAllBatchSize();
+
+        Map<String, CachedValue> batch = new HashMap<String, CachedValue>();
+        int stored = 0;
+
+        JsonParser parser = jsonFactory.createJsonParser(jsonInputStream);
+        try {
+            JsonToken token;
+            // more root level objects are accepted (NDJSON)
+            while ((token = parser.nextToken()) != null) {
+                if (token != JsonToken.START_OBJECT) {
+                    throw new IllegalArgumentException("JSON object with key -> JSON document pairs was expected.");
+                }
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String entryKey = parser.getCurrentName();
+                    if (parser.nextToken() != JsonToken.START_OBJECT) {
+                        throw new IllegalArgumentException("JSON document was expected for key " + entryKey);
+                    }
+                    // written directly in UTF-8, it's the storage format of documents
+                    ByteArrayOutputStream jsonDocument = new ByteArrayOutputStream();
+                    JsonGenerator generator = jsonFactory.createJsonGenerator(jsonDocument, JsonEncoding.UTF8);
+                    generator.copyCurrentStructure(parser);
+                    generator.close();
+
+                    batch.put(entryKey, createCachedValue(setNameWhichIsCacheName, jsonDocument.toByteArray()));
+                    if (batch.size() >= batchSize) {
+                        cache.putAll(batch);
+                        stored += batch.size();
+                        log.trace("putAll batch of " + batch.size() + " entries stored into " + setNameWhichIsCacheName);
+                        batch.clear();
+                    }
+                }
+            }
+        } finally {
+            parser.close();
+        }
+
+        if (!batch.isEmpty()) {
+            cache.putAll(batch);
+            stored += batch.size();
+        }
+        log.trace("putAll into " + setNameWhichIsCacheName + " finished, stored entries: " + stored);
+
+        return Responses.infinispanResponse(EdmSimpleType.STRING, "jsonValue", standardizeJSONresponse(
+                new StringBuilder("{\"stored\":" + stored + "}")).toString(), Response.Status.OK);
+    }
+
     /**
      * Get the entry.
      * Method supports both key-value approach or query approach.
      * <p/>
      * Decision logic is driven by passed parameters (entryKey is specified, or queryInfo.filter is specified)
      * <p/>
-     * [ODATA SPEC] Note that standardizeJSONresponse() functions is called for return values. Results of this function
-     * will be directly returned to clients
+     * Called from GetResource (cacheName_get). Stored UTF-8 bytes of the entry are written into the response
+     * as they are, query results are streamed into HTTP output stream by QueryResponse while matching entries
+     * are being loaded from the cache.
      *
      * @param setNameWhichIsCacheName - cache name
      * @param entryKey                 - key of desired entry
-     * @param queryInfo                - queryInfo object from odata4j layer
-     * @return
+     * @param queryInfo                - system query options of the request
+     * @return 200 OK response writing the entry or query results, 404 NOT FOUND if there are none
+     *         and 400 BAD REQUEST for invalid requests
      */
-    public BaseResponse callFunctionGet(String setNameWhichIsCacheName, String entryKey,
-                                        QueryInfo queryInfo) throws Exception {
-        List<Object> queryResult = null;
+    public Response callFunctionGet(String setNameWhichIsCacheName, String entryKey,
+                                    QueryInfo queryInfo) throws Exception {
         if (entryKey != null) {
             // ignore query and return value directly
-            CachedValue value = (CachedValue) getCache(setNameWhichIsCacheName).get(entryKey);
-            if (value != null) {
-                log.trace("CallFunctionGet entry with key " + entryKey + " was found. Returning response with status 200.");
-
-                return Responses.infinispanResponse(EdmSimpleType.STRING, "jsonValue", standardizeJSONresponse(
-                        new StringBuilder(value.getJsonValueWrapper().getJson())).toString(), Response.Status.OK);
-            } else {
+            final CachedValue value = (CachedValue) getCache(setNameWhichIsCacheName).get(entryKey);
+            if (value == null) {
                 // no results found, clients will get 404 response
                 log.trace("CallFunctionGet entry with key " + entryKey + " was not found. Returning response with status 404.");
+                return Response.status(Response.Status.NOT_FOUND).build();
+            }
+            log.trace("CallFunctionGet entry with key " + entryKey + " was found. Returning response with status 200.");
+            StreamingOutput output = new StreamingOutput() {
+                @Override
+                public void write(OutputStream outputStream) throws IOException, WebApplicationException {
+                    JsonResponseWriter.writeResult(value, outputStream);
+                }
+            };
+            return Response.ok(output, JSON_UTF8)
+                    .header("Content-Length", JsonResponseWriter.resultLength(value))
+                    .build();
+        }
+
+        // NO ENTRY KEY -- query on document store expected
+        if (queryInfo.filter == null) {
+            return badRequest("Parameter 'key' is not specified, therefore we want to get entries using query filter." +
+                    " \n However, $filter is not specified as well.");
+        }
+
+        SelectProjection projection = SelectProjection.create(queryInfo.select,
+                getCacheSettings(setNameWhichIsCacheName).getStoredFields());
+
+        // server-driven paging, every page is the first page of the query restricted by $skiptoken
+        int pageSize = getCacheSettings(setNameWhichIsCacheName).getPageSize();
+        boolean paged = pageSize > 0;
+        int queryHash = SkipToken.queryHash(Expression.asFilterString(queryInfo.filter), orderByString(queryInfo));
+        SkipToken after = null;
+        if (queryInfo.skipToken != null) {
+            if (!paged) {
+                return badRequest("$skiptoken can't be used, server-driven paging is disabled " +
+                        "for cache " + setNameWhichIsCacheName + " (see page_size setting).");
+            }
+            try {
+                after = SkipToken.parse(queryInfo.skipToken, queryHash);
+            } catch (IllegalArgumentException e) {
+                return badRequest(e.getMessage());
+            }
+        }
 
-                return Responses.infinispanResponse(null, null, null, Response.Status.NOT_FOUND);
+        QueryResultCache queryResultCache = getQueryResultCache(setNameWhichIsCacheName);
+        String resultKey = null;
+        long resultGeneration = 0;
+        if (queryResultCache != null) {
+            resultKey = createQueryResultKey(queryInfo, projection);
+            // generation has to be obtained before the query is executed
+            resultGeneration = queryResultCache.getGeneration();
+            String cachedResponse = queryResultCache.get(resultKey);
+            if (cachedResponse != null) {
+                log.trace("CallFunctionGet method... returning cached query results for " + resultKey);
+                return cachedResponse.isEmpty() ?
+                        Response.status(Response.Status.NOT_FOUND).build() :
+                        Response.ok(cachedResponse, JSON_UTF8).build();
             }
+        }
 
-        } else {
-            // NO ENTRY KEY -- query on document store expected
-            if (queryInfo.filter == null) {
-                return Responses.error(new OErrorImpl("Parameter 'key' is not specified, therefore we want to get entries using query filter." +
-                        " \n However, $filter is not specified as well."));
+        // build response (the same format as in the case of streamed responses)
+        // entries are loaded from the cache in batches while the response is being written
+        QueryProfile profile = new QueryProfile(Expression.asFilterString(queryInfo.filter));
+        CacheQuery cacheQuery = buildCacheQuery(setNameWhichIsCacheName, queryInfo, paged, after, profile);
+        boolean indexOnly = projection != null && projection.isIndexOnly();
+        int pageLimit = paged ? pageLimit(queryInfo, after, pageSize) : 0;
+        if (paged) {
+            cacheQuery.maxResults(pageLimit);
+        }
+        if (indexOnly) {
+            // all selected fields are stored in the index, entries are not loaded from the cache
+            // (unless the document lacks some of them, see storedFieldsFallback), pages load only the value
+            // of their last result if it is needed for the $skiptoken (see PageIterator.getLastValue)
+            cacheQuery.projection(ProjectionConstants.DOCUMENT, ProjectionConstants.KEY);
+        } else if (paged) {
+            // document id and $orderby values of the last result are needed for the $skiptoken of the next page
+            cacheQuery.projection(ProjectionConstants.DOCUMENT, ProjectionConstants.VALUE, ProjectionConstants.KEY);
+        }
+        ResultIterator queryResult = lazyIterator(setNameWhichIsCacheName, cacheQuery, profile);
+        // closed here unless the response writing the results is returned, QueryResponse closes it then
+        boolean streamed = false;
+        try {
+            if (indexOnly && !paged) {
+                // pages apply the fallback themselves, they need the Lucene document of their last result
+                queryResult = storedFieldsFallback(setNameWhichIsCacheName, projection, queryResult);
             }
+            queryResult = profile.timeLoading(queryResult);
+            boolean inlineCount = queryInfo.inlineCount == InlineCount.ALLPAGES;
+
+            QueryResponse response = new QueryResponse(setNameWhichIsCacheName, queryInfo, projection, cacheQuery,
+                    queryResult, profile);
+            if (paged) {
+                response.paged(after, queryHash, pageLimit, indexOnly);
+            }
+            if (queryResultCache != null) {
+                response.cached(queryResultCache, resultKey, resultGeneration);
+            }
+
+            // status needs to be known before anything is written
+            if (!paged && !inlineCount && !response.hasResults()) {
+                response.empty();
+                // no results found, clients will get 404 response
+                return Response.status(Response.Status.NOT_FOUND).build();
+            }
+            streamed = true;
+            // the response is written directly into HTTP output stream (see QueryResponse)
+            return Response.ok(response, JSON_UTF8).build();
+        } finally {
+            if (!streamed) {
+                queryResult.close();
+            }
+        }
+    }
+
+    private static Response badRequest(String message) {
+        return Response.status(Response.Status.BAD_REQUEST).entity(message).build();
+    }
+
+    /**
+     * odata4j function responses are Strings, the framed response is decoded only once from stored UTF-8 bytes.
+     */
+    private String singleResultResponse(CachedValue value) throws IOException {
+        ByteArrayOutputStream response = new ByteArrayOutputStream(JsonResponseWriter.resultLength(value));
+        JsonResponseWriter.writeResult(value, response);
+        return response.toString(JsonResponseWriter.UTF8.name());
+    }
+
+    /**
+     * @return 200 OK function response with the entry or 404 NOT FOUND if there is no such entry
+     */
+    private BaseResponse singleEntryResponse(String setNameWhichIsCacheName, String entryKey) throws IOException {
+        CachedValue value = (CachedValue) getCache(setNameWhichIsCacheName).get(entryKey);
+        if (value == null) {
+            return Responses.infinispanResponse(null, null, null, Response.Status.NOT_FOUND);
+        }
+        return Responses.infinispanResponse(EdmSimpleType.STRING, "jsonValue", singleResultResponse(value),
+                Response.Status.OK);
+    }
+
+    private String createQueryResultKey(QueryInfo queryInfo, SelectProjection projection) {
+        return QueryResultCache.createKey(Expression.asFilterString(queryInfo.filter),
+                queryInfo.top, queryInfo.skip, orderByString(queryInfo), queryInfo.inlineCount == InlineCount.ALLPAGES,
+                projection != null ? projection.getPaths().toString() : null, queryInfo.skipToken);
+    }
 
-            log.trace("Query report for $filter " + queryInfo.filter.toString());
+    private static String orderByString(QueryInfo queryInfo) {
+        StringBuilder orderBy = new StringBuilder();
+        if (queryInfo.orderBy != null) {
+            for (OrderByExpression orderByExpression : queryInfo.orderBy) {
+                orderBy.append(Expression.asFilterString(orderByExpression)).append(",");
+            }
+        }
+        return orderBy.toString();
+    }
 
-            SearchManager searchManager = org.infinispan.query.Search.getSearchManager(getCache(setNameWhichIsCacheName));
-            MapQueryExpressionVisitor mapQueryExpressionVisitor =
-                    new MapQueryExpressionVisitor(searchManager.buildQueryBuilderForClass(CachedValue.class).get());
-            mapQueryExpressionVisitor.visit(queryInfo.filter);
+    /**
+     * @param after - position of the previous page or null for the first page
+     * @return maximal number of results of the page, limited by $top (remaining to $top for later pages)
+     */
+    private static int pageLimit(QueryInfo queryInfo, SkipToken after, int pageSize) {
+        int top = after != null ? after.getRemaining() : (queryInfo.top != null ? queryInfo.top : -1);
+        return top >= 0 ? Math.min(top, pageSize) : pageSize;
+    }
 
-            // Query cache here and get results based on constructed Lucene query
-            CacheQuery queryFromVisitor = searchManager.getQuery(mapQueryExpressionVisitor.getBuiltLuceneQuery(),
-                    CachedValue.class);
-            // pass query result to the function final response
-            queryResult = queryFromVisitor.list();
+    /**
+     * @param after      - position of the written page or null for the first page
+     * @param cacheQuery - query of the written page
+     * @param page       - iterator over the written page
+     * @param pageLimit  - maximal number of results of the page (see pageLimit)
+     * @return position of the last result of the written page or null if there are no more results
+     */
+    private SkipToken nextSkipToken(String setNameWhichIsCacheName, QueryInfo queryInfo, SkipToken after,
+                                    int queryHash, CacheQuery cacheQuery, PageIterator page,
+                                    int pageLimit) throws IOException {
+        int top = after != null ? after.getRemaining() : (queryInfo.top != null ? queryInfo.top : -1);
+        int remaining = top >= 0 ? top - page.getRows() : -1;
+        // total hits of the restricted query are known once the search is executed
+        if (page.getRows() < pageLimit || remaining == 0 || page.getLastDocument() == null
+                || cacheQuery.getResultSize() <= page.getRows()) {
+            return null;
+        }
+        Sort sort = buildSort(setNameWhichIsCacheName, queryInfo);
+        // without $orderby, the position is given by the document id only
+        return SkipToken.after(queryHash, remaining, sort, page.getLastDocument(),
+                sort != null ? page.getLastValue() : null,
+                getCacheSettings(setNameWhichIsCacheName).getIndexedFields());
+    }
 
-            log.trace(" \n Search results (obtained from search manager," +
-                    " used visitor for query translation) size:" + queryResult.size() + ":");
-            for (Object one_result : queryResult) {
-                log.trace(one_result);
+    /**
+     * @return relative URI (to the service root) of the next page of cacheName_get query
+     */
+    private static String nextLink(String setNameWhichIsCacheName, QueryInfo queryInfo, SkipToken token)
+            throws IOException {
+        StringBuilder link = new StringBuilder(setNameWhichIsCacheName).append("_get?$filter=")
+                .append(encodeQueryOption(Expression.asFilterString(queryInfo.filter)));
+        if (queryInfo.orderBy != null && !queryInfo.orderBy.isEmpty()) {
+            String orderBy = orderByString(queryInfo);
+            link.append("&$orderby=").append(encodeQueryOption(orderBy.substring(0, orderBy.length() - 1)));
+        }
+        if (queryInfo.select != null && !queryInfo.select.isEmpty()) {
+            StringBuilder select = new StringBuilder();
+            for (EntitySimpleProperty property : queryInfo.select) {
+                select.append(select.length() > 0 ? "," : "").append(property.getPropertyName());
             }
+            link.append("&$select=").append(encodeQueryOption(select.toString()));
+        }
+        return link.append("&$skiptoken=").append(token.encode()).toString();
+    }
 
-            // *********************************************************************************
-            // We have set queryResult object containing list of results from querying the cache
-            // Now apply other filters/order by/top/skip etc. requests
+    private static String encodeQueryOption(String value) throws IOException {
+        return URLEncoder.encode(value, "UTF-8").replace("+", "%20");
+    }
 
+    /**
+     * HTTP GET request accepted, issued on service/cacheName_getAll?keys='key1,key2,key3' URI
+     * (or keys='["key1","key,2"]' for keys containing commas, see parseKeys)
+     * <p/>
+     * Keys owned by this node are read locally. The other keys are grouped by their owners and read by one
+     * OwnerGetAll task per owner (Infinispan 6 has no getAll), all of them submitted at once, so they are
+     * processed by the owners in parallel and the request waits only for the slowest owner instead of
+     * the sum of all round trips.
+     * <p/>
+     * Found values are returned in order of requested keys, keys which were not found are reported as well:
+     * { "d" : [{ ... }, { ... }], "missing" : ["key3"]}
+     *
+     * @param setNameWhichIsCacheName - cache name
+     * @param entryKeys               - requested keys
+     * @return response with array of found JSON documents and missing keys
+     */
+    public BaseResponse callFunctionGetAll(String setNameWhichIsCacheName, List<String> entryKeys) throws Exception {
+        AdvancedCache cache = getCache(setNameWhichIsCacheName);
+        DistributionManager distributionManager = cache.getDistributionManager();
+
+        Map<String, CachedValue> values = new HashMap<String, CachedValue>();
+        List<String> remoteKeys = new ArrayList<String>();
+        for (String entryKey : entryKeys) {
+            if (distributionManager == null || distributionManager.getLocality(entryKey).isLocal()) {
+                values.put(entryKey, (CachedValue) cache.get(entryKey));
+            } else {
+                remoteKeys.add(entryKey);
+            }
+        }
+
+        if (!remoteKeys.isEmpty()) {
+            // only distributed caches have remote keys, see registerCache
+            DistributedExecutorService executor = distributedExecutors.get(setNameWhichIsCacheName);
+            // keys are split by their owners, one task per owner
+            List<Future<Map<String, CachedValue>>> ownerValues = executor.submitEverywhere(new OwnerGetAll(),
+                    remoteKeys.toArray(new String[remoteKeys.size()]));
+            log.trace("getAll: " + remoteKeys.size() + " keys requested from " + ownerValues.size() + " owners.");
+            for (Future<Map<String, CachedValue>> ownerValue : ownerValues) {
+                values.putAll(ownerValue.get());
+            }
+        }
+
+        List<CachedValue> results = new ArrayList<CachedValue>(entryKeys.size());
+        List<String> missingKeys = new ArrayList<String>();
+        for (String entryKey : entryKeys) {
+            CachedValue value = values.get(entryKey);
+            if (value != null) {
+                results.add(value);
+            } else {
+                missingKeys.add(entryKey);
+            }
+        }
+        log.trace("getAll from " + setNameWhichIsCacheName + ": found " + results.size() +
+                " entries, missing " + missingKeys.size() + " entries.");
+
+        ByteArrayOutputStream response = new ByteArrayOutputStream();
+        JsonResponseWriter.writeMultiGetResults(results, missingKeys, response);
+        return Responses.infinispanResponse(EdmSimpleType.STRING, "jsonValue",
+                response.toString(JsonResponseWriter.UTF8.name()), Response.Status.OK);
+    }
+
+    /**
+     * Keys of cacheName_getAll are either comma separated (key1,key2) or a JSON array of strings
+     * (["key1","key,2"]) when some of the keys contain commas.
+     */
+    private List<String> parseKeys(String keys) throws IOException {
+        List<String> entryKeys = new ArrayList<String>();
+        if (keys.trim().startsWith("[")) {
+            JsonParser parser = jsonFactory.createJsonParser(keys);
             try {
-                // return first n results
-                if (queryInfo.top != null) {
-                    int n = queryInfo.top.intValue();
-                    if (n < queryResult.size()) {
-                        queryResult = queryResult.subList(0, n);
-                    }
-                    log.trace("TOP query filter option applied, value: " + n);
+                if (parser.nextToken() != JsonToken.START_ARRAY) {
+                    throw new IOException("JSON array of keys was expected.");
                 }
-
-                // skip first n results
-                if (queryInfo.skip != null) {
-                    int n = queryInfo.skip.intValue();
-                    if (n < queryResult.size()) {
-                        queryResult = queryResult.subList(n, queryResult.size());
-                        log.trace("SKIP query filter option applied, value: " + n);
-                    } else {
-                        // skip all
-                        queryResult = queryResult.subList(queryResult.size(), queryResult.size());
-                        log.trace("SKIP query filter option applied, skipped all values as n = " +
-                                n + " and results size = " + queryResult.size());
-                    }
+                while (parser.nextToken() == JsonToken.VALUE_STRING) {
+                    entryKeys.add(parser.getText());
                 }
+                if (parser.getCurrentToken() != JsonToken.END_ARRAY) {
+                    throw new IOException("Keys were expected to be JSON strings.");
+                }
+            } finally {
+                parser.close();
+            }
+            return entryKeys;
+        }
+        for (String entryKey : keys.split(",")) {
+            if (entryKey.trim().length() > 0) {
+                entryKeys.add(entryKey.trim());
+            }
+        }
+        return entryKeys;
+    }
 
-            } catch (Exception e) {
-                throw new Exception("TOP or SKIP query option failed: " + e.getMessage());
+    /**
+     * Key-value approach of streamed get.
+     *
+     * @param setNameWhichIsCacheName - cache name
+     * @param entryKey                - key of desired entry
+     * @return stored value or null if there is no such entry (or the cache can't be started)
+     */
+    public CachedValue getEntry(String setNameWhichIsCacheName, String entryKey) {
+        AdvancedCache cache = getCache(setNameWhichIsCacheName);
+        return cache != null ? (CachedValue) cache.get(entryKey) : null;
+    }
+
+    /**
+     * Query approach of streamed get.
+     * <p/>
+     * Matching entries are loaded from the cache while the returned iterator is being iterated,
+     * results can be written directly into HTTP output stream using JsonResponseWriter.
+     * <p/>
+     * The iterator is lazy: hits are fetched from the index and entries are loaded from the cache
+     * in batches of fetch_size (see ODataCacheSettings), so only one batch is held in memory at a time.
+     * The iterator holds index resources and needs to be closed after use.
+     *
+     * @param setNameWhichIsCacheName - cache name
+     * @param queryInfo               - queryInfo with specified $filter (+ $top, $skip, $orderby)
+     * @return iterator over matching CachedValue instances
+     */
+    public ResultIterator callFunctionGetIterator(String setNameWhichIsCacheName, QueryInfo queryInfo) throws Exception {
+        if (queryInfo.filter == null) {
+            throw new IllegalArgumentException("$filter needs to be specified for streamed query results.");
+        }
+        return lazyIterator(setNameWhichIsCacheName, buildCacheQuery(setNameWhichIsCacheName, queryInfo, null), null);
+    }
+
+    /**
+     * @param cacheQuery -- query built by buildCacheQuery
+     * @param profile    -- time of search is recorded here, null if the query is not profiled
+     * @return lazy iterator loading entries in batches of fetch_size
+     */
+    private ResultIterator lazyIterator(String setNameWhichIsCacheName, CacheQuery cacheQuery,
+                                        QueryProfile profile) {
+        FetchOptions fetchOptions = new FetchOptions()
+                .fetchMode(FetchOptions.FetchMode.LAZY)
+                .fetchSize(getCacheSettings(setNameWhichIsCacheName).getFetchSize());
+        // Lucene search is executed when the iterator is created, entries are loaded during iteration
+        long searchStart = System.nanoTime();
+        ResultIterator iterator = cacheQuery.iterator(fetchOptions);
+        if (profile != null) {
+            profile.searched(System.nanoTime() - searchStart);
+        }
+        return iterator;
+    }
+
+    /**
+     * Rows of index-only $select (Lucene document and key) whose document doesn't answer all selected fields
+     * by stored fields (see SelectProjection.isStoredIn) are replaced by cached values, selected fields
+     * are extracted from them then.
+     */
+    private ResultIterator storedFieldsFallback(final String setNameWhichIsCacheName, final SelectProjection projection,
+                                                final ResultIterator iterator) {
+        return new ResultIterator() {
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
             }
 
-            if (queryInfo.orderBy != null) {
-                throw new NotSupportedException("orderBy is not supported yet. Planned for version 1.1.");
+            @Override
+            public Object next() {
+                return storedFieldsOrValue(setNameWhichIsCacheName, projection, (Object[]) iterator.next());
             }
-        }
 
-        int resultsCount = queryResult.size();
-        if (resultsCount > 0) {
-            StringBuilder sb = new StringBuilder();
-            // build response
+            @Override
+            public void remove() {
+                iterator.remove();
+            }
 
-            if (resultsCount > 1) {
-                sb.append("["); // start array of results
+            @Override
+            public void close() {
+                iterator.close();
             }
+        };
+    }
 
-            int counter = 0;
-            for (Object one_result : queryResult) {
-                counter++;
-                // stack more JSON strings responses if needed
-                CachedValue cv = (CachedValue) one_result;
-                sb.append(cv.getJsonValueWrapper().getJson());
+    /**
+     * @param row -- row of index-only $select (Lucene document and key)
+     * @return the row if its document answers all selected fields by stored fields, cached value otherwise
+     *         (null if the entry was removed in the meantime, skipped then)
+     */
+    private Object storedFieldsOrValue(String setNameWhichIsCacheName, SelectProjection projection, Object[] row) {
+        if (row == null || projection.isStoredIn((Document) row[0])) {
+            return row;
+        }
+        return getCache(setNameWhichIsCacheName).get(row[1]);
+    }
 
-//                sb.append("\n"); // for better readability?
+    /**
+     * Translates $filter into Lucene query and applies $skip, $top and $orderby on the index side.
+     *
+     * @param setNameWhichIsCacheName - cache name
+     * @param queryInfo               - queryInfo object from odata4j layer, filter has to be specified
+     * @param profile                 - time of translation is recorded here, null if the query is not profiled
+     * @return CacheQuery ready for execution
+     */
+    private CacheQuery buildCacheQuery(String setNameWhichIsCacheName, QueryInfo queryInfo,
+                                       QueryProfile profile) {
+        return buildCacheQuery(setNameWhichIsCacheName, queryInfo, false, null, profile);
+    }
+
+    /**
+     * Same as buildCacheQuery(setNameWhichIsCacheName, queryInfo, profile), for pages of server-driven paging
+     * as well. Without $filter, all entries of the cache are matched.
+     *
+     * @param paged - results are sorted by document id as the last criterion (see SkipToken.pagingSort)
+     * @param after - position of the last result of the previous page or null for the first page,
+     *              $skip is applied to the first page only
+     */
+    private CacheQuery buildCacheQuery(String setNameWhichIsCacheName, QueryInfo queryInfo, boolean paged,
+                                       SkipToken after, QueryProfile profile) {
+
+        if (log.isTraceEnabled()) {
+            log.trace("Query report for $filter " + queryInfo.filter);
+        }
+        long translationStart = System.nanoTime();
 
-                if ((resultsCount > 1) && (resultsCount > counter)) {
-                    // delimit results inside of an array, don't add "," after the last one JSON
-                    sb.append(", \n");
+        SearchManager searchManager = org.infinispan.query.Search.getSearchManager(getCache(setNameWhichIsCacheName));
+
+        Query luceneQuery;
+        if (queryInfo.filter == null) {
+            luceneQuery = new MatchAllDocsQuery();
+        } else {
+            // Filters of the same shape are translated only once, literals are bound to the cached template
+            FilterQueryCache filterQueryCache = getFilterQueryCache(setNameWhichIsCacheName);
+            String normalizedFilter = Expression.asFilterString(queryInfo.filter);
+            luceneQuery = filterQueryCache.get(normalizedFilter, queryInfo.filter);
+            if (luceneQuery == null) {
+                MapQueryExpressionVisitor mapQueryExpressionVisitor =
+                        new MapQueryExpressionVisitor(searchManager.buildQueryBuilderForClass(CachedValue.class).get(),
+                                getCacheSettings(setNameWhichIsCacheName));
+                mapQueryExpressionVisitor.visit(queryInfo.filter);
+                luceneQuery = mapQueryExpressionVisitor.getBuiltLuceneQuery();
+                FilterTemplate template = mapQueryExpressionVisitor.getBuiltFilterTemplate(queryInfo.filter);
+                if (template != null) {
+                    filterQueryCache.put(normalizedFilter, template);
                 }
+            } else {
+                log.trace("Translated $filter found in FilterQueryCache: " + normalizedFilter);
+            }
+        }
+        Sort sort = buildSort(setNameWhichIsCacheName, queryInfo);
+        if (after != null) {
+            // cached query is not modified, the position restricts a copy
+            luceneQuery = after.restrict(luceneQuery, sort);
+        }
+        if (profile != null) {
+            profile.translated(luceneQuery, System.nanoTime() - translationStart);
+        }
+
+        // Query cache here and get results based on constructed Lucene query
+        CacheQuery queryFromVisitor = searchManager.getQuery(luceneQuery, CachedValue.class);
+
+        // *********************************************************************************
+        // Apply top/skip on the index side so that only the requested page of results
+        // is loaded from the grid, instead of loading all matches and slicing them afterwards
+        try {
+            // skip first n results
+            if (queryInfo.skip != null && after == null) {
+                queryFromVisitor.firstResult(queryInfo.skip.intValue());
+                log.trace("SKIP query filter option applied, value: " + queryInfo.skip);
             }
 
-            if (resultsCount > 1) {
-                sb.append("]"); // end array of results
+            // return first n results
+            if (queryInfo.top != null) {
+                queryFromVisitor.maxResults(queryInfo.top.intValue());
+                log.trace("TOP query filter option applied, value: " + queryInfo.top);
             }
+        } catch (RuntimeException e) {
+            throw new BadRequestException("TOP or SKIP query option failed: " + e.getMessage());
+        }
 
-            log.trace("CallFunctionGet method... returning query results in JSON format: " + standardizeJSONresponse(sb).toString());
-            return Responses.infinispanResponse(EdmSimpleType.STRING, "jsonValue", standardizeJSONresponse(sb).toString(), Response.Status.OK);
-        } else {
-            // no results found, clients will get 404 response
-            return Responses.infinispanResponse(null, null, null, Response.Status.NOT_FOUND);
+        // Sorting is done by Lucene; together with $top only the first skip + top hits
+        // are collected (top N collector) -- no need to sort all of the matches
+        if (paged) {
+            sort = SkipToken.pagingSort(sort);
+        }
+        if (sort != null) {
+            queryFromVisitor.sort(sort);
+            if (log.isTraceEnabled()) {
+                log.trace("ORDER BY query option applied, sort: " + sort);
+            }
+        }
+
+        return queryFromVisitor;
+    }
+
+    /**
+     * @return Lucene sort of $orderby or null if it is not specified
+     */
+    private Sort buildSort(String setNameWhichIsCacheName, QueryInfo queryInfo) {
+        if (queryInfo.orderBy == null || queryInfo.orderBy.isEmpty()) {
+            return null;
+        }
+        // sort fields don't depend on the query builder
+        MapQueryExpressionVisitor mapQueryExpressionVisitor =
+                new MapQueryExpressionVisitor(null, getCacheSettings(setNameWhichIsCacheName));
+        for (OrderByExpression orderByExpression : queryInfo.orderBy) {
+            mapQueryExpressionVisitor.visit(orderByExpression);
         }
+        return mapQueryExpressionVisitor.getBuiltLuceneSort();
     }
 
     public BaseResponse callFunctionRemove(String setNameWhichIsCacheName, String entryKey) {
         log.trace("Removing entry from cache. EntryKey = " + entryKey);
+        if (getCacheSettings(setNameWhichIsCacheName).isAsyncWrites()) {
+            AsyncWriteListener listener = new AsyncWriteListener("remove", setNameWhichIsCacheName, entryKey);
+            if (!listener.tryAcquire()) {
+                return asyncWritesBusyResponse(setNameWhichIsCacheName);
+            }
+            try {
+                getCache(setNameWhichIsCacheName).withFlags(Flag.IGNORE_RETURN_VALUES).removeAsync(entryKey)
+                        .attachListener(listener);
+            } catch (RuntimeException e) {
+                listener.release();
+                throw e;
+            }
+            return Responses.infinispanResponse(null, null, null, Response.Status.ACCEPTED);
+        }
         CachedValue removed = (CachedValue) getCache(setNameWhichIsCacheName).remove(entryKey);
         // [ODATA SPEC]
         // NO_CONTENT is returned after successful deletion.
@@ -347,12 +1221,29 @@ public class InfinispanProducer implements ODataProducer {
     public BaseResponse callFunctionReplace(String setNameWhichIsCacheName, String entryKey, CachedValue cachedValue)
             throws Exception {
 
-        log.trace("Replacing in " + setNameWhichIsCacheName + " cache, entryKey: " + entryKey + " value: " + cachedValue.toString());
+        if (log.isTraceEnabled()) {
+            log.trace("Replacing in " + setNameWhichIsCacheName + " cache, entryKey: " + entryKey +
+                    " value: " + cachedValue.toString());
+        }
+        if (getCacheSettings(setNameWhichIsCacheName).isAsyncWrites()) {
+            AsyncWriteListener listener = new AsyncWriteListener("replace", setNameWhichIsCacheName, entryKey);
+            if (!listener.tryAcquire()) {
+                return asyncWritesBusyResponse(setNameWhichIsCacheName);
+            }
+            try {
+                getCache(setNameWhichIsCacheName).withFlags(Flag.IGNORE_RETURN_VALUES).replaceAsync(entryKey, cachedValue)
+                        .attachListener(listener);
+            } catch (RuntimeException e) {
+                listener.release();
+                throw e;
+            }
+            return Responses.infinispanResponse(null, null, null, Response.Status.ACCEPTED);
+        }
         getCache(setNameWhichIsCacheName).replace(entryKey, cachedValue);
 
 //      [ODATA SPEC]
 //      The message body MUST contain the desired new value.
-        return callFunctionGet(setNameWhichIsCacheName, entryKey, null);
+        return singleEntryResponse(setNameWhichIsCacheName, entryKey);
     }
 
     /**
@@ -367,6 +1258,7 @@ public class InfinispanProducer implements ODataProducer {
      * Use HTTP POST for create / putting entity into the cache <p/>
      * Use HTTP PUT for replace entity in the cache <p/>
      * Use HTTP DELETE for delete entity from the cache <p/>
+     * HTTP GET of cacheName_get is served by GetResource (see callFunctionGet), it doesn't reach this method. <p/>
      *
      * @param context
      * @param function
@@ -378,10 +1270,44 @@ public class InfinispanProducer implements ODataProducer {
     public BaseResponse callFunction(ODataContext context, EdmFunctionImport function, Map<String, OFunctionParameter> params,
                                      QueryInfo queryInfo) {
 
+        // caches are still being started, clients are supposed to retry
+        checkReady();
+
+        String setNameWhichIsCacheName = function.getEntitySet().getName();
+
+        // bulk operations are driven neither by a single key nor by $filter
+        if (function.getHttpMethod().equals("POST") && function.getName().endsWith("_putAll")) {
+            if (params.get("payload") == null) {
+                return Responses.error(new OErrorImpl("Body with key -> JSON document pairs needs to be specified."));
+            }
+            InputStream jsonInputStream = (InputStream) ((OSimpleObject) params.get("payload").getValue()).getValue();
+            try {
+                return callFunctionPutAll(setNameWhichIsCacheName, jsonInputStream);
+            } catch (Exception e) {
+                return Responses.error(new OErrorImpl("Problems with storing entries from payload. " + e.getMessage()));
+            } finally {
+                try {
+                    jsonInputStream.close();
+                } catch (IOException e) {
+                    log.error("Closing streams in InfinispanProducer failed. Method callFunction().", e);
+                }
+            }
+        }
+
+        if (function.getHttpMethod().equals("GET") && function.getName().endsWith("_getAll")) {
+            if (params.get("keys") == null) {
+                return Responses.error(new OErrorImpl("Parameter 'keys' needs to be specified, e.g. keys='key1,key2'."));
+            }
+            try {
+                return callFunctionGetAll(setNameWhichIsCacheName, parseKeys(params.get("keys").getValue().toString()));
+            } catch (Exception e) {
+                return Responses.error(new OErrorImpl("Problems with getting entries. " + e.getMessage()));
+            }
+        }
+
         // every function call HAS TO have key OR queryInfo.filter specified
         if (params.get("key") != null || queryInfo.filter != null) {
 
-            String setNameWhichIsCacheName = function.getEntitySet().getName();
             CachedValue cachedValue = null;
 
             String entryKey = null;
@@ -408,8 +1334,10 @@ public class InfinispanProducer implements ODataProducer {
                     while ((readLine = br.readLine()) != null) {
                         sb.append(readLine);
                     }
-                    cachedValue = new CachedValue(sb.toString());
-                    log.trace("Client payload extracted for put or replace: " + sb.toString());
+                    cachedValue = createCachedValue(setNameWhichIsCacheName, sb.toString().getBytes(JsonResponseWriter.UTF8));
+                    if (log.isTraceEnabled()) {
+                        log.trace("Client payload extracted for put or replace: " + sb.toString());
+                    }
                 } catch (Exception e) {
                     return Responses.error(new OErrorImpl("Problems with extracting jsonValue from payload. " + e.getMessage()));
                 } finally {
@@ -431,13 +1359,9 @@ public class InfinispanProducer implements ODataProducer {
                     ignoreReturnValues = Boolean.parseBoolean(params.get("IGNORE_RETURN_VALUES").getValue().toString());
                 }
                 log.trace("put, IGNORE_RETURN_VALUES set to: " + ignoreReturnValues);
-                return callFunctionPut(setNameWhichIsCacheName, entryKey, cachedValue, ignoreReturnValues);
-            }
-
-            if (function.getHttpMethod().equals("GET") && function.getName().endsWith("_get")) {
                 try {
-                    return callFunctionGet(setNameWhichIsCacheName, entryKey, queryInfo);
-                } catch (Exception e) {
+                    return callFunctionPut(setNameWhichIsCacheName, entryKey, cachedValue, ignoreReturnValues);
+                } catch (IOException e) {
                     return Responses.error(new OErrorImpl(e.getMessage()));
                 }
             }
@@ -457,6 +1381,8 @@ public class InfinispanProducer implements ODataProducer {
             return Responses.error(new OErrorImpl(
                     " HTTP GET method AND cache method ending _get,\n" +
                             " HTTP POST method AND cache method ending _put,\n" +
+                            " HTTP POST method AND cache method ending _putAll,\n" +
+                            " HTTP GET method AND cache method ending _getAll,\n" +
                             " HTTP DELETE method AND cache method ending _remove\n" +
                             " OR HTTP PUT method AND cache method ending _replace was expected.\n" +
                             " Function name was: " + function.getName() + " HTTP method was: " + function.getHttpMethod()));
@@ -465,6 +1391,413 @@ public class InfinispanProducer implements ODataProducer {
         return Responses.error(new OErrorImpl("Parameter 'key' or $filter needs to be specified."));
     }
 
+    /**
+     * @return number of asynchronous writes (async_writes cache setting) which failed since the producer was started
+     */
+    public long getAsyncWriteFailures() {
+        return asyncWriteFailures.get();
+    }
+
+    /**
+     * Iterator over rows of a page of server-driven paging (projected on DOCUMENT, VALUE and KEY, or on DOCUMENT
+     * and KEY for index-only $select), remembers the last row for the $skiptoken of the next page.
+     */
+    private final class PageIterator implements Iterator<Object> {
+
+        private final String cacheName;
+        private final ResultIterator rows;
+        private final boolean values;
+        private final SelectProjection indexOnly;
+        private int count;
+        private Document lastDocument;
+        private Object lastKey;
+        private CachedValue lastValue;
+
+        /**
+         * @param values    -- next returns CachedValue (null for entries removed in the meantime) if true,
+         *                  whole rows otherwise
+         * @param indexOnly -- index-only $select of rows projected on DOCUMENT and KEY or null, next returns
+         *                  what storedFieldsOrValue does for them (values is ignored then)
+         */
+        PageIterator(String cacheName, ResultIterator rows, boolean values, SelectProjection indexOnly) {
+            this.cacheName = cacheName;
+            this.rows = rows;
+            this.values = values;
+            this.indexOnly = indexOnly;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return rows.hasNext();
+        }
+
+        @Override
+        public Object next() {
+            Object[] row = (Object[]) rows.next();
+            count++;
+            if (indexOnly != null) {
+                Object result = storedFieldsOrValue(cacheName, indexOnly, row);
+                if (result != null) {
+                    lastDocument = (Document) row[0];
+                    lastKey = row[1];
+                    lastValue = result instanceof CachedValue ? (CachedValue) result : null;
+                }
+                return result;
+            }
+            if (row[1] != null) {
+                lastDocument = (Document) row[0];
+                lastKey = row[2];
+                lastValue = (CachedValue) row[1];
+            }
+            return values ? row[1] : row;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        /**
+         * @return number of iterated rows, including removed entries
+         */
+        int getRows() {
+            return count;
+        }
+
+        Document getLastDocument() {
+            return lastDocument;
+        }
+
+        /**
+         * @return value of the last row, loaded from the cache if the row was answered by stored fields
+         *         (null if the entry was removed in the meantime)
+         */
+        CachedValue getLastValue() {
+            if (lastValue == null && lastKey != null) {
+                lastValue = (CachedValue) getCache(cacheName).get(lastKey);
+            }
+            return lastValue;
+        }
+    }
+
+    /**
+     * Response of cacheName_get query, written directly into HTTP output stream while matching entries are being
+     * loaded from the cache (the same way as by StreamingGetResource), so memory needed per request does not
+     * depend on the number of results. It's the entity of the response returned by callFunctionGet to GetResource.
+     * <p/>
+     * When the query result cache is enabled, a copy of the response is kept while it is being written
+     * and stored in the cache unless it exceeds the size of the cache.
+     */
+    private final class QueryResponse implements StreamingOutput {
+
+        private final String cacheName;
+        private final QueryInfo queryInfo;
+        private final SelectProjection projection;
+        private final CacheQuery cacheQuery;
+        private final ResultIterator queryResult;
+        private final LookAheadIterator results;
+        private final QueryProfile profile;
+
+        private boolean paged;
+        private SkipToken after;
+        private int queryHash;
+        private int pageLimit;
+        private boolean indexOnly;
+
+        private QueryResultCache queryResultCache;
+        private String resultKey;
+        private long resultGeneration;
+
+        QueryResponse(String cacheName, QueryInfo queryInfo, SelectProjection projection, CacheQuery cacheQuery,
+                      ResultIterator queryResult, QueryProfile profile) {
+            this.cacheName = cacheName;
+            this.queryInfo = queryInfo;
+            this.projection = projection;
+            this.cacheQuery = cacheQuery;
+            this.queryResult = queryResult;
+            this.results = new LookAheadIterator(queryResult);
+            this.profile = profile;
+        }
+
+        /**
+         * @param after     - position of the previous page or null for the first page
+         * @param pageLimit - maximal number of results of the page (see pageLimit)
+         * @param indexOnly - rows are not projected on cached values
+         */
+        void paged(SkipToken after, int queryHash, int pageLimit, boolean indexOnly) {
+            this.paged = true;
+            this.after = after;
+            this.queryHash = queryHash;
+            this.pageLimit = pageLimit;
+            this.indexOnly = indexOnly;
+        }
+
+        void cached(QueryResultCache queryResultCache, String resultKey, long resultGeneration) {
+            this.queryResultCache = queryResultCache;
+            this.resultKey = resultKey;
+            this.resultGeneration = resultGeneration;
+        }
+
+        boolean hasResults() {
+            return results.hasNext();
+        }
+
+        /**
+         * Completes a query without results, nothing is written (the iterator is closed by callFunctionGet).
+         */
+        void empty() {
+            profile.written(0, 0);
+            getSlowQueryLog(cacheName).record(profile);
+            if (queryResultCache != null) {
+                // empty response marks a query without results
+                queryResultCache.put(resultKey, "", resultGeneration);
+            }
+        }
+
+        @Override
+        public void write(OutputStream outputStream) throws IOException, WebApplicationException {
+            OutputStream buffered = new BufferedOutputStream(outputStream);
+            ResponseCopyStream copy = queryResultCache != null ?
+                    new ResponseCopyStream(buffered, queryResultCache.getMaxSizeInBytes()) : null;
+            OutputStream out = copy != null ? copy : buffered;
+            int resultsCount;
+            long writeStart = System.nanoTime();
+            try {
+                boolean inlineCount = queryInfo.inlineCount == InlineCount.ALLPAGES;
+                if (paged) {
+                    final PageIterator page = new PageIterator(cacheName, queryResult, true,
+                            indexOnly ? projection : null);
+                    JsonResponseWriter.NextPage next = new JsonResponseWriter.NextPage() {
+                        @Override
+                        public String link() throws IOException {
+                            SkipToken token = nextSkipToken(cacheName, queryInfo, after, queryHash, cacheQuery, page,
+                                    pageLimit);
+                            return token != null ? nextLink(cacheName, queryInfo, token) : null;
+                        }
+                    };
+                    // __count is returned on the first page only, later pages are restricted by $skiptoken
+                    Long count = inlineCount && after == null ? Long.valueOf(cacheQuery.getResultSize()) : null;
+                    resultsCount = JsonResponseWriter.writeResultsPage(page, count, next, projection, out);
+                } else if (inlineCount) {
+                    // total hits are known once the search is executed, nothing more is loaded
+                    resultsCount = JsonResponseWriter.writeResultsWithCount(results, cacheQuery.getResultSize(),
+                            projection, out);
+                } else {
+                    resultsCount = JsonResponseWriter.writeResults(results, projection, out);
+                }
+                out.flush();
+            } finally {
+                queryResult.close();
+            }
+            profile.written(resultsCount, System.nanoTime() - writeStart);
+            getSlowQueryLog(cacheName).record(profile);
+
+            if (log.isTraceEnabled()) {
+                log.trace(" \n Search results (obtained from search manager," +
+                        " used visitor for query translation) size:" + resultsCount);
+            }
+            if (copy != null && copy.getCopy() != null) {
+                queryResultCache.put(resultKey, copy.getCopy(), resultGeneration);
+            }
+        }
+    }
+
+    /**
+     * Iterator which looks ahead for the next non-null result (entries removed in the meantime are skipped),
+     * so it is known whether there are any results before the response is written.
+     */
+    private static final class LookAheadIterator implements Iterator<Object> {
+
+        private final Iterator<?> results;
+        private Object next;
+
+        LookAheadIterator(Iterator<?> results) {
+            this.results = results;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (next == null && results.hasNext()) {
+                next = results.next();
+            }
+            return next != null;
+        }
+
+        @Override
+        public Object next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Object result = next;
+            next = null;
+            return result;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    /**
+     * Passes written bytes to the underlying stream and keeps their copy until it exceeds the limit.
+     */
+    private static final class ResponseCopyStream extends OutputStream {
+
+        private final OutputStream out;
+        private final long limit;
+        private ByteArrayOutputStream copy = new ByteArrayOutputStream();
+
+        ResponseCopyStream(OutputStream out, long limit) {
+            this.out = out;
+            this.limit = limit;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            if (copy != null) {
+                if (copy.size() + 1 > limit) {
+                    copy = null;
+                } else {
+                    copy.write(b);
+                }
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            if (copy != null) {
+                if (copy.size() + len > limit) {
+                    copy = null;
+                } else {
+                    copy.write(b, off, len);
+                }
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        /**
+         * @return written response or null if it exceeded the limit
+         */
+        String getCopy() throws IOException {
+            return copy != null ? copy.toString(JsonResponseWriter.UTF8.name()) : null;
+        }
+    }
+
+    /**
+     * Shuts down per-cache objects which are not stopped together with the cache (executor of getAll tasks),
+     * caches are stopped by the cache manager when it stops.
+     */
+    @Listener
+    public final class CacheStopListener {
+
+        @CacheStopped
+        public void cacheStopped(CacheStoppedEvent event) {
+            DistributedExecutorService executor = distributedExecutors.remove(event.getCacheName());
+            if (executor != null) {
+                executor.shutdown();
+            }
+        }
+    }
+
+    /**
+     * Reads the given keys on their owner, one task per owner is submitted by callFunctionGetAll.
+     * Values are marshalled back by the cache marshaller (see CachedValue.Externalizer).
+     */
+    private static final class OwnerGetAll implements DistributedCallable<Object, Object, Map<String, CachedValue>>,
+            Serializable {
+
+        private static final long serialVersionUID = -3526104830163377520L;
+
+        private transient Cache<Object, Object> cache;
+        private transient Set<Object> keys;
+
+        @Override
+        public void setEnvironment(Cache<Object, Object> cache, Set<Object> inputKeys) {
+            this.cache = cache;
+            this.keys = inputKeys;
+        }
+
+        @Override
+        public Map<String, CachedValue> call() {
+            Map<String, CachedValue> values = new HashMap<String, CachedValue>();
+            for (Object key : keys) {
+                CachedValue value = (CachedValue) cache.get(key);
+                if (value != null) {
+                    values.put((String) key, value);
+                }
+            }
+            return values;
+        }
+    }
+
+    /**
+     * Asynchronous write was refused as async_writes_max_pending writes are in flight already,
+     * HTTP threads don't wait for a permit, clients are supposed to retry.
+     */
+    private BaseResponse asyncWritesBusyResponse(String cacheName) {
+        log.debug("Asynchronous write into cache " + cacheName + " refused, too many writes in flight.");
+        return Responses.infinispanResponse(null, null, null, Response.Status.SERVICE_UNAVAILABLE);
+    }
+
+    /**
+     * Completes asynchronous write operations. HTTP response was already returned to the client (202 ACCEPTED),
+     * so failures can be only logged and counted.
+     * <p/>
+     * A permit of the cache (async_writes_max_pending) is acquired by tryAcquire before the write is issued,
+     * the request doesn't wait for it when too many writes are in flight (see asyncWritesBusyResponse).
+     * The permit is released once the write is done.
+     */
+    private class AsyncWriteListener implements FutureListener<Object> {
+
+        private final String operation;
+        private final String cacheName;
+        private final String entryKey;
+        private final Semaphore permits;
+
+        AsyncWriteListener(String operation, String cacheName, String entryKey) {
+            this.operation = operation;
+            this.cacheName = cacheName;
+            this.entryKey = entryKey;
+            this.permits = asyncWritePermits.get(cacheName);
+        }
+
+        /**
+         * @return false if all permits of the cache are taken, the write must not be issued then
+         */
+        boolean tryAcquire() {
+            return permits == null || permits.tryAcquire();
+        }
+
+        @Override
+        public void futureDone(Future<Object> future) {
+            try {
+                future.get();
+                log.trace("Asynchronous " + operation + " of entryKey " + entryKey + " in cache " + cacheName + " done.");
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                asyncWriteFailures.incrementAndGet();
+                log.error("Asynchronous " + operation + " of entryKey " + entryKey + " in cache " + cacheName +
+                        " failed.", e.getCause());
+            } finally {
+                release();
+            }
+        }
+
+        void release() {
+            if (permits != null) {
+                permits.release();
+            }
+        }
+    }
+
     @Override
     public <TExtension extends OExtension<ODataProducer>> TExtension findExtension(Class<TExtension> clazz) {
         return null;
@@ -604,6 +1937,13 @@ public class InfinispanProducer implements ODataProducer {
                 EdmFunctionImport.Builder fbGet = new EdmFunctionImport.Builder();
                 EdmFunctionImport.Builder fbRemove = new EdmFunctionImport.Builder();
                 EdmFunctionImport.Builder fbReplace = new EdmFunctionImport.Builder();
+                EdmFunctionImport.Builder fbPutAll = new EdmFunctionImport.Builder();
+                EdmFunctionImport.Builder fbGetAll = new EdmFunctionImport.Builder();
+
+                EdmFunctionParameter.Builder pbKeys = new EdmFunctionParameter.Builder();
+                pbKeys.setName("keys").setType(EdmType.getSimple("String")).setNullable(true).build();
+                List<EdmFunctionParameter.Builder> getAllFuncParameters = new LinkedList<EdmFunctionParameter.Builder>();
+                getAllFuncParameters.add(pbKeys);
 
                 fbPut.setName(entitySetNameCacheName + "_put")
                         .setEntitySet(container.getEntitySets().get(i))
@@ -660,10 +2000,42 @@ public class InfinispanProducer implements ODataProducer {
                         .addParameters(flagsFuncParameters)
                         .build();
 
+                fbPutAll.setName(entitySetNameCacheName + "_putAll")
+                        .setEntitySet(container.getEntitySets().get(i))
+                        .setEntitySetName(entitySetNameCacheName)
+                        .setReturnType(EdmSimpleType.STRING)
+                        .setHttpMethod("POST")
+                        .setBindable(false)
+                        .setSideEffecting(true)
+                        .setAlwaysBindable(false)
+                        .build();
+
+                fbPutAll.setDocumentation(new EdmDocumentation("Use this function for bulk putting of JSON documents " +
+                        "into the Infinispan cache. Set BODY of the HTTP POST to JSON object of key -> JSON document pairs " +
+                        "or to NDJSON (one such object per line).",
+                        "Usage: serviceUri.svc/" + entitySetNameCacheName + "_putAll with BODY " +
+                                "{\"key1\":{...},\"key2\":{...}}"));
+
+                fbGetAll.setName(entitySetNameCacheName + "_getAll")
+                        .setEntitySet(container.getEntitySets().get(i))
+                        .setEntitySetName(entitySetNameCacheName)
+                        .setReturnType(EdmSimpleType.STRING)
+                        .setHttpMethod("GET")
+                        .setBindable(false)
+                        .setSideEffecting(true)
+                        .setAlwaysBindable(false)
+                        .addParameters(getAllFuncParameters).build();
+
+                fbGetAll.setDocumentation(new EdmDocumentation("Use this function for getting more JSON documents " +
+                        "from the Infinispan cache by their keys at once. Keys which were not found are reported.",
+                        "Usage: serviceUri.svc/" + entitySetNameCacheName + "_getAll?keys='key1,key2,key3'"));
+
                 funcImports.add(fbPut);
                 funcImports.add(fbGet);
                 funcImports.add(fbRemove);
                 funcImports.add(fbReplace);
+                funcImports.add(fbPutAll);
+                funcImports.add(fbGetAll);
             }
 
             container.addFunctionImports(funcImports);
@@ -712,20 +2084,103 @@ public class InfinispanProducer implements ODataProducer {
     // NOT SUPPORTED FUNCTIONS
     // ***********************
 
-    // Not supported -- use defined OData functions
+    /**
+     * serviceUri.svc/cacheName?$filter=...&$orderby=...&$top=... -- entries of the cache (matching the optional
+     * $filter) as entities with rootTypeKey (entry key) and jsonValue (JSON document) properties.
+     * <p/>
+     * The entity set is always paged by server-driven paging (page_size, fetch_size when it is not specified),
+     * odata4j writes __next link with the returned $skiptoken (see SkipToken).
+     */
     @Override
     public EntitiesResponse getEntities(ODataContext context, String entitySetName, final QueryInfo queryInfo) {
-        // returning all entities from set/cache
-        // calling like
-        // http://localhost:8887/ODataInfinispanEndpoint.svc/mySpecialNamedCache
-        throw new NotImplementedException("getEntities not yet implemented. Use service operations as defined in $metadata.");
+        checkReady();
+        ODataCacheSettings settings = getCacheSettings(entitySetName);
+        int pageSize = settings.getPageSize() > 0 ? settings.getPageSize() : settings.getFetchSize();
+        String filter = queryInfo.filter != null ? Expression.asFilterString(queryInfo.filter) : null;
+        int queryHash = SkipToken.queryHash(filter, orderByString(queryInfo));
+        SkipToken after = null;
+        if (queryInfo.skipToken != null) {
+            try {
+                after = SkipToken.parse(queryInfo.skipToken, queryHash);
+            } catch (IllegalArgumentException e) {
+                throw new WebApplicationException(Response.status(Response.Status.BAD_REQUEST)
+                        .entity(e.getMessage()).build());
+            }
+        }
+
+        ResultIterator rows = null;
+        try {
+            CacheQuery cacheQuery = buildCacheQuery(entitySetName, queryInfo, true, after, null);
+            int pageLimit = pageLimit(queryInfo, after, pageSize);
+            cacheQuery.maxResults(pageLimit);
+            cacheQuery.projection(ProjectionConstants.DOCUMENT, ProjectionConstants.VALUE, ProjectionConstants.KEY);
+            rows = lazyIterator(entitySetName, cacheQuery, null);
+
+            EdmEntitySet entitySet = getMetadata().getEdmEntitySet(entitySetName);
+            List<OEntity> entities = new ArrayList<OEntity>();
+            PageIterator page = new PageIterator(entitySetName, rows, false, null);
+            while (page.hasNext()) {
+                Object[] row = (Object[]) page.next();
+                if (row[1] == null) {
+                    // removed in the meantime
+                    continue;
+                }
+                String key = String.valueOf(row[2]);
+                List<OProperty<?>> properties = new ArrayList<OProperty<?>>();
+                properties.add(OProperties.string("rootTypeKey", key));
+                properties.add(OProperties.string("jsonValue", ((CachedValue) row[1]).getJsonValueWrapper().getJson()));
+                entities.add(OEntities.create(entitySet, OEntityKey.create(key), properties,
+                        Collections.<OLink>emptyList()));
+            }
+
+            Integer inlineCount = queryInfo.inlineCount == InlineCount.ALLPAGES && after == null ?
+                    cacheQuery.getResultSize() : null;
+            SkipToken next = nextSkipToken(entitySetName, queryInfo, after, queryHash, cacheQuery, page, pageLimit);
+            return Responses.entities(entities, entitySet, inlineCount, next != null ? next.encode() : null);
+        } catch (IOException e) {
+            throw new RuntimeException("Reading of entities of cache " + entitySetName + " failed. " + e.getMessage(), e);
+        } finally {
+            if (rows != null) {
+                rows.close();
+            }
+        }
     }
 
 
-    // Not supported -- use defined OData functions
+    /**
+     * serviceUri.svc/cacheName/$count?$filter=... -- see countEntries.
+     */
     @Override
     public CountResponse getEntitiesCount(ODataContext context, final String entitySetName, final QueryInfo queryInfo) {
-        throw new NotImplementedException("getEntitiesCount not yet implemented. Use service operations as defined in $metadata.");
+        checkReady();
+        return Responses.count(countEntries(entitySetName, queryInfo));
+    }
+
+    /**
+     * Number of entries matching $filter (all entries of the cache without $filter), answered by the size
+     * of Lucene result only -- no entry is loaded from the cache. $skip and $top are applied to the count.
+     *
+     * @param setNameWhichIsCacheName - cache name
+     * @param queryInfo               - queryInfo object from odata4j layer, $filter is optional
+     * @return number of matching entries
+     */
+    public long countEntries(String setNameWhichIsCacheName, QueryInfo queryInfo) {
+        CacheQuery cacheQuery;
+        if (queryInfo != null && queryInfo.filter != null) {
+            cacheQuery = buildCacheQuery(setNameWhichIsCacheName, queryInfo, null);
+        } else {
+            cacheQuery = org.infinispan.query.Search.getSearchManager(getCache(setNameWhichIsCacheName))
+                    .getQuery(new MatchAllDocsQuery(), CachedValue.class);
+        }
+        long count = cacheQuery.getResultSize();
+        if (queryInfo != null && queryInfo.skip != null) {
+            count = Math.max(0, count - queryInfo.skip);
+        }
+        if (queryInfo != null && queryInfo.top != null) {
+            count = Math.min(count, queryInfo.top);
+        }
+        log.trace("Count of entries in " + setNameWhichIsCacheName + ": " + count);
+        return count;
     }
 
     // Not supported -- use defined OData functions
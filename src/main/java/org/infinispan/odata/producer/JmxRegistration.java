@@ -0,0 +1,50 @@
+package org.infinispan.odata.producer;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.MBeanServer;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Registers MBeans of the OData server (FilterQueryCache, QueryResultCache, SlowQueryLog, CompressionStatistics)
+ * in platform MBean server as org.infinispan.odata:type=[type],cache=[cacheName].
+ *
+ * @author Tomas Sykora <tomas@infinispan.org>
+ */
+final class JmxRegistration {
+
+    private static final Logger log = Logger.getLogger(JmxRegistration.class.getName());
+
+    static final String JMX_DOMAIN = "org.infinispan.odata";
+
+    private JmxRegistration() {
+    }
+
+    /**
+     * @param type      -- type of the MBean (simple name of its class)
+     * @param cacheName -- name of the cache the MBean belongs to
+     */
+    static ObjectName objectName(String type, String cacheName) throws MalformedObjectNameException {
+        return new ObjectName(JMX_DOMAIN + ":type=" + type + ",cache=" + ObjectName.quote(cacheName));
+    }
+
+    /**
+     * Registers the MBean, MBean registered for the same cache before (by a previous server in the same JVM)
+     * is replaced. Failures are only logged, components work without JMX.
+     */
+    static void register(Object mBean, String type, String cacheName) {
+        try {
+            MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = objectName(type, cacheName);
+            if (mBeanServer.isRegistered(objectName)) {
+                mBeanServer.unregisterMBean(objectName);
+            }
+            mBeanServer.registerMBean(mBean, objectName);
+        } catch (Exception e) {
+            log.warn("Unable to register " + type + " MBean for cache " + cacheName, e);
+        }
+    }
+}
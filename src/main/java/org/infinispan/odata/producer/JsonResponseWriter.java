@@ -0,0 +1,269 @@
+package org.infinispan.odata.producer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.Collection;
+import java.util.Iterator;
+
+import org.codehaus.jackson.JsonEncoding;
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonGenerator;
+
+/**
+ * Writes JSON documents obtained from the cache directly into an output stream
+ * in OData standardized format (see InfinispanProducer.standardizeJSONresponse).
+ * <p/>
+ * Framing is written as fixed byte sequences and every document is written as soon as it is
+ * obtained from the iterator, so memory needed for writing of a response does not depend
+ * on the number of results.
+ * <p/>
+ * Format is the same as in the case of non-streamed responses:
+ * single result -- { "d" : { ... }}
+ * more results  -- { "d" : [{ ... }, \n{ ... }, \n{ ... }]}
+ * <p/>
+ * Multi-key get results are always returned as an array, together with keys which were not found:
+ * { "d" : [{ ... }, \n{ ... }], "missing" : ["key3"]}
+ * <p/>
+ * Results of queries with $inlinecount=allpages are always returned as an array, together with the number
+ * of all matching entries (as a string, the same as in OData JSON verbose format):
+ * { "d" : { "results" : [{ ... }, \n{ ... }], "__count" : "42" }}
+ * <p/>
+ * Pages of server-driven paging are returned the same way, with a link to the next page (if there is one):
+ * { "d" : { "results" : [{ ... }, \n{ ... }], "__next" : "cacheName_get?...&$skiptoken=..." }}
+ * <p/>
+ * Results of queries with $select are written by SelectProjection instead of the whole documents.
+ *
+ * @author Tomas Sykora <tomas@infinispan.org>
+ */
+public final class JsonResponseWriter {
+
+    public static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final byte[] RESPONSE_PREFIX = "{ \"d\" : ".getBytes(UTF8);
+    private static final byte[] RESPONSE_SUFFIX = "}".getBytes(UTF8);
+    private static final byte[] ARRAY_START = "[".getBytes(UTF8);
+    private static final byte[] ARRAY_END = "]".getBytes(UTF8);
+    private static final byte[] DELIMITER = ", \n".getBytes(UTF8);
+    private static final byte[] MISSING_KEYS = ", \"missing\" : ".getBytes(UTF8);
+    private static final byte[] RESULTS_START = "{ \"results\" : [".getBytes(UTF8);
+    private static final byte[] RESULTS_END = "]".getBytes(UTF8);
+    private static final byte[] COUNT_START = ", \"__count\" : \"".getBytes(UTF8);
+    private static final byte[] COUNT_END = "\"".getBytes(UTF8);
+    private static final byte[] NEXT_START = ", \"__next\" : ".getBytes(UTF8);
+    private static final byte[] RESULTS_OBJECT_END = " }".getBytes(UTF8);
+
+    private static final JsonFactory jsonFactory = new JsonFactory();
+
+    private JsonResponseWriter() {
+    }
+
+    /**
+     * Link to the next page of results, resolved once the results of the current page are written
+     * (it depends on the last written result).
+     */
+    public interface NextPage {
+
+        /**
+         * @return relative URI of the next page or null if the written page is the last one
+         */
+        String link() throws IOException;
+    }
+
+    /**
+     * Writes all results from the given iterator into the output stream.
+     * Nothing is written when there are no results (clients are supposed to get 404 response).
+     *
+     * @param results -- iterator over CachedValue instances, null values (e.g. entries removed in the meantime)
+     *                are skipped
+     * @param out     -- output stream, it is not closed by this method
+     * @return number of written JSON documents
+     * @throws IOException if writing into the output stream fails
+     */
+    public static int writeResults(Iterator<?> results, OutputStream out) throws IOException {
+        return writeResults(results, null, out);
+    }
+
+    /**
+     * Writes all results from the given iterator into the output stream, projected by $select.
+     *
+     * @param results    -- iterator over CachedValue instances (or projection rows when projection.isIndexOnly()),
+     *                   null values are skipped
+     * @param projection -- $select projection or null if whole documents are written
+     * @param out        -- output stream, it is not closed by this method
+     * @return number of written JSON documents
+     * @throws IOException if writing into the output stream fails
+     */
+    public static int writeResults(Iterator<?> results, SelectProjection projection, OutputStream out)
+            throws IOException {
+        Object first = nextResult(results);
+        if (first == null) {
+            return 0;
+        }
+        Object second = nextResult(results);
+        boolean array = second != null;
+
+        out.write(RESPONSE_PREFIX);
+        if (array) {
+            out.write(ARRAY_START);
+        }
+        writeDocument(first, projection, out);
+        int count = 1;
+
+        Object next = second;
+        while (next != null) {
+            out.write(DELIMITER);
+            writeDocument(next, projection, out);
+            count++;
+            next = nextResult(results);
+        }
+
+        if (array) {
+            out.write(ARRAY_END);
+        }
+        out.write(RESPONSE_SUFFIX);
+        return count;
+    }
+
+    /**
+     * Writes all results from the given iterator into the output stream together with the number of all matching
+     * entries ($inlinecount=allpages). The response is written even when there are no results.
+     *
+     * @param results    -- iterator over CachedValue instances (or projection rows when projection.isIndexOnly()),
+     *                   null values are skipped
+     * @param count      -- number of all entries matching the query (regardless of $top and $skip)
+     * @param projection -- $select projection or null if whole documents are written
+     * @param out        -- output stream, it is not closed by this method
+     * @return number of written JSON documents
+     * @throws IOException if writing into the output stream fails
+     */
+    public static int writeResultsWithCount(Iterator<?> results, long count, SelectProjection projection,
+                                            OutputStream out) throws IOException {
+        return writeResultsPage(results, count, null, projection, out);
+    }
+
+    /**
+     * Writes one page of results (see writeResultsWithCount) together with the link to the next page.
+     * The response is written even when there are no results.
+     *
+     * @param results    -- iterator over CachedValue instances (or projection rows when projection.isIndexOnly()),
+     *                   null values are skipped
+     * @param count      -- number of all matching entries or null if it was not requested
+     * @param next       -- link to the next page or null if there is no paging
+     * @param projection -- $select projection or null if whole documents are written
+     * @param out        -- output stream, it is not closed by this method
+     * @return number of written JSON documents
+     * @throws IOException if writing into the output stream fails
+     */
+    public static int writeResultsPage(Iterator<?> results, Long count, NextPage next, SelectProjection projection,
+                                       OutputStream out) throws IOException {
+        out.write(RESPONSE_PREFIX);
+        out.write(RESULTS_START);
+        int written = 0;
+        Object result;
+        while ((result = nextResult(results)) != null) {
+            if (written > 0) {
+                out.write(DELIMITER);
+            }
+            writeDocument(result, projection, out);
+            written++;
+        }
+        out.write(RESULTS_END);
+        if (count != null) {
+            out.write(COUNT_START);
+            out.write(Long.toString(count).getBytes(UTF8));
+            out.write(COUNT_END);
+        }
+        String nextLink = next != null ? next.link() : null;
+        if (nextLink != null) {
+            out.write(NEXT_START);
+            // the link is escaped by Jackson
+            JsonGenerator generator = jsonFactory.createJsonGenerator(out, JsonEncoding.UTF8);
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            generator.writeString(nextLink);
+            generator.flush();
+        }
+        out.write(RESULTS_OBJECT_END);
+        out.write(RESPONSE_SUFFIX);
+        return written;
+    }
+
+    /**
+     * Writes a single JSON document (e.g. result of get by key) into the output stream.
+     * UTF-8 bytes of the stored document are written as they are, only the framing is added.
+     *
+     * @param result -- CachedValue obtained from the cache
+     * @param out    -- output stream, it is not closed by this method
+     * @throws IOException if writing into the output stream fails
+     */
+    public static void writeResult(CachedValue result, OutputStream out) throws IOException {
+        out.write(RESPONSE_PREFIX);
+        writeDocument(result, out);
+        out.write(RESPONSE_SUFFIX);
+    }
+
+    /**
+     * @return length in bytes of a response written by writeResult
+     */
+    public static int resultLength(CachedValue result) {
+        return RESPONSE_PREFIX.length + result.getJsonValueWrapper().getLength() + RESPONSE_SUFFIX.length;
+    }
+
+    /**
+     * Writes results of multi-key get into the output stream.
+     *
+     * @param results     -- found values in order of requested keys
+     * @param missingKeys -- requested keys which were not found
+     * @param out         -- output stream, it is not closed by this method
+     * @throws IOException if writing into the output stream fails
+     */
+    public static void writeMultiGetResults(Collection<CachedValue> results, Collection<String> missingKeys,
+                                            OutputStream out) throws IOException {
+        out.write(RESPONSE_PREFIX);
+        out.write(ARRAY_START);
+        boolean first = true;
+        for (CachedValue result : results) {
+            if (!first) {
+                out.write(DELIMITER);
+            }
+            writeDocument(result, out);
+            first = false;
+        }
+        out.write(ARRAY_END);
+
+        out.write(MISSING_KEYS);
+        // keys are escaped by Jackson
+        JsonGenerator generator = jsonFactory.createJsonGenerator(out, JsonEncoding.UTF8);
+        generator.writeStartArray();
+        for (String missingKey : missingKeys) {
+            generator.writeString(missingKey);
+        }
+        generator.writeEndArray();
+        generator.flush();
+
+        out.write(RESPONSE_SUFFIX);
+    }
+
+    private static Object nextResult(Iterator<?> results) {
+        while (results.hasNext()) {
+            Object result = results.next();
+            if (result != null) {
+                return result;
+            }
+        }
+        return null;
+    }
+
+    private static void writeDocument(Object result, SelectProjection projection, OutputStream out)
+            throws IOException {
+        if (projection != null) {
+            projection.writeTo(result, out);
+        } else {
+            writeDocument((CachedValue) result, out);
+        }
+    }
+
+    private static void writeDocument(CachedValue cachedValue, OutputStream out) throws IOException {
+        cachedValue.getJsonValueWrapper().writeTo(out);
+    }
+}
@@ -1,24 +1,226 @@
 package org.infinispan.odata.producer;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.io.OutputStream;
 import java.io.Serializable;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonParser;
+import org.infinispan.commons.io.UnsignedNumeric;
+import org.infinispan.commons.marshall.AbstractExternalizer;
+import org.infinispan.commons.util.Util;
 
 /**
  * Class is used to wrap JSON values coming from clients (OData consumers). JsonValueWrapperFieldBridge is used as
  * a bridge which allows indexing of the JSON payload.
+ * <p/>
+ * JSON document is kept encoded in UTF-8. It takes about a half of the heap of a String for mostly ASCII JSON
+ * and can be written into responses as it is, without encoding (see JsonResponseWriter).
+ * <p/>
+ * Documents bigger than compression_threshold cache setting are kept compressed (Deflate), both in the heap
+ * and on the wire. They are decompressed lazily, every time the document is read or indexed (parsers decompress
+ * while parsing, see createParser).
+ * <p/>
+ * Settings of the cache the document is written into (indexed_fields, ngram_fields, stored_fields) are bound
+ * to the wrapper by IndexingSettingsInterceptor of the cache, JsonValueWrapperFieldBridge indexes the document
+ * according to them. Bound settings are not marshalled, the wrapper itself doesn't depend on the cache.
+ * <p/>
+ * Instances are marshalled by Externalizer (needs to be registered in Infinispan configuration file).
  *
  * @author Tomas Sykora <tomas@infinispan.org>
  */
 public final class JsonValueWrapper implements Serializable {
 
-    private final String json;
-    private int hashCode = 0;
+    private static final long serialVersionUID = 4836511572935409212L;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final int INFLATE_BUFFER_SIZE = 8192;
+
+    // flags of wire format, see writeWrapper
+    private static final int COMPRESSED_FLAG = 1;
+
+    // UTF-8 bytes of the document, deflated if compressed
+    private final byte[] json;
+    private final boolean compressed;
+    // length of the (decompressed) document in bytes
+    private final int length;
+    // settings of the cache the document was written into, see bindIndexingSettings
+    private transient volatile ODataCacheSettings indexingSettings;
+    // cached hash code of the (decompressed) document, 0 if not computed yet
+    private transient int hash;
 
     public JsonValueWrapper(String json) {
+        this(json.getBytes(UTF8));
+    }
+
+    /**
+     * @param jsonBytes -- JSON document encoded in UTF-8, the array is not copied and must not be modified
+     */
+    public JsonValueWrapper(byte[] jsonBytes) {
+        this(jsonBytes, false, jsonBytes.length);
+    }
+
+    private JsonValueWrapper(byte[] json, boolean compressed, int length) {
         this.json = json;
+        this.compressed = compressed;
+        this.length = length;
     }
 
+    /**
+     * Compresses the document if it is bigger than the given threshold. Compressed form is used only
+     * if it is smaller than the original one.
+     *
+     * @param jsonBytes            -- JSON document encoded in UTF-8
+     * @param compressionThreshold -- minimal size of compressed documents in bytes, 0 disables compression
+     * @return wrapper with compressed or original document
+     */
+    public static JsonValueWrapper create(byte[] jsonBytes, int compressionThreshold) {
+        if (compressionThreshold <= 0 || jsonBytes.length < compressionThreshold) {
+            return new JsonValueWrapper(jsonBytes, false, jsonBytes.length);
+        }
+        byte[] deflated = deflate(jsonBytes);
+        if (deflated.length >= jsonBytes.length) {
+            return new JsonValueWrapper(jsonBytes, false, jsonBytes.length);
+        }
+        return new JsonValueWrapper(deflated, true, jsonBytes.length);
+    }
+
+    /**
+     * @return JSON document decoded into a new String
+     */
     public String getJson() {
-        return json;
+        return new String(getJsonBytes(), UTF8);
+    }
+
+    /**
+     * @return JSON document encoded in UTF-8, decompressed into a new array if the document is compressed,
+     *         otherwise the array is not copied and must not be modified
+     */
+    public byte[] getJsonBytes() {
+        return compressed ? inflate() : json;
+    }
+
+    /**
+     * Creates parser of the document, compressed document is decompressed while it is parsed (bytes are read once,
+     * without decompressing the whole document into memory).
+     */
+    JsonParser createParser(JsonFactory jsonFactory) throws IOException {
+        if (!compressed) {
+            return jsonFactory.createJsonParser(json);
+        }
+        // closed (and the inflater ended) together with the parser
+        return jsonFactory.createJsonParser(new InflaterInputStream(new ByteArrayInputStream(json)));
+    }
+
+    /**
+     * Writes UTF-8 bytes of the document into the output stream, compressed document is decompressed
+     * in chunks, without decompressing the whole document into memory.
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        if (!compressed) {
+            out.write(json);
+            return;
+        }
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(json);
+            byte[] buffer = new byte[Math.min(length, INFLATE_BUFFER_SIZE)];
+            int written = 0;
+            while (written < length) {
+                int inflated = inflater.inflate(buffer);
+                if (inflated == 0 && (inflater.finished() || inflater.needsInput())) {
+                    throw new IOException("Compressed JSON document is corrupted.");
+                }
+                out.write(buffer, 0, inflated);
+                written += inflated;
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Compressed JSON document is corrupted.", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * @return length of the (decompressed) document in bytes
+     */
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * @return number of bytes held by this wrapper, lower than getLength() for compressed documents
+     */
+    public int getStoredLength() {
+        return json.length;
+    }
+
+    public boolean isCompressed() {
+        return compressed;
+    }
+
+    /**
+     * Binds settings of the cache the document is written into, replaces settings bound before.
+     * Called by IndexingSettingsInterceptor before the document is indexed.
+     */
+    public void bindIndexingSettings(ODataCacheSettings settings) {
+        this.indexingSettings = settings;
+    }
+
+    /**
+     * @return settings the document is indexed by or null if no settings were bound (all fields are indexed)
+     */
+    ODataCacheSettings getIndexingSettings() {
+        return indexingSettings;
+    }
+
+    private static byte[] deflate(byte[] jsonBytes) {
+        Deflater deflater = new Deflater();
+        try {
+            deflater.setInput(jsonBytes);
+            deflater.finish();
+            ByteArrayOutputStream deflated = new ByteArrayOutputStream(jsonBytes.length / 4);
+            byte[] buffer = new byte[INFLATE_BUFFER_SIZE];
+            while (!deflater.finished()) {
+                int size = deflater.deflate(buffer);
+                deflated.write(buffer, 0, size);
+            }
+            return deflated.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private byte[] inflate() {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(json);
+            byte[] inflated = new byte[length];
+            int size = 0;
+            while (size < length) {
+                int chunk = inflater.inflate(inflated, size, length - size);
+                if (chunk == 0 && (inflater.finished() || inflater.needsInput())) {
+                    throw new IllegalStateException("Compressed JSON document is corrupted.");
+                }
+                size += chunk;
+            }
+            return inflated;
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("Compressed JSON document is corrupted.", e);
+        } finally {
+            inflater.end();
+        }
     }
 
     @Override
@@ -28,21 +230,78 @@ public final class JsonValueWrapper implements Serializable {
 
         JsonValueWrapper that = (JsonValueWrapper) o;
 
-        if (hashCode != that.hashCode) return false;
-        if (!json.equals(that.json)) return false;
-
-        return true;
+        if (length != that.length) return false;
+        if (compressed == that.compressed) {
+            return Arrays.equals(json, that.json);
+        }
+        // the same document can be compressed in one cache and not compressed in another one
+        return Arrays.equals(getJsonBytes(), that.getJsonBytes());
     }
 
     @Override
     public int hashCode() {
-        int result = json.hashCode();
-        result = 31 * result + hashCode;
-        return result;
+        // racy single-check as in String.hashCode, compressed document is decompressed only once
+        int h = hash;
+        if (h == 0) {
+            h = Arrays.hashCode(getJsonBytes());
+            hash = h;
+        }
+        return h;
     }
 
     @Override
     public String toString() {
-        return "JsonValueWrapper(" + json + ")";
+        return "JsonValueWrapper(" + getJson() + ")";
+    }
+
+    /**
+     * Wire format: flags (compressed), variable-length size of held bytes,
+     * held bytes (UTF-8 JSON document, deflated if compressed) and variable-length size of decompressed document
+     * if compressed.
+     */
+    static void writeWrapper(ObjectOutput output, JsonValueWrapper jsonValueWrapper) throws IOException {
+        output.writeByte(jsonValueWrapper.compressed ? COMPRESSED_FLAG : 0);
+        UnsignedNumeric.writeUnsignedInt(output, jsonValueWrapper.json.length);
+        output.write(jsonValueWrapper.json);
+        if (jsonValueWrapper.compressed) {
+            UnsignedNumeric.writeUnsignedInt(output, jsonValueWrapper.length);
+        }
+    }
+
+    static JsonValueWrapper readWrapper(ObjectInput input) throws IOException {
+        byte flags = input.readByte();
+        boolean compressed = (flags & COMPRESSED_FLAG) != 0;
+        byte[] json = new byte[UnsignedNumeric.readUnsignedInt(input)];
+        input.readFully(json);
+        int length = compressed ? UnsignedNumeric.readUnsignedInt(input) : json.length;
+        return new JsonValueWrapper(json, compressed, length);
+    }
+
+    /**
+     * See writeWrapper for wire format.
+     */
+    public static class Externalizer extends AbstractExternalizer<JsonValueWrapper> {
+
+        public static final int ID = 4101;
+
+        @Override
+        public Set<Class<? extends JsonValueWrapper>> getTypeClasses() {
+            return Util.<Class<? extends JsonValueWrapper>>asSet(JsonValueWrapper.class);
+        }
+
+        @Override
+        public Integer getId() {
+            return ID;
+        }
+
+        @Override
+        public void writeObject(ObjectOutput output, JsonValueWrapper jsonValueWrapper) throws IOException {
+            writeWrapper(output, jsonValueWrapper);
+        }
+
+        @Override
+        public JsonValueWrapper readObject(ObjectInput input) throws IOException {
+            return readWrapper(input);
+        }
     }
 }
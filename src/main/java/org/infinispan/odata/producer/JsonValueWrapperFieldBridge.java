@@ -1,11 +1,19 @@
 package org.infinispan.odata.producer;
 
+import java.io.IOException;
 import java.io.Serializable;
-import java.util.Map;
+import java.util.HashSet;
+import java.util.Set;
 
 import org.apache.log4j.Logger;
 import org.apache.lucene.document.Document;
-import org.codehaus.jackson.map.ObjectMapper;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.NumericField;
+import org.apache.lucene.util.NumericUtils;
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonToken;
+import org.codehaus.jackson.io.JsonStringEncoder;
 import org.hibernate.search.bridge.FieldBridge;
 import org.hibernate.search.bridge.LuceneOptions;
 
@@ -15,36 +23,296 @@ import org.hibernate.search.bridge.LuceneOptions;
  * This field bridge is used for extracting fields from JSON document which is being put
  * into Infinispan cache and for indexing those fields.
  *
+ * Every simple (not nested) field is indexed twice. Analyzed under its own name for querying by words
+ * it contains and untokenized under keywordFieldName(field) as a single term, which is used for exact
+ * matches (eq, ne as TermQuery), comparisons of strings, startswith (PrefixQuery) and Lucene sorting ($orderby).
+ *
+ * Number fields are indexed as Lucene numeric (trie) fields of type double under their own name, so that
+ * NumericRangeQuery can be used for them. Their keyword field contains prefix coded double value
+ * which keeps numeric order of terms.
+ *
+ * Fields of nested objects are indexed under dotted paths ({"address":{"city":"Brno"}} as address.city),
+ * elements of arrays as multiple values of the same field. Keyword fields of arrays contain a term per element,
+ * they can't be used for sorting. Numeric arrays have no keyword field. Null values are not indexed.
+ *
+ * When indexed_fields cache setting is specified (see IndexedFields), only the listed fields are indexed,
+ * in the listed way (analyzed, keyword or numeric). Settings of the cache are bound to JsonValueWrapper by
+ * IndexingSettingsInterceptor of the cache, all fields are indexed if no settings are bound.
+ *
+ * String fields listed in ngram_fields cache setting (see NGramFields) are indexed as n-grams at consecutive
+ * positions under NGramFields.ngramFieldName(field) as well, for substringof. Arrays are not indexed as n-grams
+ * (grams of neighbouring elements would form false phrase matches).
+ *
+ * String values of fields listed in reversed_fields cache setting are indexed reversed under
+ * reversedFieldName(field) as single terms as well, so that endswith is a PrefixQuery with the reversed literal
+ * (no leading wildcard scan of all terms).
+ *
+ * Scalar fields listed in stored_fields cache setting are stored (not indexed) under storedFieldName(field)
+ * as JSON literals ("John", 42, true, null), so that SelectProjection can answer $select from the index.
+ * Stored fields don't depend on indexed_fields, objects and arrays are not stored. Listed paths which are answered
+ * by stored fields of the document (stored scalars and missing fields, not objects and arrays) are stored
+ * in STORED_PATHS_FIELD, documents indexed without them are recognized by SelectProjection.isStoredIn.
+ *
+ * The bridge is stateless (one instance is used by concurrent indexing threads). The document is walked
+ * only once by a streaming JSON parser and Lucene fields are added as the tokens arrive, no object
+ * representation of the document is created.
+ *
  * @author Tomas Sykora <tomas@infinispan.org>
  */
 public final class JsonValueWrapperFieldBridge implements FieldBridge, Serializable {
 
     private static final Logger log = Logger.getLogger(JsonValueWrapperFieldBridge.class.getName());
 
-    private JsonValueWrapper valueWrapper;
-    private String json;
-    private ObjectMapper mapper = new ObjectMapper();
+    public static final String KEYWORD_FIELD_SUFFIX = "__keyword";
+    public static final String REVERSED_FIELD_SUFFIX = "__reversed";
+    public static final String STORED_FIELD_SUFFIX = "__stored";
+
+    /**
+     * Stored Lucene field with listed stored paths answered by stored fields of the document,
+     * each of them followed by STORED_PATHS_SEPARATOR (",name,address.city,").
+     */
+    public static final String STORED_PATHS_FIELD = "__stored_paths";
+    public static final char STORED_PATHS_SEPARATOR = ',';
+
+    /**
+     * Separator of names in paths of nested fields.
+     */
+    public static final char PATH_SEPARATOR = '.';
+
+    // thread-safe
+    private static final JsonFactory jsonFactory = new JsonFactory();
 
     @Override
     public void set(String name, Object value, Document document, LuceneOptions luceneOptions) {
         if (!(value instanceof JsonValueWrapper)) {
             throw new IllegalArgumentException("This FieldBridge can only be applied to a JsonValueWrapper");
         }
-        valueWrapper = (JsonValueWrapper) value;
-        json = valueWrapper.getJson();
+        JsonValueWrapper valueWrapper = (JsonValueWrapper) value;
+        ODataCacheSettings settings = valueWrapper.getIndexingSettings();
+        IndexedFields indexedFields = settings != null ? settings.getIndexedFields() : null;
+        NGramFields ngramFields = settings != null ? settings.getNGramFields() : null;
+        Set<String> reversedFields = settings != null ? settings.getReversedFields() : null;
+        // shrinks by stored paths which are objects or arrays in the document
+        Set<String> storedFields = settings != null && settings.getStoredFields() != null ?
+                new HashSet<String>(settings.getStoredFields()) : null;
 
         try {
-            Map<String, Object> entryAsMap = (Map<String, Object>) mapper.readValue(json, Object.class);
-            for (String field : entryAsMap.keySet()) {
-                if (entryAsMap.get(field) instanceof Number) {
-                    log.warn("Number field recognized. Field: " + field + " value: " + entryAsMap.get(field) +
-                            " Indexing of number fields will be supported in later versions.");
-                } else {
-                    luceneOptions.addFieldToDocument(field, entryAsMap.get(field).toString(), document);
+            JsonParser parser = valueWrapper.createParser(jsonFactory);
+            try {
+                if (parser.nextToken() != JsonToken.START_OBJECT) {
+                    throw new IllegalArgumentException("JSON object was expected.");
                 }
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String field = parser.getCurrentName();
+                    addField(field, parser.nextToken(), parser, document, luceneOptions, indexedFields, ngramFields,
+                            reversedFields, storedFields, false);
+                }
+                if (storedFields != null) {
+                    addStoredPaths(storedFields, document);
+                }
+            } finally {
+                parser.close();
             }
         } catch (Exception e) {
             log.error("EXCEPTION occurred in JsonValueWrapperFieldBridge during adding fields into Lucene Document.", e);
         }
     }
+
+    /**
+     * Adds Lucene fields for the value starting with the given token, parser is moved to the end of the value.
+     *
+     * @param field         -- dotted path of the field (address.city for {"address":{"city":"Brno"}})
+     * @param indexedFields -- whitelist of indexed fields or null if all fields are indexed
+     * @param ngramFields   -- fields indexed as n-grams as well or null if there are no such fields
+     * @param reversedFields -- fields indexed reversed as well or null if there are no such fields
+     * @param storedFields  -- fields stored in the index or null if there are no such fields, paths of objects
+     *                      and arrays are removed
+     * @param inArray       -- true for array elements, which are indexed as multiple values of the same field
+     *                      (numbers without keyword field, prefix coded terms are useful for sorting only)
+     */
+    private void addField(String field, JsonToken token, JsonParser parser, Document document,
+                          LuceneOptions luceneOptions, IndexedFields indexedFields, NGramFields ngramFields,
+                          Set<String> reversedFields, Set<String> storedFields, boolean inArray) throws IOException {
+        if (storedFields != null && (token == JsonToken.START_OBJECT || token == JsonToken.START_ARRAY || inArray)) {
+            // not stored, $select of the field is extracted from the cached document
+            storedFields.remove(field);
+        }
+        switch (token) {
+            case START_OBJECT:
+                if (indexedFields != null && !indexedFields.containsIndexedFields(field)
+                        && !containsStoredFields(storedFields, field)) {
+                    parser.skipChildren();
+                    break;
+                }
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String nestedField = field + PATH_SEPARATOR + parser.getCurrentName();
+                    addField(nestedField, parser.nextToken(), parser, document, luceneOptions, indexedFields,
+                            ngramFields, reversedFields, storedFields, inArray);
+                }
+                break;
+            case START_ARRAY:
+                JsonToken element;
+                while ((element = parser.nextToken()) != JsonToken.END_ARRAY) {
+                    addField(field, element, parser, document, luceneOptions, indexedFields, ngramFields,
+                            reversedFields, storedFields, true);
+                }
+                break;
+            case VALUE_NULL:
+                // nothing to index, stored as null literal like in extracted $select
+                if (storedFields != null && storedFields.contains(field)) {
+                    addStored(field, token, parser, document);
+                }
+                break;
+            default:
+                if (indexedFields == null) {
+                    addValue(field, token, parser, document, luceneOptions, inArray);
+                } else if (indexedFields.getMode(field) != null) {
+                    addValue(field, indexedFields.getMode(field), token, parser, document, luceneOptions, inArray);
+                }
+                if (ngramFields != null && ngramFields.contains(field) && !inArray && token == JsonToken.VALUE_STRING) {
+                    addNGrams(field, parser.getText(), document, ngramFields);
+                }
+                if (reversedFields != null && reversedFields.contains(field) && token == JsonToken.VALUE_STRING) {
+                    addReversed(field, parser.getText(), document);
+                }
+                if (storedFields != null && storedFields.contains(field)) {
+                    addStored(field, token, parser, document);
+                }
+                break;
+        }
+    }
+
+    /**
+     * Scalar value of a field which is not whitelisted, the way of indexing is given by the type of the value.
+     */
+    private void addValue(String field, JsonToken token, JsonParser parser, Document document,
+                          LuceneOptions luceneOptions, boolean inArray) throws IOException {
+        if (token == JsonToken.VALUE_NUMBER_INT || token == JsonToken.VALUE_NUMBER_FLOAT) {
+            addNumeric(field, parser.getDoubleValue(), document, inArray);
+        } else {
+            luceneOptions.addFieldToDocument(field, parser.getText(), document);
+            addKeyword(field, parser.getText(), document);
+        }
+    }
+
+    /**
+     * Scalar value of a whitelisted field, indexed in the given mode.
+     */
+    private void addValue(String field, IndexedFields.Mode mode, JsonToken token, JsonParser parser, Document document,
+                          LuceneOptions luceneOptions, boolean inArray) throws IOException {
+        switch (mode) {
+            case ANALYZED:
+                luceneOptions.addFieldToDocument(field, parser.getText(), document);
+                addKeyword(field, parser.getText(), document);
+                break;
+            case KEYWORD:
+                addKeyword(field, parser.getText(), document);
+                break;
+            case NUMERIC:
+                if (token == JsonToken.VALUE_NUMBER_INT || token == JsonToken.VALUE_NUMBER_FLOAT) {
+                    addNumeric(field, parser.getDoubleValue(), document, inArray);
+                } else {
+                    log.trace("Non-numeric value of numeric field " + field + " not indexed: " + parser.getText());
+                }
+                break;
+        }
+    }
+
+    private void addNumeric(String field, double number, Document document, boolean inArray) {
+        document.add(new NumericField(field, Field.Store.NO, true).setDoubleValue(number));
+        if (!inArray) {
+            document.add(new Field(keywordFieldName(field), NumericUtils.doubleToPrefixCoded(number),
+                    Field.Store.NO, Field.Index.NOT_ANALYZED_NO_NORMS));
+        }
+    }
+
+    /**
+     * Untokenized term, used for exact matches, prefixes and sorting. Keyword fields are indexed only this way.
+     */
+    private void addKeyword(String field, String value, Document document) {
+        document.add(new Field(keywordFieldName(field), value, Field.Store.NO, Field.Index.NOT_ANALYZED_NO_NORMS));
+    }
+
+    /**
+     * Reversed untokenized term, used for suffixes.
+     */
+    private void addReversed(String field, String value, Document document) {
+        document.add(new Field(reversedFieldName(field), reverse(value), Field.Store.NO,
+                Field.Index.NOT_ANALYZED_NO_NORMS));
+    }
+
+    /**
+     * Grams at consecutive positions, only documents (not positions) are scored, so norms are omitted.
+     */
+    private void addNGrams(String field, String value, Document document, NGramFields ngramFields) {
+        Field ngramField = new Field(NGramFields.ngramFieldName(field), new NGramTokenStream(ngramFields.grams(value)));
+        ngramField.setOmitNorms(true);
+        document.add(ngramField);
+    }
+
+    /**
+     * JSON literal of the value, strings are quoted and escaped, numbers and booleans are kept as they are.
+     */
+    private void addStored(String field, JsonToken token, JsonParser parser, Document document) throws IOException {
+        String value = token == JsonToken.VALUE_STRING ?
+                '"' + new String(JsonStringEncoder.getInstance().quoteAsString(parser.getText())) + '"' :
+                parser.getText();
+        document.add(new Field(storedFieldName(field), value, Field.Store.YES, Field.Index.NO));
+    }
+
+    private void addStoredPaths(Set<String> storedPaths, Document document) {
+        StringBuilder value = new StringBuilder().append(STORED_PATHS_SEPARATOR);
+        for (String path : storedPaths) {
+            value.append(path).append(STORED_PATHS_SEPARATOR);
+        }
+        document.add(new Field(STORED_PATHS_FIELD, value.toString(), Field.Store.YES, Field.Index.NO));
+    }
+
+    /**
+     * @return true if a field nested in the given object is stored
+     */
+    private static boolean containsStoredFields(Set<String> storedFields, String field) {
+        if (storedFields == null) {
+            return false;
+        }
+        String prefix = field + PATH_SEPARATOR;
+        for (String storedField : storedFields) {
+            if (storedField.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param field -- name of JSON field
+     * @return name of untokenized Lucene field which can be used for exact matches and sorting by the given JSON field
+     */
+    public static String keywordFieldName(String field) {
+        return field + KEYWORD_FIELD_SUFFIX;
+    }
+
+    /**
+     * @param field -- name of JSON field
+     * @return name of untokenized Lucene field containing reversed values of the given JSON field (for endswith)
+     */
+    public static String reversedFieldName(String field) {
+        return field + REVERSED_FIELD_SUFFIX;
+    }
+
+    /**
+     * @param field -- name of JSON field
+     * @return name of stored Lucene field containing JSON literal of the given JSON field (for $select)
+     */
+    public static String storedFieldName(String field) {
+        return field + STORED_FIELD_SUFFIX;
+    }
+
+    /**
+     * @param value -- indexed value or literal of endswith
+     * @return value with reversed order of characters (surrogate pairs are kept)
+     */
+    public static String reverse(String value) {
+        return new StringBuilder(value).reverse().toString();
+    }
 }
@@ -1,14 +1,34 @@
 package org.infinispan.odata.producer;
 
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
 import org.apache.log4j.Logger;
+import org.apache.lucene.index.Term;
 import org.apache.lucene.search.BooleanClause;
 import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.search.NumericRangeQuery;
+import org.apache.lucene.search.PhraseQuery;
+import org.apache.lucene.search.PrefixQuery;
 import org.apache.lucene.search.Query;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.SortField;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TermRangeQuery;
 import org.hibernate.search.query.dsl.QueryBuilder;
+import org.odata4j.exceptions.BadRequestException;
+import org.odata4j.exceptions.NotImplementedException;
 import org.odata4j.expression.AddExpression;
 import org.odata4j.expression.AggregateAllFunction;
 import org.odata4j.expression.AggregateAnyFunction;
 import org.odata4j.expression.AndExpression;
+import org.odata4j.expression.BinaryBoolCommonExpression;
+import org.odata4j.expression.BinaryCommonExpression;
 import org.odata4j.expression.BinaryLiteral;
 import org.odata4j.expression.BoolCommonExpression;
 import org.odata4j.expression.BoolParenExpression;
@@ -16,6 +36,7 @@ import org.odata4j.expression.BooleanLiteral;
 import org.odata4j.expression.ByteLiteral;
 import org.odata4j.expression.CastExpression;
 import org.odata4j.expression.CeilingMethodCallExpression;
+import org.odata4j.expression.CommonExpression;
 import org.odata4j.expression.ConcatMethodCallExpression;
 import org.odata4j.expression.DateTimeLiteral;
 import org.odata4j.expression.DateTimeOffsetLiteral;
@@ -77,10 +98,35 @@ public class MapQueryExpressionVisitor implements ExpressionVisitor {
     private static final Logger log = Logger.getLogger(MapQueryExpressionVisitor.class.getName());
 
     private Query tmpQuery;
+    // results of constant folding, recognized by identity
+    private final Query trueQuery = new MatchAllDocsQuery();
+    private final Query falseQuery = new BooleanQuery();
     private QueryBuilder queryBuilder;
+    private IndexedFields indexedFields;
+    private NGramFields ngramFields;
+    private Set<String> reversedFields;
+    private List<SortField> sortFields = new ArrayList<SortField>();
+    // leaf queries built from literals (by identity) and their literals and builders, see getBuiltFilterTemplate
+    private final IdentityHashMap<Query, CommonExpression> leafLiterals = new IdentityHashMap<Query, CommonExpression>();
+    private final IdentityHashMap<Query, FilterTemplate.Leaf> leaves = new IdentityHashMap<Query, FilterTemplate.Leaf>();
+    // translation depends on values of literals (constant folding of comparison of literals)
+    private boolean literalsFolded;
 
     public MapQueryExpressionVisitor(QueryBuilder queryBuilder) {
+        this(queryBuilder, null);
+    }
+
+    /**
+     * @param queryBuilder -- Hibernate Search query builder for CachedValue
+     * @param settings     -- settings of the queried cache (indexed, n-gram and reversed fields) or null for defaults
+     */
+    public MapQueryExpressionVisitor(QueryBuilder queryBuilder, ODataCacheSettings settings) {
         this.queryBuilder = queryBuilder;
+        if (settings != null) {
+            this.indexedFields = settings.getIndexedFields();
+            this.ngramFields = settings.getNGramFields();
+            this.reversedFields = settings.getReversedFields();
+        }
     }
 
     public Query getBuiltLuceneQuery() {
@@ -90,61 +136,736 @@ public class MapQueryExpressionVisitor implements ExpressionVisitor {
     }
 
     /**
-     * This method acts as a resolver for calling responsible visitor method.
+     * Returns the built query as a template which can be bound to literals of other filters of the same shape.
+     *
+     * @param filter -- the visited $filter expression
+     * @return template or null if the translation depends on values of literals or some literal was not translated
+     *         into a leaf query
+     */
+    public FilterTemplate getBuiltFilterTemplate(BoolCommonExpression filter) {
+        if (tmpQuery == null || literalsFolded) {
+            return null;
+        }
+        List<CommonExpression> literals = FilterTemplate.literals(filter);
+        if (literals == null) {
+            return null;
+        }
+        IdentityHashMap<CommonExpression, Integer> literalIndexes = new IdentityHashMap<CommonExpression, Integer>();
+        for (int i = 0; i < literals.size(); i++) {
+            literalIndexes.put(literals.get(i), i);
+        }
+        IdentityHashMap<Query, Integer> parameters = new IdentityHashMap<Query, Integer>();
+        for (Map.Entry<Query, CommonExpression> leafLiteral : leafLiterals.entrySet()) {
+            Integer index = literalIndexes.get(leafLiteral.getValue());
+            if (index == null) {
+                return null;
+            }
+            parameters.put(leafLiteral.getKey(), index);
+        }
+        if (new HashSet<Integer>(parameters.values()).size() != literals.size()) {
+            return null;
+        }
+        return new FilterTemplate(tmpQuery, parameters, new IdentityHashMap<Query, FilterTemplate.Leaf>(leaves),
+                literals.size());
+    }
+
+    /**
+     * Returns Lucene Sort built from visited $orderby expressions (in order of their visiting).
+     *
+     * @return Sort instance or null if no OrderByExpression was visited
+     */
+    public Sort getBuiltLuceneSort() {
+        if (sortFields.isEmpty()) {
+            return null;
+        }
+        log.trace("From MapQueryExpressionVisitor: returning sort fields (to InfinispanProducer): " + sortFields);
+        return new Sort(sortFields.toArray(new SortField[sortFields.size()]));
+    }
+
+    /**
+     * This method acts as a resolver for calling responsible visitor method. Sub-expressions are translated
+     * by the same resolver recursively, every visit method leaves the translated query in tmpQuery.
      *
      * @param expr - general expression
      */
     public void visit(BoolCommonExpression expr) {
-        if(expr.getClass().getInterfaces()[0] == AndExpression.class) {
+        if (expr instanceof AndExpression) {
             visit((AndExpression) expr);
-        }
-        if(expr.getClass().getInterfaces()[0] == OrExpression.class) {
+        } else if (expr instanceof OrExpression) {
             visit((OrExpression) expr);
-        }
-        if(expr.getClass().getInterfaces()[0] == EqExpression.class) {
+        } else if (expr instanceof EqExpression) {
             visit((EqExpression) expr);
+        } else if (expr instanceof NeExpression) {
+            visit((NeExpression) expr);
+        } else if (expr instanceof GtExpression) {
+            visit((GtExpression) expr);
+        } else if (expr instanceof GeExpression) {
+            visit((GeExpression) expr);
+        } else if (expr instanceof LtExpression) {
+            visit((LtExpression) expr);
+        } else if (expr instanceof LeExpression) {
+            visit((LeExpression) expr);
+        } else if (expr instanceof NotExpression) {
+            visit((NotExpression) expr);
+        } else if (expr instanceof BoolParenExpression) {
+            visit((BoolParenExpression) expr);
+        } else if (expr instanceof BooleanLiteral) {
+            visit((BooleanLiteral) expr);
+        } else if (expr instanceof StartsWithMethodCallExpression) {
+            visit((StartsWithMethodCallExpression) expr);
+        } else if (expr instanceof EndsWithMethodCallExpression) {
+            visit((EndsWithMethodCallExpression) expr);
+        } else if (expr instanceof SubstringOfMethodCallExpression) {
+            visit((SubstringOfMethodCallExpression) expr);
+        } else {
+            throw new NotImplementedException("Unsupported expression in $filter: " + expr);
         }
         log.trace("End of the main BoolCommonExpression -- actual value of tmpQuery: " + tmpQuery);
     }
 
+    /**
+     * Chain of and operators (a and b and c, with or without parentheses) is translated into one flat
+     * BooleanQuery instead of nested two-clause queries.
+     * <p/>
+     * Negated operands (ne, not) are added as MUST_NOT clauses of the conjunction itself, so that the positive
+     * operands select candidate documents and the negated ones only exclude from them. Iteration over all
+     * documents (MatchAllDocsQuery) is needed only when all operands are negated.
+     * <p/>
+     * Chains longer than BooleanQuery.getMaxClauseCount() are nested, see conjunction.
+     * <p/>
+     * Constant operands are folded: true operands are left out, a false operand makes the whole conjunction false.
+     */
     @Override
     public void visit(AndExpression expr) {
-        BooleanQuery booleanQuery = new BooleanQuery();
-        visit(expr.getLHS());
-        booleanQuery.add(this.tmpQuery, BooleanClause.Occur.MUST);
-        visit(expr.getRHS());
-        booleanQuery.add(this.tmpQuery, BooleanClause.Occur.MUST);
-
-        this.tmpQuery = booleanQuery;
+        List<Query> operands = new ArrayList<Query>();
+        translateOperands(expr, AndExpression.class, operands);
+
+        List<Query> required = new ArrayList<Query>(operands.size());
+        List<Query> prohibited = new ArrayList<Query>();
+        for (Query operand : operands) {
+            if (operand == falseQuery) {
+                this.tmpQuery = falseQuery;
+                log.trace("End of AND expr -- folded to false");
+                return;
+            }
+            if (operand != trueQuery) {
+                addConjunct(required, prohibited, operand);
+            }
+        }
+        if (required.isEmpty() && prohibited.isEmpty()) {
+            this.tmpQuery = trueQuery;
+        } else if (required.size() == 1 && prohibited.isEmpty()) {
+            this.tmpQuery = required.get(0);
+        } else {
+            this.tmpQuery = conjunction(required, prohibited);
+        }
         log.trace("End of AND expr -- tmpQuery set to: " + tmpQuery);
     }
 
+    /**
+     * Chain of or operators is translated into one flat BooleanQuery of SHOULD clauses (nested by
+     * BooleanQuery.getMaxClauseCount() clauses if the chain is longer).
+     * <p/>
+     * Constant operands are folded: false operands are left out, a true operand makes the whole disjunction true.
+     */
     @Override
     public void visit(OrExpression expr) {
+        List<Query> operands = new ArrayList<Query>();
+        translateOperands(expr, OrExpression.class, operands);
+
+        List<Query> disjuncts = new ArrayList<Query>(operands.size());
+        for (Query operand : operands) {
+            if (operand == trueQuery) {
+                this.tmpQuery = trueQuery;
+                log.trace("End of OR expr -- folded to true");
+                return;
+            }
+            if (operand != falseQuery) {
+                disjuncts.add(operand);
+            }
+        }
+        if (disjuncts.isEmpty()) {
+            this.tmpQuery = falseQuery;
+        } else {
+            this.tmpQuery = disjunction(disjuncts);
+        }
+        log.trace("End of OR expr -- tmpQuery set to: " + tmpQuery);
+    }
+
+    /**
+     * Translates operands of a chain of the given operator, parentheses around the operands are skipped.
+     *
+     * @param expr     -- operand or the chain itself
+     * @param operator -- AndExpression or OrExpression
+     * @param operands -- translated operands are added here, in order
+     */
+    private void translateOperands(BoolCommonExpression expr, Class<? extends BinaryBoolCommonExpression> operator,
+                                   List<Query> operands) {
+        while (expr instanceof BoolParenExpression &&
+                ((BoolParenExpression) expr).getExpression() instanceof BoolCommonExpression) {
+            expr = (BoolCommonExpression) ((BoolParenExpression) expr).getExpression();
+        }
+        if (operator.isInstance(expr)) {
+            translateOperands(((BinaryBoolCommonExpression) expr).getLHS(), operator, operands);
+            translateOperands(((BinaryBoolCommonExpression) expr).getRHS(), operator, operands);
+        } else {
+            visit(expr);
+            operands.add(this.tmpQuery);
+        }
+    }
+
+    /**
+     * Flat BooleanQuery of MUST and MUST_NOT clauses, anchored on MatchAllDocsQuery if there are no required queries.
+     * <p/>
+     * Longer conjunctions than BooleanQuery.getMaxClauseCount() are nested: required queries in groups of MUST
+     * clauses and prohibited ones in a single MUST_NOT disjunction (not a and not b is not (a or b)), next to
+     * the required queries. So the negations still only exclude from documents selected by the required queries,
+     * no group of MUST_NOT clauses needs its own MatchAllDocsQuery anchor.
+     */
+    private Query conjunction(List<Query> required, List<Query> prohibited) {
         BooleanQuery booleanQuery = new BooleanQuery();
-        visit(expr.getLHS());
-        booleanQuery.add(this.tmpQuery, BooleanClause.Occur.SHOULD);
-        visit(expr.getRHS());
-        booleanQuery.add(this.tmpQuery, BooleanClause.Occur.SHOULD);
+        int anchors = required.isEmpty() ? 1 : 0;
+        if (required.size() + prohibited.size() + anchors <= BooleanQuery.getMaxClauseCount()) {
+            for (Query query : required) {
+                booleanQuery.add(query, BooleanClause.Occur.MUST);
+            }
+            for (Query query : prohibited) {
+                booleanQuery.add(query, BooleanClause.Occur.MUST_NOT);
+            }
+        } else {
+            if (!required.isEmpty()) {
+                booleanQuery.add(requiredConjunction(required), BooleanClause.Occur.MUST);
+            }
+            if (!prohibited.isEmpty()) {
+                booleanQuery.add(disjunction(prohibited), BooleanClause.Occur.MUST_NOT);
+            }
+        }
+        if (anchors > 0) {
+            booleanQuery.add(new MatchAllDocsQuery(), BooleanClause.Occur.MUST);
+        }
+        return booleanQuery;
+    }
 
-        this.tmpQuery = booleanQuery;
-        log.trace("End of OR expr -- tmpQuery set to: " + tmpQuery);
+    /**
+     * @return conjunction of the required queries, nested by BooleanQuery.getMaxClauseCount() MUST clauses
+     */
+    private Query requiredConjunction(List<Query> required) {
+        if (required.size() == 1) {
+            return required.get(0);
+        }
+        int maxClauseCount = BooleanQuery.getMaxClauseCount();
+        if (required.size() > maxClauseCount) {
+            List<Query> nested = new ArrayList<Query>();
+            for (int i = 0; i < required.size(); i += maxClauseCount) {
+                nested.add(requiredConjunction(required.subList(i, Math.min(i + maxClauseCount, required.size()))));
+            }
+            return requiredConjunction(nested);
+        }
+        BooleanQuery booleanQuery = new BooleanQuery();
+        for (Query query : required) {
+            booleanQuery.add(query, BooleanClause.Occur.MUST);
+        }
+        return booleanQuery;
+    }
+
+    private Query disjunction(List<Query> disjuncts) {
+        if (disjuncts.size() == 1) {
+            return disjuncts.get(0);
+        }
+        int maxClauseCount = BooleanQuery.getMaxClauseCount();
+        if (disjuncts.size() > maxClauseCount) {
+            List<Query> nested = new ArrayList<Query>();
+            for (int i = 0; i < disjuncts.size(); i += maxClauseCount) {
+                nested.add(disjunction(disjuncts.subList(i, Math.min(i + maxClauseCount, disjuncts.size()))));
+            }
+            return disjunction(nested);
+        }
+        BooleanQuery booleanQuery = new BooleanQuery();
+        for (Query disjunct : disjuncts) {
+            booleanQuery.add(disjunct, BooleanClause.Occur.SHOULD);
+        }
+        return booleanQuery;
+    }
+
+    /**
+     * Constant true or false filter (e.g. $filter=true), used by constant folding.
+     */
+    @Override
+    public void visit(BooleanLiteral expr) {
+        this.tmpQuery = expr.getValue() ? trueQuery : falseQuery;
+        log.trace("End of BOOLEAN literal -- tmpQuery set to: " + tmpQuery);
     }
 
     @Override
     public void visit(EqExpression expr) {
+        this.tmpQuery = equalityQuery(expr);
+        log.trace("End of EQ expr -- tmpQuery set to: " + tmpQuery);
+    }
 
-        EntitySimpleProperty espLhs = (EntitySimpleProperty) expr.getLHS();
-        log.trace("eqExpression.getLHS() getPropertyName(): " + espLhs.getPropertyName());
-        // Some other literals can be obtained here (support it in 1.1)
-        StringLiteral slRhs = (StringLiteral) expr.getRHS();
-        log.trace("eqExpression.getRHS() getValue(): " + slRhs.getValue());
+    /**
+     * Negation of eq, all documents which don't match (including documents without the field).
+     */
+    @Override
+    public void visit(NeExpression expr) {
+        this.tmpQuery = negation(equalityQuery(expr));
+        log.trace("End of NE expr -- tmpQuery set to: " + tmpQuery);
+    }
 
-        this.tmpQuery = this.queryBuilder.phrase()
-                .onField(espLhs.getPropertyName())
-                .sentence(slRhs.getValue())
-                .createQuery();
-        log.trace("End of EQ expr -- tmpQuery set to: " + tmpQuery);
+    /**
+     * not(expr) -- documents which are not matched by expr (including documents without the field).
+     */
+    @Override
+    public void visit(NotExpression expr) {
+        if (!(expr.getExpression() instanceof BoolCommonExpression)) {
+            throw new NotImplementedException("Only boolean expressions can be negated. Expression: " + expr);
+        }
+        visit((BoolCommonExpression) expr.getExpression());
+
+        this.tmpQuery = negation(this.tmpQuery);
+        log.trace("End of NOT expr -- tmpQuery set to: " + tmpQuery);
+    }
+
+    @Override
+    public void visit(BoolParenExpression expr) {
+        if (!(expr.getExpression() instanceof BoolCommonExpression)) {
+            throw new NotImplementedException("Only boolean expressions are supported in parentheses. " +
+                    "Expression: " + expr);
+        }
+        visit((BoolCommonExpression) expr.getExpression());
+        log.trace("End of BOOL PAREN expr -- tmpQuery set to: " + tmpQuery);
+    }
+
+    /**
+     * Pure negation is anchored on MatchAllDocsQuery (Lucene can't match by MUST_NOT clauses only).
+     * Negation of negation gives back the negated queries (not(not a) is a, not(not a and not b) is a or b),
+     * negation of constant is folded.
+     *
+     * @param query -- query to be negated
+     * @return query matching all documents which are not matched by the given query
+     */
+    private Query negation(Query query) {
+        if (query == trueQuery || query == falseQuery) {
+            return query == trueQuery ? falseQuery : trueQuery;
+        }
+        if (isNegation(query)) {
+            List<Query> negated = new ArrayList<Query>();
+            for (BooleanClause clause : ((BooleanQuery) query).clauses()) {
+                if (clause.isProhibited()) {
+                    negated.add(clause.getQuery());
+                }
+            }
+            return disjunction(negated);
+        }
+        BooleanQuery booleanQuery = new BooleanQuery();
+        booleanQuery.add(new MatchAllDocsQuery(), BooleanClause.Occur.MUST);
+        booleanQuery.add(query, BooleanClause.Occur.MUST_NOT);
+        return booleanQuery;
+    }
+
+    /**
+     * @return true if the query is a negation built by negation(Query) or a conjunction of negations,
+     *         i.e. MatchAllDocsQuery anchor and MUST_NOT clauses only
+     */
+    private boolean isNegation(Query query) {
+        if (!(query instanceof BooleanQuery)) {
+            return false;
+        }
+        boolean anchored = false;
+        boolean prohibited = false;
+        for (BooleanClause clause : ((BooleanQuery) query).clauses()) {
+            if (clause.isProhibited()) {
+                prohibited = true;
+            } else if (!anchored && clause.isRequired() && clause.getQuery() instanceof MatchAllDocsQuery) {
+                anchored = true;
+            } else {
+                return false;
+            }
+        }
+        return anchored && prohibited;
+    }
+
+    /**
+     * Adds operand of and to required or prohibited queries, prohibited queries of negated operand are added
+     * directly (without their anchor).
+     */
+    private void addConjunct(List<Query> required, List<Query> prohibited, Query query) {
+        if (isNegation(query)) {
+            for (BooleanClause clause : ((BooleanQuery) query).clauses()) {
+                if (clause.isProhibited()) {
+                    prohibited.add(clause.getQuery());
+                }
+            }
+        } else {
+            required.add(query);
+        }
+    }
+
+    /**
+     * Exact match of a field (property on the left side, literal on the right side).
+     * <p/>
+     * Numeric literals are matched against numeric (trie) fields, string and boolean literals against untokenized
+     * keyword fields by TermQuery -- the whole value has to match (case sensitive), no positions are needed.
+     * String functions compared with boolean literal (startswith(lastName,'Ne') eq true) are translated
+     * into the query of the function itself (negated for false).
+     *
+     * @param expr -- eq or ne expression
+     * @return NumericRangeQuery or TermQuery
+     */
+    private Query equalityQuery(BinaryCommonExpression expr) {
+        if (isStringFunction(expr.getLHS()) && expr.getRHS() instanceof BooleanLiteral) {
+            visit((BoolCommonExpression) expr.getLHS());
+            return ((BooleanLiteral) expr.getRHS()).getValue() ? tmpQuery : negation(tmpQuery);
+        }
+        Integer comparison = compareLiterals(expr);
+        if (comparison != null) {
+            return comparison == 0 ? trueQuery : falseQuery;
+        }
+        String field = fieldName(expr.getLHS());
+        checkIndexed(field, numericLiteralValue(expr.getRHS()) != null, expr);
+
+        if (numericLiteralValue(expr.getRHS()) != null) {
+            return leaf(expr.getRHS(), numericEquality(field));
+        }
+        String keywordField = JsonValueWrapperFieldBridge.keywordFieldName(field);
+        if (expr.getRHS() instanceof StringLiteral) {
+            return leaf(expr.getRHS(), keywordTerm(keywordField));
+        }
+        if (expr.getRHS() instanceof BooleanLiteral) {
+            return new TermQuery(new Term(keywordField, String.valueOf(((BooleanLiteral) expr.getRHS()).getValue())));
+        }
+        throw new NotImplementedException("Only numeric, string and boolean literals are supported in eq and ne. " +
+                "Expression: " + expr);
+    }
+
+    @Override
+    public void visit(GtExpression expr) {
+        this.tmpQuery = rangeQuery(expr, true, false);
+        log.trace("End of GT expr -- tmpQuery set to: " + tmpQuery);
+    }
+
+    @Override
+    public void visit(GeExpression expr) {
+        this.tmpQuery = rangeQuery(expr, true, true);
+        log.trace("End of GE expr -- tmpQuery set to: " + tmpQuery);
+    }
+
+    @Override
+    public void visit(LtExpression expr) {
+        this.tmpQuery = rangeQuery(expr, false, false);
+        log.trace("End of LT expr -- tmpQuery set to: " + tmpQuery);
+    }
+
+    @Override
+    public void visit(LeExpression expr) {
+        this.tmpQuery = rangeQuery(expr, false, true);
+        log.trace("End of LE expr -- tmpQuery set to: " + tmpQuery);
+    }
+
+    /**
+     * Builds half-open range query for comparison operators (property on the left side, literal on the right side).
+     * <p/>
+     * Numeric literals are compared against numeric (trie) fields, string literals against untokenized
+     * companion fields (lexicographical order).
+     *
+     * @param expr       -- gt, ge, lt or le expression
+     * @param lowerBound -- true if literal is the lower bound of the range (gt, ge)
+     * @param inclusive  -- true if literal itself is included in the range (ge, le)
+     * @return NumericRangeQuery or TermRangeQuery
+     */
+    private Query rangeQuery(BinaryCommonExpression expr, boolean lowerBound, boolean inclusive) {
+        Integer comparison = compareLiterals(expr);
+        if (comparison != null) {
+            boolean result = lowerBound ?
+                    (inclusive ? comparison >= 0 : comparison > 0) :
+                    (inclusive ? comparison <= 0 : comparison < 0);
+            return result ? trueQuery : falseQuery;
+        }
+        String field = fieldName(expr.getLHS());
+        checkIndexed(field, numericLiteralValue(expr.getRHS()) != null, expr);
+
+        if (numericLiteralValue(expr.getRHS()) != null) {
+            return leaf(expr.getRHS(), numericRange(field, lowerBound, inclusive));
+        }
+        if (expr.getRHS() instanceof StringLiteral) {
+            return leaf(expr.getRHS(),
+                    termRange(JsonValueWrapperFieldBridge.keywordFieldName(field), lowerBound, inclusive));
+        }
+        throw new NotImplementedException("Only numeric and string literals are supported in comparisons. " +
+                "Expression: " + expr);
+    }
+
+    /**
+     * Builds leaf query for the literal and records it for getBuiltFilterTemplate.
+     */
+    private Query leaf(CommonExpression literal, FilterTemplate.Leaf leaf) {
+        Query query = leaf.create(FilterTemplate.literalValue(literal));
+        leafLiterals.put(query, literal);
+        leaves.put(query, leaf);
+        return query;
+    }
+
+    // builders of leaf queries are static, templates don't keep the visitor reachable
+
+    private static FilterTemplate.Leaf numericEquality(final String field) {
+        return new FilterTemplate.Leaf() {
+            @Override
+            public Query create(Object value) {
+                if (!(value instanceof Double)) {
+                    return null;
+                }
+                return NumericRangeQuery.newDoubleRange(field, (Double) value, (Double) value, true, true);
+            }
+        };
+    }
+
+    private static FilterTemplate.Leaf numericRange(final String field, final boolean lowerBound,
+                                                    final boolean inclusive) {
+        return new FilterTemplate.Leaf() {
+            @Override
+            public Query create(Object value) {
+                if (!(value instanceof Double)) {
+                    return null;
+                }
+                return lowerBound ?
+                        NumericRangeQuery.newDoubleRange(field, (Double) value, null, inclusive, true) :
+                        NumericRangeQuery.newDoubleRange(field, null, (Double) value, true, inclusive);
+            }
+        };
+    }
+
+    private static FilterTemplate.Leaf keywordTerm(final String keywordField) {
+        return new FilterTemplate.Leaf() {
+            @Override
+            public Query create(Object value) {
+                return value instanceof String ? new TermQuery(new Term(keywordField, (String) value)) : null;
+            }
+        };
+    }
+
+    private static FilterTemplate.Leaf termRange(final String keywordField, final boolean lowerBound,
+                                                 final boolean inclusive) {
+        return new FilterTemplate.Leaf() {
+            @Override
+            public Query create(Object value) {
+                if (!(value instanceof String)) {
+                    return null;
+                }
+                return lowerBound ?
+                        new TermRangeQuery(keywordField, (String) value, null, inclusive, true) :
+                        new TermRangeQuery(keywordField, null, (String) value, true, inclusive);
+            }
+        };
+    }
+
+    private static FilterTemplate.Leaf prefix(final String keywordField) {
+        return new FilterTemplate.Leaf() {
+            @Override
+            public Query create(Object value) {
+                return value instanceof String ? new PrefixQuery(new Term(keywordField, (String) value)) : null;
+            }
+        };
+    }
+
+    private static FilterTemplate.Leaf reversedPrefix(final String reversedField) {
+        return new FilterTemplate.Leaf() {
+            @Override
+            public Query create(Object value) {
+                if (!(value instanceof String)) {
+                    return null;
+                }
+                return new PrefixQuery(new Term(reversedField, JsonValueWrapperFieldBridge.reverse((String) value)));
+            }
+        };
+    }
+
+    private static FilterTemplate.Leaf substring(final NGramFields ngramFields, final String ngramField) {
+        return new FilterTemplate.Leaf() {
+            @Override
+            public Query create(Object value) {
+                if (!(value instanceof String)) {
+                    return null;
+                }
+                String substring = (String) value;
+                if (substring.length() < ngramFields.getSize()) {
+                    return new PrefixQuery(new Term(ngramField, substring));
+                }
+                PhraseQuery phraseQuery = new PhraseQuery();
+                List<String> grams = ngramFields.grams(substring);
+                for (int position = 0; position <= substring.length() - ngramFields.getSize(); position++) {
+                    phraseQuery.add(new Term(ngramField, grams.get(position)), position);
+                }
+                return phraseQuery;
+            }
+        };
+    }
+
+    private boolean isStringFunction(CommonExpression expr) {
+        return expr instanceof StartsWithMethodCallExpression || expr instanceof EndsWithMethodCallExpression ||
+                expr instanceof SubstringOfMethodCallExpression;
+    }
+
+    /**
+     * startswith(field, 'prefix') -- PrefixQuery on untokenized keyword field (terms are visited in order
+     * starting with the prefix, no scan of all terms).
+     */
+    @Override
+    public void visit(StartsWithMethodCallExpression expr) {
+        String field = fieldName(expr.getTarget());
+        stringLiteralValue(expr.getValue(), expr);
+        checkIndexed(field, false, expr);
+
+        this.tmpQuery = leaf(expr.getValue(), prefix(JsonValueWrapperFieldBridge.keywordFieldName(field)));
+        log.trace("End of STARTSWITH expr -- tmpQuery set to: " + tmpQuery);
+    }
+
+    /**
+     * endswith(field, 'suffix') -- supported for fields indexed reversed only (reversed_fields cache setting).
+     * PrefixQuery with reversed suffix on the reversed field created by JsonValueWrapperFieldBridge, instead of
+     * leading wildcard query.
+     */
+    @Override
+    public void visit(EndsWithMethodCallExpression expr) {
+        String field = fieldName(expr.getTarget());
+        stringLiteralValue(expr.getValue(), expr);
+        if (reversedFields == null || !reversedFields.contains(field)) {
+            throw new NotImplementedException("endswith is supported only for fields listed in " +
+                    ODataCacheSettings.REVERSED_FIELDS + " cache setting. Expression: " + expr);
+        }
+        checkIndexed(field, false, expr);
+
+        this.tmpQuery = leaf(expr.getValue(), reversedPrefix(JsonValueWrapperFieldBridge.reversedFieldName(field)));
+        log.trace("End of ENDSWITH expr -- tmpQuery set to: " + tmpQuery);
+    }
+
+    /**
+     * substringof('substring', field) -- supported for fields indexed as n-grams only (ngram_fields cache setting).
+     * <p/>
+     * Substrings of at least n characters are matched by PhraseQuery of their grams (consecutive grams
+     * can only come from the same substring), shorter ones by PrefixQuery on the grams.
+     */
+    @Override
+    public void visit(SubstringOfMethodCallExpression expr) {
+        String field = fieldName(expr.getTarget());
+        stringLiteralValue(expr.getValue(), expr);
+        if (ngramFields == null || !ngramFields.contains(field)) {
+            throw new NotImplementedException("substringof is supported only for fields listed in " +
+                    ODataCacheSettings.NGRAM_FIELDS + " cache setting. Expression: " + expr);
+        }
+
+        this.tmpQuery = leaf(expr.getValue(), substring(ngramFields, NGramFields.ngramFieldName(field)));
+        log.trace("End of SUBSTRINGOF expr -- tmpQuery set to: " + tmpQuery);
+    }
+
+    /**
+     * Fields whitelisted by indexed_fields cache setting (see IndexedFields) can be queried only the way they
+     * are indexed: numeric fields by numeric literals (numeric field), analyzed and keyword fields by string
+     * and boolean literals and string functions (keyword field). Such filters and filters of fields which are
+     * not listed would match no documents, so they are rejected. All fields are indexed both ways by default.
+     *
+     * @param field   -- dotted path of the queried field
+     * @param numeric -- true if the numeric field of the JSON field is queried, false if the keyword field
+     * @param expr    -- the whole expression, for error message
+     */
+    private void checkIndexed(String field, boolean numeric, CommonExpression expr) {
+        if (indexedFields == null) {
+            return;
+        }
+        IndexedFields.Mode mode = indexedFields.getMode(field);
+        if (mode == null) {
+            throw new BadRequestException("Field " + field + " is not listed in " + ODataCacheSettings.INDEXED_FIELDS +
+                    " cache setting, it can't be queried. Expression: " + expr);
+        }
+        if (numeric != (mode == IndexedFields.Mode.NUMERIC)) {
+            throw new BadRequestException("Field " + field + " is indexed as " + mode.name().toLowerCase() +
+                    " (" + ODataCacheSettings.INDEXED_FIELDS + " cache setting), it can be queried only by " +
+                    (numeric ? "string literals and string functions" : "numeric literals") +
+                    ". Expression: " + expr);
+        }
+    }
+
+    /**
+     * @param expr     -- argument of string function
+     * @param function -- the whole function expression, for error message
+     * @return value of string literal
+     */
+    private String stringLiteralValue(CommonExpression expr, CommonExpression function) {
+        if (!(expr instanceof StringLiteral)) {
+            throw new NotImplementedException("Only string literals are supported as arguments of string functions. " +
+                    "Expression: " + function);
+        }
+        return ((StringLiteral) expr).getValue();
+    }
+
+    /**
+     * Resolves OData property (member access path) to the name of Lucene field created by JsonValueWrapperFieldBridge.
+     * Nested fields are indexed under dotted paths, so address/city is resolved to address.city.
+     *
+     * @param expr -- property expression
+     * @return name of Lucene field
+     */
+    private String fieldName(CommonExpression expr) {
+        if (!(expr instanceof EntitySimpleProperty)) {
+            throw new NotImplementedException("Only JSON fields (or paths of nested JSON fields) are supported " +
+                    "on the left side of comparisons, in string functions and in $orderby. Expression: " + expr);
+        }
+        return ((EntitySimpleProperty) expr).getPropertyName().replace('/', JsonValueWrapperFieldBridge.PATH_SEPARATOR);
+    }
+
+    /**
+     * Constant folding of comparisons of two literals (e.g. 1 eq 1 generated by clients building filters).
+     *
+     * @param expr -- binary comparison
+     * @return result of comparison of literal values (as Comparable.compareTo) or null if the sides are not
+     *         literals of the same kind
+     */
+    @SuppressWarnings("unchecked")
+    private Integer compareLiterals(BinaryCommonExpression expr) {
+        Comparable lhs = literalValue(expr.getLHS());
+        Comparable rhs = literalValue(expr.getRHS());
+        if (lhs == null || rhs == null || lhs.getClass() != rhs.getClass()) {
+            return null;
+        }
+        literalsFolded = true;
+        return lhs.compareTo(rhs);
+    }
+
+    private Comparable literalValue(CommonExpression expr) {
+        Double number = numericLiteralValue(expr);
+        if (number != null) {
+            return number;
+        }
+        if (expr instanceof StringLiteral) {
+            return ((StringLiteral) expr).getValue();
+        }
+        if (expr instanceof BooleanLiteral) {
+            return ((BooleanLiteral) expr).getValue();
+        }
+        return null;
+    }
+
+    /**
+     * Numbers are indexed as doubles by JsonValueWrapperFieldBridge, so all numeric literals are converted to double.
+     *
+     * @param expr -- right side of binary expression
+     * @return value of numeric literal or null if expression is not a numeric literal
+     */
+    static Double numericLiteralValue(CommonExpression expr) {
+        if (expr instanceof IntegralLiteral) {
+            return (double) ((IntegralLiteral) expr).getValue();
+        }
+        if (expr instanceof Int64Literal) {
+            return (double) ((Int64Literal) expr).getValue();
+        }
+        if (expr instanceof DoubleLiteral) {
+            return ((DoubleLiteral) expr).getValue();
+        }
+        if (expr instanceof DecimalLiteral) {
+            return ((DecimalLiteral) expr).getValue().doubleValue();
+        }
+        if (expr instanceof SingleLiteral) {
+            return (double) ((SingleLiteral) expr).getValue();
+        }
+        return null;
     }
 
     @Override
@@ -167,9 +888,22 @@ public class MapQueryExpressionVisitor implements ExpressionVisitor {
         // TODO: Customise this generated block
     }
 
+    /**
+     * Sorting is done on untokenized companion fields created by JsonValueWrapperFieldBridge (for fields of all
+     * modes of indexed_fields cache setting, fields which are not listed are rejected).
+     * Multiple orderBy expressions are applied in order of visiting (first one is the primary sort key).
+     */
     @Override
     public void visit(OrderByExpression expr) {
-        // TODO: Customise this generated block
+        String field = fieldName(expr.getExpression());
+        if (indexedFields != null && indexedFields.getMode(field) == null) {
+            throw new BadRequestException("Field " + field + " is not listed in " + ODataCacheSettings.INDEXED_FIELDS +
+                    " cache setting, results can't be sorted by it. Expression: " + expr);
+        }
+        boolean reverse = expr.getDirection() == OrderByExpression.Direction.DESCENDING;
+
+        sortFields.add(new SortField(JsonValueWrapperFieldBridge.keywordFieldName(field), SortField.STRING, reverse));
+        log.trace("End of ORDER BY expr -- sort field added for: " + field + " reverse: " + reverse);
     }
 
     @Override
@@ -182,11 +916,6 @@ public class MapQueryExpressionVisitor implements ExpressionVisitor {
         // TODO: Customise this generated block
     }
 
-    @Override
-    public void visit(BooleanLiteral expr) {
-        // TODO: Customise this generated block
-    }
-
     @Override
     public void visit(CastExpression expr) {
         // TODO: Customise this generated block
@@ -217,26 +946,11 @@ public class MapQueryExpressionVisitor implements ExpressionVisitor {
         // TODO: Customise this generated block
     }
 
-    @Override
-    public void visit(EndsWithMethodCallExpression expr) {
-        // TODO: Customise this generated block
-    }
-
     @Override
     public void visit(EntitySimpleProperty expr) {
         // TODO: Customise this generated block
     }
 
-    @Override
-    public void visit(GeExpression expr) {
-        // TODO: Customise this generated block
-    }
-
-    @Override
-    public void visit(GtExpression expr) {
-        // TODO: Customise this generated block
-    }
-
     @Override
     public void visit(GuidLiteral expr) {
         // TODO: Customise this generated block
@@ -287,21 +1001,11 @@ public class MapQueryExpressionVisitor implements ExpressionVisitor {
         // TODO: Customise this generated block
     }
 
-    @Override
-    public void visit(LeExpression expr) {
-        // TODO: Customise this generated block
-    }
-
     @Override
     public void visit(LengthMethodCallExpression expr) {
         // TODO: Customise this generated block
     }
 
-    @Override
-    public void visit(LtExpression expr) {
-        // TODO: Customise this generated block
-    }
-
     @Override
     public void visit(ModExpression expr) {
         // TODO: Customise this generated block
@@ -312,21 +1016,11 @@ public class MapQueryExpressionVisitor implements ExpressionVisitor {
         // TODO: Customise this generated block
     }
 
-    @Override
-    public void visit(NeExpression expr) {
-        // TODO: Customise this generated block
-    }
-
     @Override
     public void visit(NegateExpression expr) {
         // TODO: Customise this generated block
     }
 
-    @Override
-    public void visit(NotExpression expr) {
-        // TODO: Customise this generated block
-    }
-
     @Override
     public void visit(NullLiteral expr) {
         // TODO: Customise this generated block
@@ -337,21 +1031,11 @@ public class MapQueryExpressionVisitor implements ExpressionVisitor {
         // TODO: Customise this generated block
     }
 
-    @Override
-    public void visit(BoolParenExpression expr) {
-        // TODO: Customise this generated block
-    }
-
     @Override
     public void visit(ReplaceMethodCallExpression expr) {
         // TODO: Customise this generated block
     }
 
-    @Override
-    public void visit(StartsWithMethodCallExpression expr) {
-        // TODO: Customise this generated block
-    }
-
     @Override
     public void visit(StringLiteral expr) {
         // TODO: Customise this generated block
@@ -367,11 +1051,6 @@ public class MapQueryExpressionVisitor implements ExpressionVisitor {
         // TODO: Customise this generated block
     }
 
-    @Override
-    public void visit(SubstringOfMethodCallExpression expr) {
-        // TODO: Customise this generated block
-    }
-
     @Override
     public void visit(TimeLiteral expr) {
         // TODO: Customise this generated block
@@ -0,0 +1,93 @@
+package org.infinispan.odata.producer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * JSON fields of a particular cache which are indexed as n-grams as well (see ngram_fields and ngram_size
+ * cache settings), so that substringof can be answered by the index.
+ * <p/>
+ * Format of the setting: comma separated dotted paths of string fields. For instance:
+ * <pre>
+ * &lt;property name="odata.odataCache.ngram_fields" value="lastName, address.street"/&gt;
+ * &lt;property name="odata.odataCache.ngram_size" value="3"/&gt;
+ * </pre>
+ * N-grams enlarge the index noticeably, they should be enabled only for fields queried by substringof.
+ * Instances are immutable.
+ *
+ * @author Tomas Sykora <tomas@infinispan.org>
+ */
+public final class NGramFields {
+
+    public static final String NGRAM_FIELD_SUFFIX = "__ngram";
+
+    private final Set<String> paths;
+    private final int size;
+
+    private NGramFields(Set<String> paths, int size) {
+        this.paths = Collections.unmodifiableSet(paths);
+        this.size = size;
+    }
+
+    /**
+     * @param value -- value of ngram_fields setting
+     * @param size  -- value of ngram_size setting, length of indexed grams
+     * @return parsed set of n-gram fields
+     */
+    public static NGramFields parse(String value, int size) {
+        if (size <= 0) {
+            throw new IllegalArgumentException("Positive n-gram size was expected: " + size);
+        }
+        Set<String> paths = new HashSet<String>();
+        for (String path : value.split(",")) {
+            path = path.trim();
+            if (!path.isEmpty()) {
+                paths.add(path);
+            }
+        }
+        return new NGramFields(paths, size);
+    }
+
+    /**
+     * @param path -- dotted path of JSON field
+     * @return true if the field is indexed as n-grams
+     */
+    public boolean contains(String path) {
+        return paths.contains(path);
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Grams starting at every position of the value, in order. Grams at the last size - 1 positions are shorter,
+     * so that substrings shorter than size are prefixes of some gram (and can be found by PrefixQuery).
+     *
+     * @param value -- indexed value
+     * @return grams which are indexed at consecutive positions
+     */
+    public List<String> grams(String value) {
+        List<String> grams = new ArrayList<String>(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            grams.add(value.substring(i, Math.min(i + size, value.length())));
+        }
+        return grams;
+    }
+
+    /**
+     * @param field -- dotted path of JSON field
+     * @return name of Lucene field containing n-grams of the given JSON field
+     */
+    public static String ngramFieldName(String field) {
+        return field + NGRAM_FIELD_SUFFIX;
+    }
+
+    @Override
+    public String toString() {
+        return paths + " (size " + size + ")";
+    }
+}
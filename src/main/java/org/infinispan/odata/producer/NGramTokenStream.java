@@ -0,0 +1,40 @@
+package org.infinispan.odata.producer;
+
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+
+/**
+ * Token stream of n-grams of a single value (see NGramFields.grams), one gram per position.
+ * Consecutive positions allow matching of longer substrings by PhraseQuery of their grams.
+ *
+ * @author Tomas Sykora <tomas@infinispan.org>
+ */
+final class NGramTokenStream extends TokenStream {
+
+    private final CharTermAttribute termAttribute = addAttribute(CharTermAttribute.class);
+    private final List<String> grams;
+    private Iterator<String> iterator;
+
+    NGramTokenStream(List<String> grams) {
+        this.grams = grams;
+        this.iterator = grams.iterator();
+    }
+
+    @Override
+    public boolean incrementToken() {
+        if (!iterator.hasNext()) {
+            return false;
+        }
+        clearAttributes();
+        termAttribute.append(iterator.next());
+        return true;
+    }
+
+    @Override
+    public void reset() {
+        iterator = grams.iterator();
+    }
+}
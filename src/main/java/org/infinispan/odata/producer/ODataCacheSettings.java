@@ -0,0 +1,345 @@
+package org.infinispan.odata.producer;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Properties;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+import org.infinispan.configuration.cache.Configuration;
+
+/**
+ * Infinispan OData server specific settings of a particular cache.
+ * <p/>
+ * Settings are specified as indexing properties in Infinispan configuration XML file, right next to
+ * the other indexing properties of caches. Properties with prefix "odata." are ignored by Hibernate Search.
+ * <p/>
+ * odata.[setting] -- applies to all caches,
+ * odata.[cacheName].[setting] -- applies to the given cache only and overrides the general one.
+ * <p/>
+ * For instance:
+ * <pre>
+ * &lt;property name="odata.fetch_size" value="100"/&gt;
+ * &lt;property name="odata.odataCache.fetch_size" value="500"/&gt;
+ * </pre>
+ * Settings of indexed caches are bound to their documents by IndexingSettingsInterceptor, so that
+ * JsonValueWrapperFieldBridge can index documents according to settings of their cache, including documents
+ * which are indexed on another node or reindexed.
+ *
+ * @author Tomas Sykora <tomas@infinispan.org>
+ */
+public final class ODataCacheSettings {
+
+    private static final Logger log = Logger.getLogger(ODataCacheSettings.class.getName());
+
+    public static final String PREFIX = "odata.";
+
+    /**
+     * Number of entries loaded from the cache at once while iterating over query results, has to be positive.
+     */
+    public static final String FETCH_SIZE = "fetch_size";
+    public static final int DEFAULT_FETCH_SIZE = 100;
+
+    /**
+     * Maximal number of results of one page of server-driven paging of cacheName_get queries, the rest is available
+     * by the __next link ($skiptoken). 0 (default) disables paging of cacheName_get, entity sets (cacheName)
+     * are always paged, by fetch_size when page_size is not specified. Negative values are invalid.
+     */
+    public static final String PAGE_SIZE = "page_size";
+    public static final int DEFAULT_PAGE_SIZE = 0;
+
+    /**
+     * Maximal number of entries stored by one putAll operation in cacheName_putAll service operation.
+     */
+    public static final String PUT_ALL_BATCH_SIZE = "put_all_batch_size";
+    public static final int DEFAULT_PUT_ALL_BATCH_SIZE = 1000;
+
+    /**
+     * Opt-in asynchronous write path: put, replace and remove service operations don't wait
+     * for the distributed write and return 202 ACCEPTED.
+     */
+    public static final String ASYNC_WRITES = "async_writes";
+    public static final boolean DEFAULT_ASYNC_WRITES = false;
+
+    /**
+     * Maximal number of asynchronous writes (async_writes) in flight per cache, further writes are refused
+     * by 503 SERVICE UNAVAILABLE until some of them complete.
+     */
+    public static final String ASYNC_WRITES_MAX_PENDING = "async_writes_max_pending";
+    public static final int DEFAULT_ASYNC_WRITES_MAX_PENDING = 1000;
+
+    /**
+     * Maximal number of translated $filter expressions (Lucene queries) kept in FilterQueryCache, 0 disables it.
+     */
+    public static final String FILTER_CACHE_SIZE = "filter_cache_size";
+    public static final int DEFAULT_FILTER_CACHE_SIZE = 500;
+
+    /**
+     * Memory bound (in bytes) of QueryResultCache of serialized query responses, 0 (default) disables it.
+     * Intended for rarely changed caches, any change of the cache invalidates all cached responses.
+     */
+    public static final String RESULT_CACHE_MAX_BYTES = "result_cache_max_bytes";
+    public static final int DEFAULT_RESULT_CACHE_MAX_BYTES = 0;
+
+    /**
+     * Minimal size (in bytes) of JSON documents which are kept compressed, 0 (default) disables compression.
+     */
+    public static final String COMPRESSION_THRESHOLD = "compression_threshold";
+    public static final int DEFAULT_COMPRESSION_THRESHOLD = 0;
+
+    /**
+     * Whitelist of indexed JSON fields and the way of their indexing (see IndexedFields), all fields are indexed
+     * by default.
+     */
+    public static final String INDEXED_FIELDS = "indexed_fields";
+
+    /**
+     * Comma separated string fields which are indexed as n-grams as well (see NGramFields), for substringof queries.
+     * No n-gram fields by default.
+     */
+    public static final String NGRAM_FIELDS = "ngram_fields";
+
+    /**
+     * Length of n-grams indexed for ngram_fields.
+     */
+    public static final String NGRAM_SIZE = "ngram_size";
+    public static final int DEFAULT_NGRAM_SIZE = 3;
+
+    /**
+     * Comma separated string fields which are indexed reversed as well, for endswith queries. No reversed fields
+     * by default.
+     */
+    public static final String REVERSED_FIELDS = "reversed_fields";
+
+    /**
+     * Comma separated scalar fields (dotted paths) which are stored in the index as well, so that $select of them
+     * is answered from the index without loading of cached documents (see SelectProjection). No stored fields
+     * by default.
+     */
+    public static final String STORED_FIELDS = "stored_fields";
+
+    /**
+     * $filter queries taking at least this number of milliseconds are logged by SlowQueryLog, 0 disables the log.
+     */
+    public static final String SLOW_QUERY_THRESHOLD = "slow_query_threshold";
+    public static final int DEFAULT_SLOW_QUERY_THRESHOLD = 1000;
+
+    /**
+     * Number of the most expensive $filter shapes kept by SlowQueryLog (exposed over JMX), 0 disables the profile.
+     */
+    public static final String SLOW_QUERY_TOP_SIZE = "slow_query_top_size";
+    public static final int DEFAULT_SLOW_QUERY_TOP_SIZE = 20;
+
+    private final String cacheName;
+    private final int fetchSize;
+    private final int pageSize;
+    private final int putAllBatchSize;
+    private final boolean asyncWrites;
+    private final int asyncWritesMaxPending;
+    private final int filterCacheSize;
+    private final int resultCacheMaxBytes;
+    private final int compressionThreshold;
+    private final IndexedFields indexedFields;
+    private final NGramFields ngramFields;
+    private final Set<String> reversedFields;
+    private final Set<String> storedFields;
+    private final int slowQueryThreshold;
+    private final int slowQueryTopSize;
+
+    private ODataCacheSettings(String cacheName, Properties properties) {
+        this.cacheName = cacheName;
+        this.fetchSize = getIntProperty(properties, FETCH_SIZE, DEFAULT_FETCH_SIZE);
+        if (fetchSize <= 0) {
+            throw new IllegalArgumentException("Invalid value " + fetchSize + " of OData setting " +
+                    getPropertyName(properties, FETCH_SIZE) + ", positive number of entries was expected.");
+        }
+        this.pageSize = getIntProperty(properties, PAGE_SIZE, DEFAULT_PAGE_SIZE);
+        if (pageSize < 0) {
+            throw new IllegalArgumentException("Invalid value " + pageSize + " of OData setting " +
+                    getPropertyName(properties, PAGE_SIZE) + ", number of results or 0 (no paging) was expected.");
+        }
+        this.putAllBatchSize = getIntProperty(properties, PUT_ALL_BATCH_SIZE, DEFAULT_PUT_ALL_BATCH_SIZE);
+        this.asyncWrites = getBooleanProperty(properties, ASYNC_WRITES, DEFAULT_ASYNC_WRITES);
+        int asyncWritesMaxPending = getIntProperty(properties, ASYNC_WRITES_MAX_PENDING,
+                DEFAULT_ASYNC_WRITES_MAX_PENDING);
+        if (asyncWritesMaxPending <= 0) {
+            log.warn("Invalid value " + asyncWritesMaxPending + " of OData setting " + ASYNC_WRITES_MAX_PENDING +
+                    " for cache " + cacheName + ". Using default value " + DEFAULT_ASYNC_WRITES_MAX_PENDING);
+            asyncWritesMaxPending = DEFAULT_ASYNC_WRITES_MAX_PENDING;
+        }
+        this.asyncWritesMaxPending = asyncWritesMaxPending;
+        this.filterCacheSize = getIntProperty(properties, FILTER_CACHE_SIZE, DEFAULT_FILTER_CACHE_SIZE);
+        this.resultCacheMaxBytes = getIntProperty(properties, RESULT_CACHE_MAX_BYTES, DEFAULT_RESULT_CACHE_MAX_BYTES);
+        this.compressionThreshold = getIntProperty(properties, COMPRESSION_THRESHOLD, DEFAULT_COMPRESSION_THRESHOLD);
+        String indexedFieldsValue = getProperty(properties, INDEXED_FIELDS);
+        this.indexedFields = indexedFieldsValue != null ? IndexedFields.parse(cacheName, indexedFieldsValue) : null;
+        String ngramFieldsValue = getProperty(properties, NGRAM_FIELDS);
+        int ngramSize = getIntProperty(properties, NGRAM_SIZE, DEFAULT_NGRAM_SIZE);
+        if (ngramSize <= 0) {
+            log.warn("Invalid value " + ngramSize + " of OData setting " + NGRAM_SIZE + " for cache " + cacheName +
+                    ". Using default value " + DEFAULT_NGRAM_SIZE);
+            ngramSize = DEFAULT_NGRAM_SIZE;
+        }
+        this.ngramFields = ngramFieldsValue != null ? NGramFields.parse(ngramFieldsValue, ngramSize) : null;
+        String reversedFieldsValue = getProperty(properties, REVERSED_FIELDS);
+        this.reversedFields = reversedFieldsValue != null ? parseFields(reversedFieldsValue) : null;
+        String storedFieldsValue = getProperty(properties, STORED_FIELDS);
+        this.storedFields = storedFieldsValue != null ? parseFields(storedFieldsValue) : null;
+        this.slowQueryThreshold = getIntProperty(properties, SLOW_QUERY_THRESHOLD, DEFAULT_SLOW_QUERY_THRESHOLD);
+        this.slowQueryTopSize = getIntProperty(properties, SLOW_QUERY_TOP_SIZE, DEFAULT_SLOW_QUERY_TOP_SIZE);
+    }
+
+    /**
+     * @param cacheName     -- name of the cache
+     * @param configuration -- configuration of the cache, settings are read from its indexing properties
+     * @return settings of the given cache, defaults are used for settings which are not specified
+     * @throws IllegalArgumentException if fetch_size or page_size is out of range
+     */
+    public static ODataCacheSettings fromConfiguration(String cacheName, Configuration configuration) {
+        Properties properties = configuration != null ? configuration.indexing().properties() : null;
+        ODataCacheSettings settings = new ODataCacheSettings(cacheName, properties != null ? properties : new Properties());
+        log.info("OData settings for cache " + cacheName + ": " + settings);
+        return settings;
+    }
+
+    public String getCacheName() {
+        return cacheName;
+    }
+
+    public int getFetchSize() {
+        return fetchSize;
+    }
+
+    /**
+     * @return page size of cacheName_get queries, 0 if they are not paged
+     */
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    public int getPutAllBatchSize() {
+        return putAllBatchSize;
+    }
+
+    public boolean isAsyncWrites() {
+        return asyncWrites;
+    }
+
+    public int getAsyncWritesMaxPending() {
+        return asyncWritesMaxPending;
+    }
+
+    public int getFilterCacheSize() {
+        return filterCacheSize;
+    }
+
+    public int getResultCacheMaxBytes() {
+        return resultCacheMaxBytes;
+    }
+
+    public int getCompressionThreshold() {
+        return compressionThreshold;
+    }
+
+    /**
+     * @return whitelist of indexed fields or null if all fields are indexed
+     */
+    public IndexedFields getIndexedFields() {
+        return indexedFields;
+    }
+
+    /**
+     * @return fields indexed as n-grams or null if there are no such fields
+     */
+    public NGramFields getNGramFields() {
+        return ngramFields;
+    }
+
+    /**
+     * @return dotted paths of fields indexed reversed as well or null if there are no such fields
+     */
+    public Set<String> getReversedFields() {
+        return reversedFields;
+    }
+
+    /**
+     * @return dotted paths of fields stored in the index or null if there are no such fields
+     */
+    public Set<String> getStoredFields() {
+        return storedFields;
+    }
+
+    public int getSlowQueryThreshold() {
+        return slowQueryThreshold;
+    }
+
+    public int getSlowQueryTopSize() {
+        return slowQueryTopSize;
+    }
+
+    /**
+     * @return name of the property the setting is read from (the cache specific one if it is specified)
+     */
+    private String getPropertyName(Properties properties, String setting) {
+        String cacheProperty = PREFIX + cacheName + "." + setting;
+        return properties.getProperty(cacheProperty) != null ? cacheProperty : PREFIX + setting;
+    }
+
+    private String getProperty(Properties properties, String setting) {
+        String value = properties.getProperty(PREFIX + cacheName + "." + setting);
+        if (value == null) {
+            value = properties.getProperty(PREFIX + setting);
+        }
+        return value != null ? value.trim() : null;
+    }
+
+    private static Set<String> parseFields(String value) {
+        Set<String> fields = new HashSet<String>();
+        for (String field : value.split(",")) {
+            field = field.trim();
+            if (!field.isEmpty()) {
+                fields.add(field);
+            }
+        }
+        return Collections.unmodifiableSet(fields);
+    }
+
+    private int getIntProperty(Properties properties, String setting, int defaultValue) {
+        String value = getProperty(properties, setting);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            log.warn("Invalid value " + value + " of OData setting " + setting + " for cache " + cacheName +
+                    ". Using default value " + defaultValue);
+            return defaultValue;
+        }
+    }
+
+    private boolean getBooleanProperty(Properties properties, String setting, boolean defaultValue) {
+        String value = getProperty(properties, setting);
+        return value != null ? Boolean.parseBoolean(value) : defaultValue;
+    }
+
+    @Override
+    public String toString() {
+        return "ODataCacheSettings{" +
+                "fetchSize=" + fetchSize +
+                ", pageSize=" + pageSize +
+                ", putAllBatchSize=" + putAllBatchSize +
+                ", asyncWrites=" + asyncWrites +
+                ", asyncWritesMaxPending=" + asyncWritesMaxPending +
+                ", filterCacheSize=" + filterCacheSize +
+                ", resultCacheMaxBytes=" + resultCacheMaxBytes +
+                ", compressionThreshold=" + compressionThreshold +
+                ", indexedFields=" + (indexedFields != null ? indexedFields : "all") +
+                ", ngramFields=" + (ngramFields != null ? ngramFields : "none") +
+                ", reversedFields=" + (reversedFields != null ? reversedFields : "none") +
+                ", storedFields=" + (storedFields != null ? storedFields : "none") +
+                ", slowQueryThreshold=" + slowQueryThreshold +
+                ", slowQueryTopSize=" + slowQueryTopSize +
+                "}";
+    }
+}
@@ -0,0 +1,141 @@
+package org.infinispan.odata.producer;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.lucene.search.Query;
+import org.infinispan.query.ResultIterator;
+
+/**
+ * Cost profile of one $filter query: time spent by translation of $filter into Lucene query, by Lucene search,
+ * by loading of matching entries from the cache and by serialization of the response.
+ * <p/>
+ * Filled in by InfinispanProducer while the query is being executed and recorded by SlowQueryLog afterwards.
+ * Not thread-safe, one instance is used by one request.
+ *
+ * @author Tomas Sykora <tomas@infinispan.org>
+ */
+public final class QueryProfile {
+
+    private final String filter;
+    private Query luceneQuery;
+    private int results;
+
+    private long translationNanos;
+    private long searchNanos;
+    private long loadingNanos;
+    private long serializationNanos;
+
+    /**
+     * @param filter -- normalized $filter expression
+     */
+    public QueryProfile(String filter) {
+        this.filter = filter;
+    }
+
+    public String getFilter() {
+        return filter;
+    }
+
+    public Query getLuceneQuery() {
+        return luceneQuery;
+    }
+
+    public int getResults() {
+        return results;
+    }
+
+    public long getTranslationNanos() {
+        return translationNanos;
+    }
+
+    public long getSearchNanos() {
+        return searchNanos;
+    }
+
+    public long getLoadingNanos() {
+        return loadingNanos;
+    }
+
+    public long getSerializationNanos() {
+        return serializationNanos;
+    }
+
+    public long getTotalNanos() {
+        return translationNanos + searchNanos + loadingNanos + serializationNanos;
+    }
+
+    /**
+     * @param luceneQuery -- translated (or cached) Lucene query
+     * @param nanos       -- time of translation including FilterQueryCache lookup
+     */
+    public void translated(Query luceneQuery, long nanos) {
+        this.luceneQuery = luceneQuery;
+        this.translationNanos = nanos;
+    }
+
+    public void searched(long nanos) {
+        this.searchNanos = nanos;
+    }
+
+    /**
+     * @param results -- number of written results
+     * @param nanos   -- time of writing of the response, including loading of entries measured by timeLoading
+     */
+    public void written(int results, long nanos) {
+        this.results = results;
+        this.serializationNanos = Math.max(0, nanos - loadingNanos);
+    }
+
+    /**
+     * Entries are loaded from the cache lazily while the results are iterated (and written), time spent
+     * in the returned iterator is accounted as loading.
+     *
+     * @param iterator -- lazy iterator over query results
+     * @return iterator measuring time of loading of entries
+     */
+    public ResultIterator timeLoading(final ResultIterator iterator) {
+        return new ResultIterator() {
+            @Override
+            public boolean hasNext() {
+                long start = System.nanoTime();
+                try {
+                    return iterator.hasNext();
+                } finally {
+                    loadingNanos += System.nanoTime() - start;
+                }
+            }
+
+            @Override
+            public Object next() {
+                long start = System.nanoTime();
+                try {
+                    return iterator.next();
+                } finally {
+                    loadingNanos += System.nanoTime() - start;
+                }
+            }
+
+            @Override
+            public void remove() {
+                iterator.remove();
+            }
+
+            @Override
+            public void close() {
+                iterator.close();
+            }
+        };
+    }
+
+    static double toMillis(long nanos) {
+        return (double) nanos / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("$filter=%s, Lucene query: %s, results: %d, total: %.2f ms " +
+                "(translation %.2f ms, search %.2f ms, loading %.2f ms, serialization %.2f ms)",
+                filter, luceneQuery, results, toMillis(getTotalNanos()), toMillis(translationNanos),
+                toMillis(searchNanos), toMillis(loadingNanos), toMillis(serializationNanos));
+    }
+}
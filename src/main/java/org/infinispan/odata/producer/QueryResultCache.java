@@ -0,0 +1,197 @@
+package org.infinispan.odata.producer;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+import org.infinispan.notifications.Listener;
+import org.infinispan.notifications.cachelistener.annotation.CacheEntryCreated;
+import org.infinispan.notifications.cachelistener.annotation.CacheEntryModified;
+import org.infinispan.notifications.cachelistener.annotation.CacheEntryRemoved;
+import org.infinispan.notifications.cachelistener.event.CacheEntryEvent;
+
+/**
+ * Cache of serialized query responses (one per Infinispan cache) for caches which are rarely changed.
+ * <p/>
+ * Keys are built from $filter, $top, $skip and $orderby query options. Whole cache is invalidated
+ * by any change of the underlying Infinispan cache -- it's not possible to find out which of the stored
+ * results are affected by the change without running the queries again.
+ * <p/>
+ * Results computed concurrently with a change are not stored: every invalidation increments a generation
+ * and a result is stored only if the generation did not change since the query was started.
+ * <p/>
+ * Size of the cache is bounded by the (approximate) number of bytes of stored response bodies,
+ * least recently used responses are evicted first.
+ * <p/>
+ * Statistics are exposed over JMX as org.infinispan.odata:type=QueryResultCache,cache=[cacheName].
+ *
+ * @author Tomas Sykora <tomas@infinispan.org>
+ */
+@Listener
+public class QueryResultCache implements QueryResultCacheMBean {
+
+    private static final Logger log = Logger.getLogger(QueryResultCache.class.getName());
+
+    private final String cacheName;
+    private final long maxSizeInBytes;
+    // access order = LRU, guarded by itself
+    private final LinkedHashMap<String, String> results = new LinkedHashMap<String, String>(16, 0.75f, true);
+    private long sizeInBytes;
+    private long generation;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+
+    public QueryResultCache(String cacheName, long maxSizeInBytes) {
+        this.cacheName = cacheName;
+        this.maxSizeInBytes = maxSizeInBytes;
+    }
+
+    /**
+     * @return key of a query result, built from query options which influence the result
+     */
+    public static String createKey(String filter, Integer top, Integer skip, String orderBy, boolean inlineCount,
+                                   String select, String skipToken) {
+        return filter + "|" + top + "|" + skip + "|" + orderBy + "|" + inlineCount + "|" + select + "|" + skipToken;
+    }
+
+    /**
+     * @param key -- see createKey
+     * @return serialized response or null if it is not cached
+     */
+    public String get(String key) {
+        String result;
+        synchronized (results) {
+            result = results.get(key);
+        }
+        if (result != null) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+        }
+        return result;
+    }
+
+    /**
+     * Needs to be obtained before the query is executed and passed to put method together with the result.
+     *
+     * @return current generation of the cache
+     */
+    public long getGeneration() {
+        synchronized (results) {
+            return generation;
+        }
+    }
+
+    /**
+     * Stores the result unless the cache was invalidated in the meantime or the result is too big.
+     *
+     * @param key        -- see createKey
+     * @param result     -- serialized response
+     * @param generation -- generation obtained before the query was executed
+     */
+    public void put(String key, String result, long generation) {
+        long resultSize = sizeOf(key, result);
+        if (resultSize > maxSizeInBytes) {
+            return;
+        }
+        synchronized (results) {
+            if (generation != this.generation) {
+                log.trace("Query result for " + key + " not cached, cache " + cacheName + " was changed in the meantime.");
+                return;
+            }
+            String previous = results.put(key, result);
+            if (previous != null) {
+                sizeInBytes -= sizeOf(key, previous);
+            }
+            sizeInBytes += resultSize;
+
+            Iterator<Map.Entry<String, String>> eldest = results.entrySet().iterator();
+            while (sizeInBytes > maxSizeInBytes && eldest.hasNext()) {
+                Map.Entry<String, String> evicted = eldest.next();
+                sizeInBytes -= sizeOf(evicted.getKey(), evicted.getValue());
+                eldest.remove();
+            }
+        }
+    }
+
+    @CacheEntryCreated
+    @CacheEntryModified
+    @CacheEntryRemoved
+    public void cacheEntryChanged(CacheEntryEvent event) {
+        if (event.isPre()) {
+            return;
+        }
+        invalidate();
+    }
+
+    private void invalidate() {
+        synchronized (results) {
+            generation++;
+            if (!results.isEmpty()) {
+                results.clear();
+                sizeInBytes = 0;
+                invalidations.incrementAndGet();
+            }
+        }
+    }
+
+    private static long sizeOf(String key, String result) {
+        // chars are 2 bytes
+        return 2L * (key.length() + result.length());
+    }
+
+    /**
+     * Registers this cache in platform MBean server. Failures are only logged, the cache works without JMX.
+     */
+    public void registerMBean() {
+        JmxRegistration.register(this, "QueryResultCache", cacheName);
+    }
+
+    @Override
+    public String getCacheName() {
+        return cacheName;
+    }
+
+    @Override
+    public int getSize() {
+        synchronized (results) {
+            return results.size();
+        }
+    }
+
+    @Override
+    public long getSizeInBytes() {
+        synchronized (results) {
+            return sizeInBytes;
+        }
+    }
+
+    @Override
+    public long getMaxSizeInBytes() {
+        return maxSizeInBytes;
+    }
+
+    @Override
+    public long getHits() {
+        return hits.get();
+    }
+
+    @Override
+    public long getMisses() {
+        return misses.get();
+    }
+
+    @Override
+    public long getInvalidations() {
+        return invalidations.get();
+    }
+
+    @Override
+    public void clear() {
+        invalidate();
+    }
+}
@@ -0,0 +1,25 @@
+package org.infinispan.odata.producer;
+
+/**
+ * JMX management interface of QueryResultCache.
+ *
+ * @author Tomas Sykora <tomas@infinispan.org>
+ */
+public interface QueryResultCacheMBean {
+
+    String getCacheName();
+
+    int getSize();
+
+    long getSizeInBytes();
+
+    long getMaxSizeInBytes();
+
+    long getHits();
+
+    long getMisses();
+
+    long getInvalidations();
+
+    void clear();
+}
@@ -0,0 +1,190 @@
+package org.infinispan.odata.producer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.lucene.document.Document;
+import org.codehaus.jackson.JsonEncoding;
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonGenerator;
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonToken;
+import org.odata4j.expression.EntitySimpleProperty;
+
+/**
+ * $select projection of JSON documents -- only the selected JSON fields are returned:
+ * $select=firstName,address/city returns {"firstName":"John","address.city":"Brno"}.
+ * Nested fields are returned under their dotted paths. Fields which are not present are left out.
+ * <p/>
+ * When all selected fields are listed in stored_fields cache setting, they are read from stored fields
+ * of Lucene documents (see JsonValueWrapperFieldBridge) and entries are not loaded from the cache at all
+ * (see isIndexOnly). Documents which don't answer all selected fields by their stored fields (indexed before
+ * the fields were listed, or some of them are objects or arrays in the document, see isStoredIn) are loaded
+ * and projected the other way. Otherwise the selected fields are extracted from the cached documents
+ * by a streaming JSON parser, fields which are not selected are skipped without being parsed into objects.
+ * <p/>
+ * Instances are immutable and can be shared by threads.
+ *
+ * @author Tomas Sykora <tomas@infinispan.org>
+ */
+public final class SelectProjection {
+
+    // thread-safe
+    private static final JsonFactory jsonFactory = new JsonFactory();
+
+    private final List<String> paths;
+    private final boolean indexOnly;
+
+    private SelectProjection(List<String> paths, boolean indexOnly) {
+        this.paths = Collections.unmodifiableList(paths);
+        this.indexOnly = indexOnly;
+    }
+
+    /**
+     * @param select       -- $select of the query
+     * @param storedFields -- stored_fields setting of the queried cache, null if no field is stored
+     * @return projection or null if all fields are selected ($select is not specified or contains *)
+     */
+    public static SelectProjection create(List<EntitySimpleProperty> select, Set<String> storedFields) {
+        if (select == null || select.isEmpty()) {
+            return null;
+        }
+        List<String> paths = new ArrayList<String>(select.size());
+        boolean indexOnly = storedFields != null;
+        for (EntitySimpleProperty property : select) {
+            String path = property.getPropertyName().replace('/', JsonValueWrapperFieldBridge.PATH_SEPARATOR);
+            if (path.equals("*")) {
+                return null;
+            }
+            if (!paths.contains(path)) {
+                paths.add(path);
+            }
+            indexOnly &= storedFields != null && storedFields.contains(path);
+        }
+        return new SelectProjection(paths, indexOnly);
+    }
+
+    public List<String> getPaths() {
+        return paths;
+    }
+
+    /**
+     * @return true if all selected fields are stored in the index, query results are Lucene documents then
+     *         (projection on ProjectionConstants.DOCUMENT) instead of cached values
+     */
+    public boolean isIndexOnly() {
+        return indexOnly;
+    }
+
+    /**
+     * @param document -- Lucene document of a query result
+     * @return true if all selected fields of the document are answered by its stored fields, otherwise the cached
+     *         document needs to be loaded and projected
+     */
+    public boolean isStoredIn(Document document) {
+        String storedPaths = document.get(JsonValueWrapperFieldBridge.STORED_PATHS_FIELD);
+        if (storedPaths == null) {
+            return false;
+        }
+        for (String path : paths) {
+            if (!storedPaths.contains(JsonValueWrapperFieldBridge.STORED_PATHS_SEPARATOR + path +
+                    JsonValueWrapperFieldBridge.STORED_PATHS_SEPARATOR)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Writes projected JSON object of a query result into the output stream.
+     *
+     * @param result -- CachedValue or a projection row (Object[] with Lucene Document) when isIndexOnly()
+     *               and isStoredIn(document)
+     */
+    public void writeTo(Object result, OutputStream out) throws IOException {
+        JsonGenerator generator = jsonFactory.createJsonGenerator(out, JsonEncoding.UTF8);
+        generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        generator.writeStartObject();
+        if (result instanceof CachedValue) {
+            extract((CachedValue) result, generator);
+        } else {
+            project((Document) ((Object[]) result)[0], generator);
+        }
+        generator.writeEndObject();
+        generator.close();
+    }
+
+    /**
+     * @return projected JSON object encoded in UTF-8
+     */
+    public byte[] toBytes(Object result) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeTo(result, out);
+        return out.toByteArray();
+    }
+
+    /**
+     * Stored fields contain JSON literals of the values, they are written as they are.
+     */
+    private void project(Document document, JsonGenerator generator) throws IOException {
+        for (String path : paths) {
+            String value = document.get(JsonValueWrapperFieldBridge.storedFieldName(path));
+            if (value != null) {
+                generator.writeFieldName(path);
+                generator.writeRawValue(value);
+            }
+        }
+    }
+
+    private void extract(CachedValue cachedValue, JsonGenerator generator) throws IOException {
+        JsonParser parser = cachedValue.getJsonValueWrapper().createParser(jsonFactory);
+        try {
+            if (parser.nextToken() == JsonToken.START_OBJECT) {
+                extractFields(null, parser, generator);
+            }
+        } finally {
+            parser.close();
+        }
+    }
+
+    /**
+     * Copies selected fields of the current object, parser is moved to the end of the object.
+     *
+     * @param parent -- dotted path of the current object, null for the document itself
+     */
+    private void extractFields(String parent, JsonParser parser, JsonGenerator generator) throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String path = parent == null ? parser.getCurrentName() :
+                    parent + JsonValueWrapperFieldBridge.PATH_SEPARATOR + parser.getCurrentName();
+            JsonToken token = parser.nextToken();
+            if (paths.contains(path)) {
+                generator.writeFieldName(path);
+                generator.copyCurrentStructure(parser);
+            } else if (token == JsonToken.START_OBJECT && selectsNestedField(path)) {
+                extractFields(path, parser, generator);
+            } else {
+                parser.skipChildren();
+            }
+        }
+    }
+
+    private boolean selectsNestedField(String path) {
+        String prefix = path + JsonValueWrapperFieldBridge.PATH_SEPARATOR;
+        for (String selected : paths) {
+            if (selected.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        return paths + (indexOnly ? " (from index)" : " (extracted)");
+    }
+}
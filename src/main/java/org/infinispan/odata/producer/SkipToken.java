@@ -0,0 +1,318 @@
+package org.infinispan.odata.producer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.SortField;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TermRangeQuery;
+import org.apache.lucene.util.NumericUtils;
+import org.codehaus.jackson.Base64Variants;
+import org.codehaus.jackson.JsonEncoding;
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonGenerator;
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonToken;
+
+/**
+ * Opaque $skiptoken of server-driven paging -- sort position of the last result of a page.
+ * <p/>
+ * Pages are sorted by $orderby fields and by the entry key (document id) as the last criterion, so the position
+ * is unique. The next page is the first page of the original query restricted to the documents sorted after
+ * the position (see restrict) -- page N costs the same as page 1, no matter how many results precede it
+ * (there is no $skip which would need to collect all of the preceding hits).
+ * <p/>
+ * The position consists of keyword terms of $orderby fields (see JsonValueWrapperFieldBridge) of the last result,
+ * which are read from the cached document, and of its document id. The token is bound to $filter and $orderby of
+ * the query and can't be used with another query. Number of results remaining to $top of the first page travels
+ * with the token. Encoded as URL-safe Base64 of a JSON array.
+ * <p/>
+ * Documents missing an $orderby field are sorted first (last for descending order) by Lucene,
+ * positions are compared the same way.
+ *
+ * @author Tomas Sykora <tomas@infinispan.org>
+ */
+public final class SkipToken {
+
+    /**
+     * Lucene field with document id (entry key) of indexed cache entries, stored and untokenized.
+     */
+    public static final String DOCUMENT_ID_FIELD = "providedId";
+
+    // thread-safe
+    private static final JsonFactory jsonFactory = new JsonFactory();
+
+    private final int queryHash;
+    // results remaining to $top, -1 if $top is not specified
+    private final int remaining;
+    private final String documentId;
+    // keyword terms of $orderby fields, null for missing values
+    private final String[] sortValues;
+
+    private SkipToken(int queryHash, int remaining, String documentId, String[] sortValues) {
+        this.queryHash = queryHash;
+        this.remaining = remaining;
+        this.documentId = documentId;
+        this.sortValues = sortValues;
+    }
+
+    /**
+     * @param sort -- sort of the query ($orderby) or null
+     * @return sort of the pages, sort of the query with document id as the last criterion
+     */
+    public static Sort pagingSort(Sort sort) {
+        List<SortField> sortFields = new ArrayList<SortField>();
+        if (sort != null) {
+            sortFields.addAll(Arrays.asList(sort.getSort()));
+        }
+        sortFields.add(new SortField(DOCUMENT_ID_FIELD, SortField.STRING));
+        return new Sort(sortFields.toArray(new SortField[sortFields.size()]));
+    }
+
+    /**
+     * @param filter  -- normalized $filter of the query
+     * @param orderBy -- normalized $orderby of the query
+     * @return hash binding tokens to the query
+     */
+    public static int queryHash(String filter, String orderBy) {
+        return (filter + "|" + orderBy).hashCode();
+    }
+
+    /**
+     * Position of the last result of a page.
+     *
+     * @param queryHash     -- see queryHash
+     * @param remaining     -- results remaining to $top, -1 if $top is not specified
+     * @param sort          -- sort of the query ($orderby) or null
+     * @param document      -- Lucene document of the result (projected as ProjectionConstants.DOCUMENT)
+     * @param cachedValue   -- the result, values of $orderby fields are read from it (missing if null,
+     *                      e.g. the entry was removed in the meantime), null without $orderby
+     * @param indexedFields -- whitelist of indexed fields of the cache or null if all fields are indexed
+     */
+    public static SkipToken after(int queryHash, int remaining, Sort sort, Document document, CachedValue cachedValue,
+                                  IndexedFields indexedFields) throws IOException {
+        SortField[] sortFields = sort != null ? sort.getSort() : new SortField[0];
+        String[] sortValues = new String[sortFields.length];
+        for (int i = 0; i < sortFields.length; i++) {
+            sortValues[i] = keywordTerm(cachedValue, jsonPath(sortFields[i].getField()), indexedFields);
+        }
+        return new SkipToken(queryHash, remaining, document.get(DOCUMENT_ID_FIELD), sortValues);
+    }
+
+    /**
+     * @param expectedQueryHash -- see queryHash
+     * @throws IllegalArgumentException if the token is malformed or it belongs to another query
+     */
+    public static SkipToken parse(String token, int expectedQueryHash) {
+        try {
+            JsonParser parser = jsonFactory.createJsonParser("\"" + token + "\"");
+            parser.nextToken();
+            byte[] bytes = parser.getBinaryValue(Base64Variants.MODIFIED_FOR_URL);
+            parser.close();
+
+            parser = jsonFactory.createJsonParser(bytes);
+            try {
+                if (parser.nextToken() != JsonToken.START_ARRAY || parser.nextToken() != JsonToken.VALUE_NUMBER_INT) {
+                    throw new IllegalArgumentException("Invalid $skiptoken: " + token);
+                }
+                int queryHash = parser.getIntValue();
+                parser.nextToken();
+                int remaining = parser.getIntValue();
+                parser.nextToken();
+                String documentId = parser.getText();
+                List<String> sortValues = new ArrayList<String>();
+                JsonToken next;
+                while ((next = parser.nextToken()) != JsonToken.END_ARRAY) {
+                    sortValues.add(next == JsonToken.VALUE_NULL ? null : parser.getText());
+                }
+                if (queryHash != expectedQueryHash) {
+                    throw new IllegalArgumentException("$skiptoken does not belong to this $filter and $orderby.");
+                }
+                return new SkipToken(queryHash, remaining, documentId, sortValues.toArray(new String[sortValues.size()]));
+            } finally {
+                parser.close();
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Invalid $skiptoken: " + token, e);
+        }
+    }
+
+    /**
+     * @return results remaining to $top of the first page, -1 if $top is not specified
+     */
+    public int getRemaining() {
+        return remaining;
+    }
+
+    /**
+     * @return URL-safe encoded token
+     */
+    public String encode() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        JsonGenerator generator = jsonFactory.createJsonGenerator(bytes, JsonEncoding.UTF8);
+        generator.writeStartArray();
+        generator.writeNumber(queryHash);
+        generator.writeNumber(remaining);
+        generator.writeString(documentId);
+        for (String sortValue : sortValues) {
+            if (sortValue != null) {
+                generator.writeString(sortValue);
+            } else {
+                generator.writeNull();
+            }
+        }
+        generator.writeEndArray();
+        generator.close();
+
+        StringWriter token = new StringWriter();
+        generator = jsonFactory.createJsonGenerator(token);
+        generator.writeBinary(Base64Variants.MODIFIED_FOR_URL, bytes.toByteArray(), 0, bytes.size());
+        generator.close();
+        // without quotes of JSON string
+        return token.toString().substring(1, token.getBuffer().length() - 1);
+    }
+
+    /**
+     * @param query -- Lucene query of $filter, it is not modified
+     * @param sort  -- sort of the query ($orderby) or null, the same as when the token was created
+     * @return query matching only the documents sorted after this position
+     */
+    public Query restrict(Query query, Sort sort) {
+        SortField[] sortFields = sort != null ? sort.getSort() : new SortField[0];
+        if (sortFields.length != sortValues.length) {
+            throw new IllegalArgumentException("$skiptoken does not belong to this $orderby.");
+        }
+        // (f1 > v1) or (f1 = v1 and f2 > v2) or ... or (f1 = v1 and ... and fn = vn and id > lastId)
+        BooleanQuery after = new BooleanQuery();
+        for (int i = 0; i <= sortFields.length; i++) {
+            Query greater = i < sortFields.length ?
+                    greater(sortFields[i], sortValues[i]) :
+                    new TermRangeQuery(DOCUMENT_ID_FIELD, documentId, null, false, true);
+            if (greater == null) {
+                // nothing is sorted after a missing value in descending order
+                continue;
+            }
+            BooleanQuery position = new BooleanQuery();
+            for (int j = 0; j < i; j++) {
+                addEqual(position, sortFields[j].getField(), sortValues[j]);
+            }
+            position.add(greater, BooleanClause.Occur.MUST);
+            after.add(position, BooleanClause.Occur.SHOULD);
+        }
+
+        BooleanQuery restricted = new BooleanQuery();
+        restricted.add(query, BooleanClause.Occur.MUST);
+        restricted.add(after, BooleanClause.Occur.MUST);
+        return restricted;
+    }
+
+    /**
+     * @return query matching values sorted after the given one, null if there are no such values
+     */
+    private static Query greater(SortField sortField, String value) {
+        String field = sortField.getField();
+        if (!sortField.getReverse()) {
+            return value != null ? new TermRangeQuery(field, value, null, false, true) : exists(field);
+        }
+        if (value == null) {
+            return null;
+        }
+        // missing values are sorted last in descending order
+        BooleanQuery lowerOrMissing = new BooleanQuery();
+        lowerOrMissing.add(new TermRangeQuery(field, null, value, true, false), BooleanClause.Occur.SHOULD);
+        lowerOrMissing.add(missing(field), BooleanClause.Occur.SHOULD);
+        return lowerOrMissing;
+    }
+
+    private static void addEqual(BooleanQuery position, String field, String value) {
+        position.add(value != null ? new TermQuery(new Term(field, value)) : missing(field), BooleanClause.Occur.MUST);
+    }
+
+    private static Query exists(String field) {
+        return new TermRangeQuery(field, null, null, true, true);
+    }
+
+    private static Query missing(String field) {
+        BooleanQuery missing = new BooleanQuery();
+        missing.add(new MatchAllDocsQuery(), BooleanClause.Occur.MUST);
+        missing.add(exists(field), BooleanClause.Occur.MUST_NOT);
+        return missing;
+    }
+
+    private static String jsonPath(String keywordField) {
+        return keywordField.substring(0, keywordField.length() - JsonValueWrapperFieldBridge.KEYWORD_FIELD_SUFFIX.length());
+    }
+
+    /**
+     * @return keyword term of the scalar value at the given path (as indexed by JsonValueWrapperFieldBridge)
+     *         or null if the value is missing or not indexed under the keyword field
+     */
+    private static String keywordTerm(CachedValue cachedValue, String path, IndexedFields indexedFields)
+            throws IOException {
+        IndexedFields.Mode mode = null;
+        if (indexedFields != null) {
+            mode = indexedFields.getMode(path);
+            if (mode == null) {
+                return null;
+            }
+        }
+        if (cachedValue == null) {
+            return null;
+        }
+        JsonParser parser = cachedValue.getJsonValueWrapper().createParser(jsonFactory);
+        try {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return null;
+            }
+            JsonToken token = findValue(parser, path);
+            if (token == null) {
+                return null;
+            }
+            boolean number = token == JsonToken.VALUE_NUMBER_INT || token == JsonToken.VALUE_NUMBER_FLOAT;
+            if (number && (mode == null || mode == IndexedFields.Mode.NUMERIC)) {
+                return NumericUtils.doubleToPrefixCoded(parser.getDoubleValue());
+            }
+            return mode == IndexedFields.Mode.NUMERIC ? null : parser.getText();
+        } finally {
+            parser.close();
+        }
+    }
+
+    /**
+     * Moves the parser to the scalar value at the given dotted path of the current object.
+     *
+     * @return token of the value or null if there is no scalar value at the path
+     */
+    private static JsonToken findValue(JsonParser parser, String path) throws IOException {
+        int separator = path.indexOf(JsonValueWrapperFieldBridge.PATH_SEPARATOR);
+        String name = separator < 0 ? path : path.substring(0, separator);
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            boolean found = parser.getCurrentName().equals(name);
+            JsonToken token = parser.nextToken();
+            if (found && separator < 0) {
+                return token.isScalarValue() && token != JsonToken.VALUE_NULL ? token : null;
+            }
+            if (found && token == JsonToken.START_OBJECT) {
+                return findValue(parser, path.substring(separator + 1));
+            }
+            parser.skipChildren();
+        }
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        return "SkipToken{remaining=" + remaining + ", documentId=" + documentId + ", sortValues=" + Arrays.toString(sortValues) + "}";
+    }
+}
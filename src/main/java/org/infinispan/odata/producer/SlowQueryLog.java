@@ -0,0 +1,249 @@
+package org.infinispan.odata.producer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Slow-query log and cost profile of $filter queries of one Infinispan cache.
+ * <p/>
+ * Queries slower than slow_query_threshold (see ODataCacheSettings) are logged with WARN level under this class
+ * name (so they can be routed to a separate appender), together with their translated Lucene query, number of
+ * results and time spent by translation, search, loading of entries and serialization (see QueryProfile).
+ * <p/>
+ * Every query is accounted to its filter shape -- normalized $filter with literals replaced by ?, so that
+ * lastName eq 'Smith' and lastName eq 'Doe' share the same shape. Only slow_query_top_size shapes
+ * with the highest total time are kept (Space-Saving algorithm): a new shape replaces the cheapest kept one
+ * and inherits its total time as an upper bound of its own executions which were not recorded before.
+ * Totals are compared with totals, so a shape costing more in total than the cheapest kept shape is never lost,
+ * however cheap its single executions are.
+ * <p/>
+ * Exposed over JMX as org.infinispan.odata:type=SlowQueryLog,cache=[cacheName].
+ *
+ * @author Tomas Sykora <tomas@infinispan.org>
+ */
+public class SlowQueryLog implements SlowQueryLogMBean {
+
+    private static final Logger log = Logger.getLogger(SlowQueryLog.class.getName());
+
+    // string literals (quotes are escaped by doubling), then standalone numbers
+    private static final Pattern STRING_LITERAL = Pattern.compile("'(?:[^']|'')*'");
+    private static final Pattern NUMBER_LITERAL = Pattern.compile("\\b\\d+(\\.\\d+)?([eE][+-]?\\d+)?[dDfFmMlL]?\\b");
+
+    private final String cacheName;
+    private final int topSize;
+    private volatile long thresholdMillis;
+
+    private final AtomicLong queries = new AtomicLong();
+    private final AtomicLong slowQueries = new AtomicLong();
+    // guarded by itself
+    private final Map<String, ShapeStatistics> shapes = new HashMap<String, ShapeStatistics>();
+
+    /**
+     * @param thresholdMillis -- queries taking at least this time are logged, 0 or less disables the log
+     * @param topSize         -- number of kept filter shapes, 0 disables the profile
+     */
+    public SlowQueryLog(String cacheName, long thresholdMillis, int topSize) {
+        this.cacheName = cacheName;
+        this.thresholdMillis = thresholdMillis;
+        this.topSize = topSize;
+    }
+
+    /**
+     * Records finished query, logs it if it is slow.
+     */
+    public void record(QueryProfile profile) {
+        queries.incrementAndGet();
+        long threshold = thresholdMillis;
+        if (threshold > 0 && profile.getTotalNanos() >= TimeUnit.MILLISECONDS.toNanos(threshold)) {
+            slowQueries.incrementAndGet();
+            log.warn("Slow query in cache " + cacheName + ": " + profile);
+        }
+        if (topSize <= 0) {
+            return;
+        }
+        String shape = filterShape(profile.getFilter());
+        synchronized (shapes) {
+            ShapeStatistics statistics = shapes.get(shape);
+            if (statistics == null) {
+                statistics = new ShapeStatistics(shape);
+                if (shapes.size() >= topSize) {
+                    statistics.inheritedNanos = evictCheapest().rankNanos();
+                }
+                shapes.put(shape, statistics);
+            }
+            statistics.record(profile);
+        }
+    }
+
+    /**
+     * @return removed shape with the lowest total time (including inherited one)
+     */
+    private ShapeStatistics evictCheapest() {
+        ShapeStatistics cheapest = null;
+        for (ShapeStatistics statistics : shapes.values()) {
+            if (cheapest == null || statistics.rankNanos() < cheapest.rankNanos()) {
+                cheapest = statistics;
+            }
+        }
+        shapes.remove(cheapest.shape);
+        return cheapest;
+    }
+
+    /**
+     * @param filter -- normalized $filter expression
+     * @return the filter with string and numeric literals replaced by ?
+     */
+    public static String filterShape(String filter) {
+        String shape = STRING_LITERAL.matcher(filter).replaceAll("?");
+        return NUMBER_LITERAL.matcher(shape).replaceAll("?");
+    }
+
+    /**
+     * Registers this log in platform MBean server. Failures are only logged, the log works without JMX.
+     */
+    public void registerMBean() {
+        JmxRegistration.register(this, "SlowQueryLog", cacheName);
+    }
+
+    @Override
+    public String getCacheName() {
+        return cacheName;
+    }
+
+    @Override
+    public long getSlowQueryThreshold() {
+        return thresholdMillis;
+    }
+
+    @Override
+    public void setSlowQueryThreshold(long thresholdMillis) {
+        this.thresholdMillis = thresholdMillis;
+    }
+
+    @Override
+    public int getTopSize() {
+        return topSize;
+    }
+
+    @Override
+    public long getQueries() {
+        return queries.get();
+    }
+
+    @Override
+    public long getSlowQueries() {
+        return slowQueries.get();
+    }
+
+    @Override
+    public String[] getTopFilterShapes() {
+        List<ShapeStatistics> top;
+        synchronized (shapes) {
+            top = new ArrayList<ShapeStatistics>(shapes.size());
+            for (ShapeStatistics statistics : shapes.values()) {
+                top.add(statistics.copy());
+            }
+        }
+        Collections.sort(top, new Comparator<ShapeStatistics>() {
+            @Override
+            public int compare(ShapeStatistics s1, ShapeStatistics s2) {
+                return s1.rankNanos() < s2.rankNanos() ? 1 : (s1.rankNanos() == s2.rankNanos() ? 0 : -1);
+            }
+        });
+        String[] report = new String[top.size()];
+        for (int i = 0; i < report.length; i++) {
+            report[i] = top.get(i).toString();
+        }
+        return report;
+    }
+
+    @Override
+    public void clear() {
+        synchronized (shapes) {
+            shapes.clear();
+        }
+        queries.set(0);
+        slowQueries.set(0);
+    }
+
+    /**
+     * Aggregated costs of queries of one filter shape, guarded by the shapes map.
+     */
+    private static final class ShapeStatistics {
+
+        private final String shape;
+        private long executions;
+        private long totalNanos;
+        private long maxNanos;
+        private long translationNanos;
+        private long searchNanos;
+        private long loadingNanos;
+        private long serializationNanos;
+        private long results;
+        private String slowestLuceneQuery;
+        // total time of the evicted shape this one replaced, bounds unrecorded executions of this shape
+        private long inheritedNanos;
+
+        private ShapeStatistics(String shape) {
+            this.shape = shape;
+        }
+
+        private void record(QueryProfile profile) {
+            executions++;
+            totalNanos += profile.getTotalNanos();
+            translationNanos += profile.getTranslationNanos();
+            searchNanos += profile.getSearchNanos();
+            loadingNanos += profile.getLoadingNanos();
+            serializationNanos += profile.getSerializationNanos();
+            results += profile.getResults();
+            if (profile.getTotalNanos() >= maxNanos) {
+                maxNanos = profile.getTotalNanos();
+                slowestLuceneQuery = String.valueOf(profile.getLuceneQuery());
+            }
+        }
+
+        /**
+         * @return total time of recorded executions plus the inherited upper bound of the earlier ones
+         */
+        private long rankNanos() {
+            return totalNanos + inheritedNanos;
+        }
+
+        private ShapeStatistics copy() {
+            ShapeStatistics copy = new ShapeStatistics(shape);
+            copy.executions = executions;
+            copy.totalNanos = totalNanos;
+            copy.maxNanos = maxNanos;
+            copy.translationNanos = translationNanos;
+            copy.searchNanos = searchNanos;
+            copy.loadingNanos = loadingNanos;
+            copy.serializationNanos = serializationNanos;
+            copy.results = results;
+            copy.slowestLuceneQuery = slowestLuceneQuery;
+            copy.inheritedNanos = inheritedNanos;
+            return copy;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s -- executions: %d, total: %.2f ms (+ up to %.2f ms unrecorded), avg: %.2f ms, " +
+                    "max: %.2f ms, avg results: %d (avg translation %.2f ms, search %.2f ms, loading %.2f ms, " +
+                    "serialization %.2f ms), slowest Lucene query: %s",
+                    shape, executions, QueryProfile.toMillis(totalNanos), QueryProfile.toMillis(inheritedNanos),
+                    QueryProfile.toMillis(totalNanos / executions),
+                    QueryProfile.toMillis(maxNanos), results / executions,
+                    QueryProfile.toMillis(translationNanos / executions), QueryProfile.toMillis(searchNanos / executions),
+                    QueryProfile.toMillis(loadingNanos / executions),
+                    QueryProfile.toMillis(serializationNanos / executions), slowestLuceneQuery);
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package org.infinispan.odata.producer;
+
+/**
+ * JMX management interface of SlowQueryLog.
+ *
+ * @author Tomas Sykora <tomas@infinispan.org>
+ */
+public interface SlowQueryLogMBean {
+
+    String getCacheName();
+
+    /**
+     * @return queries taking at least this number of milliseconds are logged, 0 or less if the log is disabled
+     */
+    long getSlowQueryThreshold();
+
+    void setSlowQueryThreshold(long thresholdMillis);
+
+    int getTopSize();
+
+    long getQueries();
+
+    long getSlowQueries();
+
+    /**
+     * @return the most expensive filter shapes (literals replaced by ?) with their cost profiles,
+     *         ordered by total time (including inherited upper bound of unrecorded executions, see SlowQueryLog)
+     */
+    String[] getTopFilterShapes();
+
+    void clear();
+}
@@ -0,0 +1,73 @@
+package org.infinispan.odata.server;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.UriInfo;
+import javax.ws.rs.ext.ContextResolver;
+
+import org.apache.log4j.Logger;
+import org.infinispan.odata.producer.InfinispanProducer;
+import org.odata4j.producer.ODataProducer;
+import org.odata4j.producer.QueryInfo;
+import org.odata4j.producer.resources.OptionsQueryParser;
+
+/**
+ * cacheName_get service operation (declared in $metadata), served by this resource instead of odata4j
+ * FunctionResource, so the response is written directly into HTTP output stream (see
+ * InfinispanProducer.callFunctionGet).
+ * <p/>
+ * Use it like: http://localhost:8887/ODataInfinispanEndpoint.svc/odataCache_get?key='person1'
+ * or odataCache_get?$filter=name eq 'Neo' with $top, $skip, $orderby, $select, $inlinecount and $skiptoken.
+ *
+ * @author Tomas Sykora <tomas@infinispan.org>
+ */
+@Path("{cacheName}_get")
+public class GetResource {
+
+    private static final Logger log = Logger.getLogger(GetResource.class.getName());
+
+    @GET
+    public Response get(@Context UriInfo uriInfo,
+                        @Context ContextResolver<ODataProducer> producerResolver,
+                        @PathParam("cacheName") String cacheName,
+                        @QueryParam("key") String key,
+                        @QueryParam("$filter") String filter,
+                        @QueryParam("$top") String top,
+                        @QueryParam("$skip") String skip,
+                        @QueryParam("$orderby") String orderBy,
+                        @QueryParam("$select") String select,
+                        @QueryParam("$inlinecount") String inlineCount,
+                        @QueryParam("$skiptoken") String skipToken) {
+
+        InfinispanProducer producer = (InfinispanProducer) producerResolver.getContext(ODataProducer.class);
+        if (!producer.isReady()) {
+            // caches are still being started, clients are supposed to retry
+            return Response.status(Response.Status.SERVICE_UNAVAILABLE).build();
+        }
+        if (producer.getMetadata().findEdmEntitySet(cacheName) == null) {
+            return Response.status(Response.Status.NOT_FOUND).build();
+        }
+
+        try {
+            QueryInfo queryInfo = new QueryInfo(
+                    OptionsQueryParser.parseInlineCount(inlineCount),
+                    OptionsQueryParser.parseTop(top),
+                    OptionsQueryParser.parseSkip(skip),
+                    OptionsQueryParser.parseFilter(filter),
+                    OptionsQueryParser.parseOrderBy(orderBy),
+                    OptionsQueryParser.parseSkipToken(skipToken),
+                    OptionsQueryParser.parseCustomOptions(uriInfo),
+                    null,
+                    OptionsQueryParser.parseSelect(select));
+            return producer.callFunctionGet(cacheName, key != null ? StreamingGetResource.unquote(key) : null,
+                    queryInfo);
+        } catch (Exception e) {
+            log.error("Get from cache " + cacheName + " failed.", e);
+            return Response.status(Response.Status.BAD_REQUEST).entity(e.getMessage()).build();
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package org.infinispan.odata.server;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.odata4j.producer.resources.DefaultODataApplication;
+
+/**
+ * OData JAX-RS application extended by Infinispan OData server specific resources: cacheName_stream, which is
+ * not part of the OData service operations defined in $metadata, and cacheName_get, which is served by GetResource
+ * instead of odata4j FunctionResource.
+ *
+ * @author Tomas Sykora <tomas@infinispan.org>
+ */
+public class InfinispanODataApplication extends DefaultODataApplication {
+
+    @Override
+    public Set<Class<?>> getClasses() {
+        Set<Class<?>> classes = new HashSet<Class<?>>(super.getClasses());
+        classes.add(GetResource.class);
+        classes.add(StreamingGetResource.class);
+        return classes;
+    }
+}
@@ -1,5 +1,8 @@
 package org.infinispan.odata.server;
 
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
 import org.odata4j.producer.resources.DefaultODataProducerProvider;
 import org.infinispan.odata.facades.JerseyRuntimeFacade;
 import org.infinispan.odata.facades.RuntimeFacade;
@@ -12,7 +15,15 @@ import org.infinispan.odata.producer.InfinispanProducer;
  */
 public class ODataInfinispanServerRunner {
 
+    private static final Logger log = Logger.getLogger(ODataInfinispanServerRunner.class.getName());
+
+    /**
+     * Maximal time run() waits for the caches to be started and warmed up.
+     */
+    private static final long STARTUP_TIMEOUT_SECONDS = 300;
+
     private final RuntimeFacade rtFacde = new JerseyRuntimeFacade();
+    private InfinispanProducer infinispanProducer;
 
     /**
      * Starts Infinispan OData server.
@@ -48,12 +59,34 @@ public class ODataInfinispanServerRunner {
         String endpointUri = args[0];
         String configFile = args[1];
 
-        final InfinispanProducer infinispanProducer =
-                new InfinispanProducer(containerName, configFile);
+        infinispanProducer = new InfinispanProducer(containerName, configFile);
 
         // START ODATA SERVER
         // register the producer as the static instance, then launch the http server
         DefaultODataProducerProvider.setInstance(infinispanProducer);
         this.rtFacde.hostODataServer(endpointUri);
+
+        // caches are started in parallel in the background, requests are answered by 503 until they are ready
+        try {
+            if (infinispanProducer.awaitReady(STARTUP_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                return;
+            }
+            if (infinispanProducer.getStartupFailure() != null) {
+                log.error("Startup of caches failed, requests are answered by 503.",
+                        infinispanProducer.getStartupFailure());
+            } else {
+                log.warn("Caches were not started in " + STARTUP_TIMEOUT_SECONDS + " seconds, " +
+                        "requests are answered by 503 until they are ready.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return producer registered by the last run() call, null if the server was not started yet
+     */
+    public InfinispanProducer getInfinispanProducer() {
+        return infinispanProducer;
     }
 }
@@ -0,0 +1,138 @@
+package org.infinispan.odata.server;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import javax.ws.rs.core.UriInfo;
+import javax.ws.rs.ext.ContextResolver;
+
+import org.apache.log4j.Logger;
+import org.infinispan.odata.producer.CachedValue;
+import org.infinispan.odata.producer.InfinispanProducer;
+import org.infinispan.odata.producer.JsonResponseWriter;
+import org.infinispan.query.ResultIterator;
+import org.odata4j.producer.ODataProducer;
+import org.odata4j.producer.QueryInfo;
+import org.odata4j.producer.resources.OptionsQueryParser;
+
+/**
+ * Streamed alternative of cacheName_get service operation for query approach.
+ * <p/>
+ * Use it like: http://localhost:8887/ODataInfinispanEndpoint.svc/odataCache_stream?$filter=name eq 'Neo'
+ * <p/>
+ * Supports the same system query options as cacheName_get ($filter, $top, $skip, $orderby).
+ * The response is written directly into HTTP output stream (chunked) while matching entries are being
+ * loaded from the cache, so memory needed per request does not depend on the number of results.
+ * <p/>
+ * Key-value approach is supported as well: odataCache_stream?key='person1' (quoted string literal as for
+ * cacheName_get, the unquoted form odataCache_stream?key=person1 is accepted too)
+ * Stored UTF-8 bytes of the document are written directly into the response, without any intermediate String.
+ *
+ * @author Tomas Sykora <tomas@infinispan.org>
+ */
+@Path("{cacheName}_stream")
+public class StreamingGetResource {
+
+    private static final Logger log = Logger.getLogger(StreamingGetResource.class.getName());
+
+    private static final String JSON_UTF8 = "application/json;charset=utf-8";
+
+    @GET
+    public Response get(@Context UriInfo uriInfo,
+                        @Context ContextResolver<ODataProducer> producerResolver,
+                        @PathParam("cacheName") String cacheName,
+                        @QueryParam("key") String key,
+                        @QueryParam("$filter") String filter,
+                        @QueryParam("$top") String top,
+                        @QueryParam("$skip") String skip,
+                        @QueryParam("$orderby") String orderBy) {
+
+        InfinispanProducer producer = (InfinispanProducer) producerResolver.getContext(ODataProducer.class);
+        if (!producer.isReady()) {
+            // caches are still being started, clients are supposed to retry
+            return Response.status(Response.Status.SERVICE_UNAVAILABLE).build();
+        }
+
+        if (key != null) {
+            return getByKey(producer, cacheName, key);
+        }
+
+        QueryInfo queryInfo = new QueryInfo(
+                null,
+                OptionsQueryParser.parseTop(top),
+                OptionsQueryParser.parseSkip(skip),
+                OptionsQueryParser.parseFilter(filter),
+                OptionsQueryParser.parseOrderBy(orderBy),
+                null,
+                OptionsQueryParser.parseCustomOptions(uriInfo),
+                null,
+                null);
+
+        final ResultIterator results;
+        try {
+            results = producer.callFunctionGetIterator(cacheName, queryInfo);
+        } catch (Exception e) {
+            log.error("Streamed get from cache " + cacheName + " failed.", e);
+            return Response.status(Response.Status.BAD_REQUEST).entity(e.getMessage()).build();
+        }
+
+        if (!results.hasNext()) {
+            results.close();
+            // no results found, clients will get 404 response
+            return Response.status(Response.Status.NOT_FOUND).build();
+        }
+
+        StreamingOutput output = new StreamingOutput() {
+            @Override
+            public void write(OutputStream outputStream) throws IOException, WebApplicationException {
+                BufferedOutputStream out = new BufferedOutputStream(outputStream);
+                try {
+                    int written = JsonResponseWriter.writeResults(results, out);
+                    log.trace("Streamed get: " + written + " JSON documents written.");
+                    out.flush();
+                } finally {
+                    results.close();
+                }
+            }
+        };
+        return Response.ok(output, JSON_UTF8).build();
+    }
+
+    private Response getByKey(InfinispanProducer producer, String cacheName, String key) {
+        final CachedValue value = producer.getEntry(cacheName, unquote(key));
+        if (value == null) {
+            // no results found, clients will get 404 response
+            return Response.status(Response.Status.NOT_FOUND).build();
+        }
+
+        StreamingOutput output = new StreamingOutput() {
+            @Override
+            public void write(OutputStream outputStream) throws IOException, WebApplicationException {
+                JsonResponseWriter.writeResult(value, outputStream);
+            }
+        };
+        return Response.ok(output, JSON_UTF8)
+                .header("Content-Length", JsonResponseWriter.resultLength(value))
+                .build();
+    }
+
+    /**
+     * @param key -- 'key' (OData string literal, quotes inside are doubled) or plain key
+     * @return value of the key
+     */
+    static String unquote(String key) {
+        if (key.length() >= 2 && key.startsWith("'") && key.endsWith("'")) {
+            return key.substring(1, key.length() - 1).replace("''", "'");
+        }
+        return key;
+    }
+}
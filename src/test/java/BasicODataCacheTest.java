@@ -1,14 +1,29 @@
+import java.io.IOException;
 import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.http.HttpResponse;
+import org.apache.http.util.EntityUtils;
+import org.codehaus.jackson.map.ObjectMapper;
 import org.junit.After;
 import org.junit.AfterClass;
 import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Test;
+import org.infinispan.odata.producer.FilterQueryCache;
+import org.infinispan.odata.producer.InfinispanProducer;
+import org.infinispan.odata.producer.SlowQueryLog;
 import org.infinispan.odata.server.ODataInfinispanServerRunner;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 /**
  * This is basic test suite for OData producer + server. We are using apache http client for
@@ -26,10 +41,13 @@ public class BasicODataCacheTest {
     public BasicODataCacheTest() {
     }
 
+    private static ODataInfinispanServerRunner serverRunner;
+
     @BeforeClass
     public static void setUpClass() {
         String[] args = {"http://localhost:8887/ODataInfinispanEndpoint.svc/", "infinispan-dist.xml"};
-        ODataInfinispanServerRunner.main(args);
+        serverRunner = new ODataInfinispanServerRunner();
+        serverRunner.run(args);
     }
 
     @AfterClass
@@ -185,4 +203,399 @@ public class BasicODataCacheTest {
 
         TestingUtils.compareHttpResponseWithJsonEntity(httpGetResponse, jsonPerson1);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void topAndSkipLoadOnlyRequestedPageTest() throws Exception {
+
+        for (int i = 0; i < 20; i++) {
+            String jsonPerson = TestingUtils.createJsonPersonString(
+                    "org.infinispan.odata.Person", "pagedPerson" + i, "MALE", "Paged", "Pager", 30);
+            TestingUtils.httpPostPutJsonEntry(serviceUri, cacheName, "pagedPerson" + i, jsonPerson, true);
+        }
+
+        long retrievalsBefore = TestingUtils.cacheRetrievals(cacheName);
+
+        final HttpResponse httpGetResponse = TestingUtils.httpGetJsonEntriesByODataQuery(
+                serviceUri, cacheName, "lastName eq 'Pager'", "&$skip=3&$top=5");
+
+        int statusCode = httpGetResponse.getStatusLine().getStatusCode();
+        assertEquals("Status code from GET with $top and $skip was expected 200.", 200, statusCode);
+        assertEquals("Exactly $top entries were expected in the response.",
+                5, TestingUtils.countJsonEntriesInHttpResponse(httpGetResponse));
+
+        long loadedEntities = TestingUtils.cacheRetrievals(cacheName) - retrievalsBefore;
+        assertTrue("Only the requested page should be loaded from the cache, but " + loadedEntities +
+                " entities were loaded.", loadedEntities <= 5);
+    }
+
+    @Test
+    public void orderByTest() throws UnsupportedEncodingException {
+
+        String[] firstNames = {"Bob", "Alice", "Cecil"};
+        for (String firstName : firstNames) {
+            String jsonPerson = TestingUtils.createJsonPersonString(
+                    "org.infinispan.odata.Person", "sorted" + firstName, "MALE", firstName, "Sorter", 30);
+            TestingUtils.httpPostPutJsonEntry(serviceUri, cacheName, "sorted" + firstName, jsonPerson, true);
+        }
+
+        final HttpResponse httpGetResponse = TestingUtils.httpGetJsonEntriesByODataQuery(
+                serviceUri, cacheName, "lastName eq 'Sorter'", "&$orderby=firstName%20desc&$top=2");
+
+        assertEquals("Status code from GET with $orderby was expected 200.", 200,
+                httpGetResponse.getStatusLine().getStatusCode());
+        TestingUtils.compareHttpResponseWithJsonEntity(httpGetResponse, "[" +
+                TestingUtils.createJsonPersonString("org.infinispan.odata.Person", "sortedCecil", "MALE", "Cecil", "Sorter", 30) + "," +
+                TestingUtils.createJsonPersonString("org.infinispan.odata.Person", "sortedBob", "MALE", "Bob", "Sorter", 30) + "]");
+    }
+
+    @Test
+    public void numericRangeQueryTest() throws UnsupportedEncodingException {
+
+        int[] ages = {18, 25, 40, 65};
+        for (int age : ages) {
+            String jsonPerson = TestingUtils.createJsonPersonString(
+                    "org.infinispan.odata.Person", "ranged" + age, "FEMALE", "Ranged", "Ranger", age);
+            TestingUtils.httpPostPutJsonEntry(serviceUri, cacheName, "ranged" + age, jsonPerson, true);
+        }
+
+        HttpResponse httpGetResponse = TestingUtils.httpGetJsonEntryByODataQuery(
+                serviceUri, cacheName, "lastName eq 'Ranger' and age ge 25 and age lt 65");
+        assertEquals("Status code from GET with range query was expected 200.", 200,
+                httpGetResponse.getStatusLine().getStatusCode());
+        assertEquals("Persons aged 25 and 40 were expected.", 2,
+                TestingUtils.countJsonEntriesInHttpResponse(httpGetResponse));
+
+        httpGetResponse = TestingUtils.httpGetJsonEntryByODataQuery(
+                serviceUri, cacheName, "lastName eq 'Ranger' and age eq 18");
+        TestingUtils.compareHttpResponseWithJsonEntity(httpGetResponse, TestingUtils.createJsonPersonString(
+                "org.infinispan.odata.Person", "ranged18", "FEMALE", "Ranged", "Ranger", 18));
+    }
+
+    @Test
+    public void streamedQueryTest() throws UnsupportedEncodingException {
+
+        String[] firstNames = {"Stream1", "Stream2", "Stream3"};
+        StringBuilder expected = new StringBuilder("[");
+        for (String firstName : firstNames) {
+            String jsonPerson = TestingUtils.createJsonPersonString(
+                    "org.infinispan.odata.Person", "streamed" + firstName, "MALE", firstName, "Streamer", 30);
+            TestingUtils.httpPostPutJsonEntry(serviceUri, cacheName, "streamed" + firstName, jsonPerson, true);
+            expected.append(expected.length() > 1 ? "," : "").append(jsonPerson);
+        }
+        expected.append("]");
+
+        HttpResponse httpGetResponse = TestingUtils.httpGetStreamedJsonEntriesByODataQuery(
+                serviceUri, cacheName, "lastName eq 'Streamer'", "&$orderby=firstName");
+        assertEquals("Status code from streamed GET was expected 200.", 200,
+                httpGetResponse.getStatusLine().getStatusCode());
+        TestingUtils.compareHttpResponseWithJsonEntity(httpGetResponse, expected.toString());
+
+        httpGetResponse = TestingUtils.httpGetStreamedJsonEntriesByODataQuery(
+                serviceUri, cacheName, "lastName eq 'NobodyStreamer'", "");
+        assertEquals("Streamed GET without results was expected to return 404.", 404,
+                httpGetResponse.getStatusLine().getStatusCode());
+    }
+
+    @Test
+    public void streamedLargeQueryTest() throws IOException {
+
+        int documentsCount = 200;
+        StringBuilder payload = new StringBuilder();
+        for (int i = 0; i < 8000; i++) {
+            payload.append('x');
+        }
+        try {
+            for (int i = 0; i < documentsCount; i++) {
+                String jsonDocument = "{\"id\":\"large" + i + "\",\"lastName\":\"Larger\",\"payload\":\"" + payload + "\"}";
+                TestingUtils.httpPostPutJsonEntry(serviceUri, cacheName, "large" + i, jsonDocument, true);
+            }
+
+            // both responses are written while the entries are being loaded, length is not known in advance
+            HttpResponse httpGetResponse = TestingUtils.httpGetStreamedJsonEntriesByODataQuery(
+                    serviceUri, cacheName, "lastName eq 'Larger'", "");
+            assertEquals("Status code from streamed GET was expected 200.", 200,
+                    httpGetResponse.getStatusLine().getStatusCode());
+            assertTrue("Streamed response was expected to be chunked.", httpGetResponse.getEntity().isChunked());
+            assertEquals("All matching entries were expected in the streamed response.", documentsCount,
+                    TestingUtils.countJsonEntriesInHttpResponse(httpGetResponse));
+
+            httpGetResponse = TestingUtils.httpGetJsonEntriesByODataQuery(serviceUri, cacheName, "lastName eq 'Larger'", "");
+            assertEquals("Status code from GET was expected 200.", 200, httpGetResponse.getStatusLine().getStatusCode());
+            assertTrue("Query response was expected to be chunked.", httpGetResponse.getEntity().isChunked());
+            assertEquals("All matching entries were expected in the response.", documentsCount,
+                    TestingUtils.countJsonEntriesInHttpResponse(httpGetResponse));
+        } finally {
+            for (int i = 0; i < documentsCount; i++) {
+                EntityUtils.consume(TestingUtils.httpDeleteRemoveJsonEntryByEntryKey(serviceUri, cacheName, "large" + i)
+                        .getEntity());
+            }
+        }
+    }
+
+    @Test
+    public void putAllTest() {
+
+        String jsonPersonA = TestingUtils.createJsonPersonString(
+                "org.infinispan.odata.Person", "bulkA", "MALE", "Bulk", "Loader", 30);
+        String jsonPersonB = TestingUtils.createJsonPersonString(
+                "org.infinispan.odata.Person", "bulkB", "FEMALE", "Bulk", "Loader", 31);
+        String jsonPersonC = TestingUtils.createJsonPersonString(
+                "org.infinispan.odata.Person", "bulkC", "FEMALE", "Bulk", "Loader", 32);
+
+        // JSON object with two entries followed by NDJSON line with another one
+        String body = "{\"bulkA\":" + jsonPersonA + ",\"bulkB\":" + jsonPersonB + "}\n" +
+                "{\"bulkC\":" + jsonPersonC + "}\n";
+
+        HttpResponse httpPostResponse = TestingUtils.httpPostPutAllJsonEntries(serviceUri, cacheName, body);
+        assertEquals("Status code from putAll was expected 200.", 200, httpPostResponse.getStatusLine().getStatusCode());
+        TestingUtils.compareHttpResponseWithJsonEntity(httpPostResponse, "{\"stored\":3}");
+
+        TestingUtils.compareHttpResponseWithJsonEntity(
+                TestingUtils.httpGetJsonEntryByEntryKey(serviceUri, cacheName, "bulkA"), jsonPersonA);
+        TestingUtils.compareHttpResponseWithJsonEntity(
+                TestingUtils.httpGetJsonEntryByEntryKey(serviceUri, cacheName, "bulkC"), jsonPersonC);
+
+        // bulk put documents are indexed as well
+        HttpResponse httpGetResponse = TestingUtils.httpGetJsonEntryByODataQuery(
+                serviceUri, cacheName, "lastName eq 'Loader'");
+        assertEquals("All bulk put documents were expected to be found.", 3,
+                TestingUtils.countJsonEntriesInHttpResponse(httpGetResponse));
+    }
+
+    @Test
+    public void getAllTest() throws IOException {
+
+        String jsonPersonA = TestingUtils.createJsonPersonString(
+                "org.infinispan.odata.Person", "multiA", "MALE", "Multi", "Getter", 30);
+        String jsonPersonB = TestingUtils.createJsonPersonString(
+                "org.infinispan.odata.Person", "multiB", "FEMALE", "Multi", "Getter", 31);
+        TestingUtils.httpPostPutJsonEntry(serviceUri, cacheName, "multiA", jsonPersonA, true);
+        TestingUtils.httpPostPutJsonEntry(serviceUri, cacheName, "multiB", jsonPersonB, true);
+        // key containing a comma
+        String jsonPersonC = TestingUtils.createJsonPersonString(
+                "org.infinispan.odata.Person", "multi,C", "MALE", "Multi", "Getter", 32);
+        TestingUtils.httpPostPutJsonEntry(serviceUri, cacheName, "multi,C", jsonPersonC, true);
+
+        HttpResponse httpGetResponse = TestingUtils.httpGetJsonEntriesByEntryKeys(
+                serviceUri, cacheName, "multiB", "multiMissing", "multi,C", "multiA");
+        assertEquals("Status code from getAll was expected 200.", 200, httpGetResponse.getStatusLine().getStatusCode());
+
+        Map<String, Object> response = (Map<String, Object>) new ObjectMapper().readValue(
+                httpGetResponse.getEntity().getContent(), Object.class);
+        List<Object> found = (List<Object>) response.get("d");
+        assertEquals("Found documents were expected in order of requested keys.", 3, found.size());
+        assertEquals("multiB", ((Map<String, Object>) found.get(0)).get("id"));
+        assertEquals("multi,C", ((Map<String, Object>) found.get(1)).get("id"));
+        assertEquals("multiA", ((Map<String, Object>) found.get(2)).get("id"));
+        assertEquals("Missing key was expected to be reported.",
+                Arrays.asList("multiMissing"), response.get("missing"));
+    }
+
+    @Test
+    public void filterQueryCacheTest() throws UnsupportedEncodingException {
+
+        String jsonPerson = TestingUtils.createJsonPersonString(
+                "org.infinispan.odata.Person", "cachedFilter", "MALE", "Cached", "Filter", 33);
+        TestingUtils.httpPostPutJsonEntry(serviceUri, cacheName, "cachedFilter", jsonPerson, true);
+
+        String otherJsonPerson = TestingUtils.createJsonPersonString(
+                "org.infinispan.odata.Person", "otherCachedFilter", "FEMALE", "Other", "Filtered", 34);
+        TestingUtils.httpPostPutJsonEntry(serviceUri, cacheName, "otherCachedFilter", otherJsonPerson, true);
+
+        FilterQueryCache filterQueryCache = serverRunner.getInfinispanProducer().getFilterQueryCache(cacheName);
+        long hitsBefore = filterQueryCache.getHits();
+
+        // the same filter, the second one differs only in whitespace
+        HttpResponse httpGetResponse = TestingUtils.httpGetJsonEntryByODataQuery(
+                serviceUri, cacheName, "lastName eq 'Filter' and age eq 33");
+        TestingUtils.compareHttpResponseWithJsonEntity(httpGetResponse, jsonPerson);
+        httpGetResponse = TestingUtils.httpGetJsonEntryByODataQuery(
+                serviceUri, cacheName, "lastName  eq 'Filter'   and age eq  33");
+        TestingUtils.compareHttpResponseWithJsonEntity(httpGetResponse, jsonPerson);
+
+        assertEquals("Second query was expected to reuse translated Lucene query.",
+                hitsBefore + 1, filterQueryCache.getHits());
+
+        // the same shape with different literals is bound to the cached translation
+        httpGetResponse = TestingUtils.httpGetJsonEntryByODataQuery(
+                serviceUri, cacheName, "lastName eq 'Filtered' and age eq 34");
+        TestingUtils.compareHttpResponseWithJsonEntity(httpGetResponse, otherJsonPerson);
+
+        assertEquals("Query with different literals was expected to reuse translated Lucene query.",
+                hitsBefore + 2, filterQueryCache.getHits());
+    }
+
+    @Test
+    public void streamedGetByKeyTest() throws UnsupportedEncodingException {
+
+        String jsonPerson = TestingUtils.createJsonPersonString(
+                "org.infinispan.odata.Person", "streamedKey", "FEMALE", "Streamed", "Key", 28);
+        TestingUtils.httpPostPutJsonEntry(serviceUri, cacheName, "streamedKey", jsonPerson, true);
+
+        HttpResponse httpGetResponse = TestingUtils.httpGetStreamedJsonEntryByEntryKey(serviceUri, cacheName, "streamedKey");
+        assertEquals("Status code from streamed GET by key was expected 200.", 200,
+                httpGetResponse.getStatusLine().getStatusCode());
+        TestingUtils.compareHttpResponseWithJsonEntity(httpGetResponse, jsonPerson);
+
+        httpGetResponse = TestingUtils.httpGetStreamedJsonEntryByEntryKey(serviceUri, cacheName, "streamedKeyMissing");
+        assertEquals("Status code from streamed GET by missing key was expected 404.", 404,
+                httpGetResponse.getStatusLine().getStatusCode());
+    }
+
+    @Test
+    public void nestedFieldsQueryTest() throws UnsupportedEncodingException {
+
+        String jsonNested = "{\"entityClass\":\"org.infinispan.odata.Person\",\"id\":\"nested1\"," +
+                "\"lastName\":\"Nested\",\"address\":{\"city\":\"Brno\",\"zip\":60200}," +
+                "\"tags\":[\"red\",\"blue\"]}";
+        TestingUtils.httpPostPutJsonEntry(serviceUri, cacheName, "nested1", jsonNested, true);
+
+        HttpResponse httpGetResponse = TestingUtils.httpGetJsonEntryByODataQuery(
+                serviceUri, cacheName, "address/city eq 'Brno' and address/zip ge 60000");
+        TestingUtils.compareHttpResponseWithJsonEntity(httpGetResponse, jsonNested);
+
+        httpGetResponse = TestingUtils.httpGetJsonEntryByODataQuery(
+                serviceUri, cacheName, "lastName eq 'Nested' and tags eq 'blue'");
+        TestingUtils.compareHttpResponseWithJsonEntity(httpGetResponse, jsonNested);
+    }
+
+    @Test
+    public void stringFunctionsQueryTest() throws UnsupportedEncodingException {
+
+        String jsonPerson = TestingUtils.createJsonPersonString(
+                "org.infinispan.odata.Person", "strfun1", "FEMALE", "Stringa", "Funkcionova", 27);
+        TestingUtils.httpPostPutJsonEntry(serviceUri, cacheName, "strfun1", jsonPerson, true);
+
+        HttpResponse httpGetResponse = TestingUtils.httpGetJsonEntryByODataQuery(
+                serviceUri, cacheName, "startswith(lastName,'Funkc') eq true");
+        TestingUtils.compareHttpResponseWithJsonEntity(httpGetResponse, jsonPerson);
+
+        httpGetResponse = TestingUtils.httpGetJsonEntryByODataQuery(
+                serviceUri, cacheName, "endswith(lastName,'cionova') eq true and startswith(firstName,'Str') eq true");
+        TestingUtils.compareHttpResponseWithJsonEntity(httpGetResponse, jsonPerson);
+    }
+
+    @Test
+    public void negationQueryTest() throws UnsupportedEncodingException {
+
+        String jsonPerson1 = TestingUtils.createJsonPersonString(
+                "org.infinispan.odata.Person", "neg1", "MALE", "Negace", "Negacni", 30);
+        String jsonPerson2 = TestingUtils.createJsonPersonString(
+                "org.infinispan.odata.Person", "neg2", "MALE", "Negace", "Negacni", 31);
+        TestingUtils.httpPostPutJsonEntry(serviceUri, cacheName, "neg1", jsonPerson1, true);
+        TestingUtils.httpPostPutJsonEntry(serviceUri, cacheName, "neg2", jsonPerson2, true);
+
+        // MUST_NOT clause of the conjunction
+        HttpResponse httpGetResponse = TestingUtils.httpGetJsonEntryByODataQuery(
+                serviceUri, cacheName, "lastName eq 'Negacni' and not (age eq 30)");
+        TestingUtils.compareHttpResponseWithJsonEntity(httpGetResponse, jsonPerson2);
+
+        // negation of negation
+        httpGetResponse = TestingUtils.httpGetJsonEntryByODataQuery(
+                serviceUri, cacheName, "not (lastName ne 'Negacni' or age eq 31)");
+        TestingUtils.compareHttpResponseWithJsonEntity(httpGetResponse, jsonPerson1);
+    }
+
+    @Test
+    public void slowQueryLogTest() throws UnsupportedEncodingException {
+
+        String jsonPerson = TestingUtils.createJsonPersonString(
+                "org.infinispan.odata.Person", "profiled1", "FEMALE", "Profiled", "Query", 44);
+        TestingUtils.httpPostPutJsonEntry(serviceUri, cacheName, "profiled1", jsonPerson, true);
+
+        SlowQueryLog slowQueryLog = serverRunner.getInfinispanProducer().getSlowQueryLog(cacheName);
+        long queriesBefore = slowQueryLog.getQueries();
+
+        HttpResponse httpGetResponse = TestingUtils.httpGetJsonEntryByODataQuery(
+                serviceUri, cacheName, "firstName eq 'Profiled' and age ge 44");
+        TestingUtils.compareHttpResponseWithJsonEntity(httpGetResponse, jsonPerson);
+
+        assertEquals("Query was expected to be recorded.", queriesBefore + 1, slowQueryLog.getQueries());
+        assertEquals("Literals were expected to be replaced in filter shape.", "firstName eq ? and age ge ?",
+                SlowQueryLog.filterShape("firstName eq 'Prof''iled' and age ge 44"));
+        boolean found = false;
+        for (String shape : slowQueryLog.getTopFilterShapes()) {
+            found |= shape.startsWith("firstName eq ? and age ge ?");
+        }
+        assertTrue("Filter shape was expected in the top filter shapes.", found);
+    }
+
+    @Test
+    public void countAndInlineCountTest() throws IOException {
+
+        for (int i = 1; i <= 3; i++) {
+            String jsonPerson = TestingUtils.createJsonPersonString(
+                    "org.infinispan.odata.Person", "counted" + i, "MALE", "Counted", "Person", 50 + i);
+            TestingUtils.httpPostPutJsonEntry(serviceUri, cacheName, "counted" + i, jsonPerson, true);
+        }
+
+        HttpResponse httpGetResponse = TestingUtils.httpGetCountByODataQuery(
+                serviceUri, cacheName, "firstName eq 'Counted' and age gt 51");
+        TestingUtils.compareHttpResponseWithString(httpGetResponse, "2");
+
+        // one result on the page, count of all matching entries
+        httpGetResponse = TestingUtils.httpGetJsonEntriesByODataQuery(
+                serviceUri, cacheName, "firstName eq 'Counted'", "&$top=1&$inlinecount=allpages");
+        assertEquals("Status code 200 was expected.", 200, httpGetResponse.getStatusLine().getStatusCode());
+        Map<String, Object> response = (Map<String, Object>) new ObjectMapper().readValue(
+                httpGetResponse.getEntity().getContent(), Object.class);
+        Map<String, Object> data = (Map<String, Object>) response.get("d");
+        assertEquals("One result was expected on the page.", 1, ((List) data.get("results")).size());
+        assertEquals("Count of all matching entries was expected.", "3", data.get("__count"));
+    }
+
+    @Test
+    public void selectProjectionTest() throws IOException {
+
+        String jsonPerson = TestingUtils.createJsonPersonString(
+                "org.infinispan.odata.Person", "selected1", "FEMALE", "Selected", "Person", 33);
+        TestingUtils.httpPostPutJsonEntry(serviceUri, cacheName, "selected1", jsonPerson, true);
+
+        // only the selected fields are returned, extracted from the document in the order of the document
+        HttpResponse httpGetResponse = TestingUtils.httpGetJsonEntriesByODataQuery(
+                serviceUri, cacheName, "firstName eq 'Selected'", "&$select=lastName,age");
+        assertEquals("Status code 200 was expected.", 200, httpGetResponse.getStatusLine().getStatusCode());
+        Map<String, Object> response = (Map<String, Object>) new ObjectMapper().readValue(
+                httpGetResponse.getEntity().getContent(), Object.class);
+        Map<String, Object> data = (Map<String, Object>) response.get("d");
+        assertEquals("Only the selected fields were expected.", 2, data.size());
+        assertEquals("Person", data.get("lastName"));
+        assertEquals(33, data.get("age"));
+
+        // fields which are not present are left out
+        httpGetResponse = TestingUtils.httpGetJsonEntriesByODataQuery(
+                serviceUri, cacheName, "firstName eq 'Selected'", "&$select=gender,nickName");
+        TestingUtils.compareHttpResponseWithString(httpGetResponse, "{ \"d\" : {\"gender\":\"FEMALE\"}}");
+    }
+
+    @Test
+    public void cacheRegistryTest() throws Exception {
+        InfinispanProducer producer = serverRunner.getInfinispanProducer();
+        assertTrue("Producer was expected to be ready once the server is started.", producer.isReady());
+
+        String jsonPerson = TestingUtils.createJsonPersonString(
+                "org.infinispan.odata.Person", "registered", "MALE", "Registry", "Lookup", 40);
+        TestingUtils.httpPostPutJsonEntry(serviceUri, cacheName, "registered", jsonPerson, true);
+
+        // concurrent requests look up the registered cache
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Integer>> requests = new ArrayList<Future<Integer>>();
+            for (int i = 0; i < 64; i++) {
+                requests.add(executor.submit(new Callable<Integer>() {
+                    @Override
+                    public Integer call() throws Exception {
+                        HttpResponse response = TestingUtils.httpGetJsonEntryByEntryKey(serviceUri, cacheName, "registered");
+                        EntityUtils.consume(response.getEntity());
+                        return response.getStatusLine().getStatusCode();
+                    }
+                }));
+            }
+            for (Future<Integer> request : requests) {
+                assertEquals("Status code from concurrent GET was expected 200.", 200, (int) request.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
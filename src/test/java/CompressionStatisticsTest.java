@@ -0,0 +1,84 @@
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+
+import org.infinispan.notifications.cachelistener.event.CacheEntryModifiedEvent;
+import org.infinispan.notifications.cachelistener.event.CacheEntryRemovedEvent;
+import org.infinispan.odata.producer.CachedValue;
+import org.infinispan.odata.producer.CompressionStatistics;
+import org.infinispan.odata.producer.JsonValueWrapper;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that CompressionStatistics describe documents currently stored in the cache: overwritten and removed
+ * documents are subtracted. Events of the cache listener are simulated.
+ *
+ * @author Tomas Sykora <tomas@infinispan.org>
+ */
+public class CompressionStatisticsTest {
+
+    private static final int THRESHOLD = 100;
+
+    @Test
+    public void overwritesAndRemovalsAreSubtractedTest() {
+        CompressionStatistics statistics = new CompressionStatistics("compressionStatisticsTest", THRESHOLD);
+        CachedValue small = value(10);
+        CachedValue large = value(1000);
+
+        // created entry, pre-event carries no value
+        statistics.cacheEntryModified(modified(null, true));
+        statistics.cacheEntryModified(modified(large, false));
+        assertEquals(1, statistics.getStoredDocuments());
+        assertEquals(1, statistics.getCompressedDocuments());
+        assertEquals(large.getJsonValueWrapper().getLength(), statistics.getOriginalBytes());
+
+        // overwrite of the compressed document by a small one
+        statistics.cacheEntryModified(modified(large, true));
+        statistics.cacheEntryModified(modified(small, false));
+        assertEquals(1, statistics.getStoredDocuments());
+        assertEquals(0, statistics.getCompressedDocuments());
+        assertEquals(small.getJsonValueWrapper().getLength(), statistics.getOriginalBytes());
+        assertEquals(small.getJsonValueWrapper().getStoredLength(), statistics.getStoredBytes());
+
+        statistics.cacheEntryRemoved(removed(small, true));
+        statistics.cacheEntryRemoved(removed(null, false));
+        assertEquals(0, statistics.getStoredDocuments());
+        assertEquals(0, statistics.getOriginalBytes());
+        assertEquals(0, statistics.getStoredBytes());
+        assertEquals(1, statistics.getCompressionRatio(), 0);
+    }
+
+    private static CachedValue value(int length) {
+        char[] padding = new char[length];
+        Arrays.fill(padding, 'a');
+        byte[] json = ("{\"padding\":\"" + new String(padding) + "\"}").getBytes();
+        return new CachedValue(JsonValueWrapper.create(json, THRESHOLD));
+    }
+
+    private static CacheEntryModifiedEvent modified(CachedValue value, boolean pre) {
+        return (CacheEntryModifiedEvent) event(CacheEntryModifiedEvent.class, value, pre);
+    }
+
+    private static CacheEntryRemovedEvent removed(CachedValue value, boolean pre) {
+        return (CacheEntryRemovedEvent) event(CacheEntryRemovedEvent.class, value, pre);
+    }
+
+    private static Object event(Class<?> type, final CachedValue value, final boolean pre) {
+        return Proxy.newProxyInstance(CompressionStatisticsTest.class.getClassLoader(),
+                new Class[]{type}, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if (method.getName().equals("isPre")) {
+                    return pre;
+                }
+                if (method.getName().equals("getValue")) {
+                    return value;
+                }
+                return null;
+            }
+        });
+    }
+}
@@ -0,0 +1,79 @@
+import java.io.IOException;
+import java.io.StringReader;
+
+import org.apache.log4j.Logger;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.PhraseQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
+import org.infinispan.odata.producer.JsonValueWrapperFieldBridge;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Compares latency of eq translated into PhraseQuery over analyzed field (former translation)
+ * with TermQuery over untokenized keyword field, on an in-memory index (see InMemoryIndex).
+ * <p/>
+ * Identifiers like ID-12 are split by the analyzer, so the phrase query matches ID-12-B as well
+ * (see MapQueryExpressionVisitorTest). Run by mvn test -Pbenchmarks.
+ *
+ * @author Tomas Sykora <tomas@infinispan.org>
+ */
+public class EqQueryBenchmarkTest {
+
+    private static final Logger log = Logger.getLogger(EqQueryBenchmarkTest.class.getName());
+
+    private static final int DOCUMENTS = 100000;
+    private static final int WARM_UP_ITERATIONS = 20000;
+    private static final int ITERATIONS = 100000;
+
+    private static InMemoryIndex index;
+
+    @BeforeClass
+    public static void setUpClass() throws IOException {
+        index = new InMemoryIndex(DOCUMENTS, new InMemoryIndex.Documents() {
+            @Override
+            public String json(int i) {
+                String id = i % 2 == 0 ? "ID-" + (i / 2) : "ID-" + (i / 2) + "-B";
+                return "{\"id\":\"" + id + "\",\"lastName\":\"Bench\"}";
+            }
+        });
+    }
+
+    @AfterClass
+    public static void tearDownClass() throws IOException {
+        index.close();
+    }
+
+    @Test
+    public void phraseVersusTermQueryTest() throws IOException {
+        Query phraseQuery = phraseQuery("id", "ID-12");
+        Query termQuery = new TermQuery(new Term(JsonValueWrapperFieldBridge.keywordFieldName("id"), "ID-12"));
+
+        index.measure(phraseQuery, WARM_UP_ITERATIONS);
+        index.measure(termQuery, WARM_UP_ITERATIONS);
+        log.info("eq as PhraseQuery over analyzed field: " + index.measure(phraseQuery, ITERATIONS) + " ns/query, " +
+                index.count(phraseQuery) + " hits");
+        log.info("eq as TermQuery over keyword field: " + index.measure(termQuery, ITERATIONS) + " ns/query, " +
+                index.count(termQuery) + " hits");
+    }
+
+    /**
+     * The same query as built by Hibernate Search queryBuilder.phrase().onField(field).sentence(sentence).
+     */
+    private static Query phraseQuery(String field, String sentence) throws IOException {
+        PhraseQuery phraseQuery = new PhraseQuery();
+        TokenStream tokenStream = InMemoryIndex.ANALYZER.tokenStream(field, new StringReader(sentence));
+        CharTermAttribute term = tokenStream.addAttribute(CharTermAttribute.class);
+        tokenStream.reset();
+        while (tokenStream.incrementToken()) {
+            phraseQuery.add(new Term(field, term.toString()));
+        }
+        tokenStream.end();
+        tokenStream.close();
+        return phraseQuery;
+    }
+}
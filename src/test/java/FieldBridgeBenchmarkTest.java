@@ -0,0 +1,98 @@
+import java.io.Serializable;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+import org.apache.lucene.document.Document;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.hibernate.search.bridge.FieldBridge;
+import org.hibernate.search.bridge.LuceneOptions;
+import org.infinispan.odata.producer.JsonValueWrapper;
+import org.infinispan.odata.producer.JsonValueWrapperFieldBridge;
+import org.junit.Test;
+
+/**
+ * Compares throughput and allocation of streaming JsonValueWrapperFieldBridge with the original one
+ * (BaselineFieldBridge, document parsed into a Map by ObjectMapper, then fields added one by one).
+ * The original bridge indexes less (no keyword and numeric fields), so the comparison is in its favour.
+ * Fields created by JsonValueWrapperFieldBridge are checked by JsonValueWrapperFieldBridgeTest.
+ * <p/>
+ * Allocation is measured by com.sun.management.ThreadMXBean, it is not reported on JVMs without it.
+ * Run by mvn test -Pbenchmarks.
+ *
+ * @author Tomas Sykora <tomas@infinispan.org>
+ */
+public class FieldBridgeBenchmarkTest {
+
+    private static final Logger log = Logger.getLogger(FieldBridgeBenchmarkTest.class.getName());
+
+    private static final int WARM_UP_ITERATIONS = 50000;
+    private static final int ITERATIONS = 200000;
+
+    @Test
+    public void streamingVersusOriginalFieldBridgeTest() {
+        JsonValueWrapper value = new JsonValueWrapper(TestingUtils.createJsonPersonString(
+                "org.infinispan.odata.Person", "bridged", "MALE", "Field", "Bridge", 42));
+
+        measure(new BaselineFieldBridge(), value, WARM_UP_ITERATIONS);
+        measure(new JsonValueWrapperFieldBridge(), value, WARM_UP_ITERATIONS);
+        log.info("Original field bridge: " + measure(new BaselineFieldBridge(), value, ITERATIONS));
+        log.info("Streaming field bridge: " + measure(new JsonValueWrapperFieldBridge(), value, ITERATIONS));
+    }
+
+    private static String measure(FieldBridge fieldBridge, JsonValueWrapper value, int iterations) {
+        long allocatedBefore = allocatedBytes();
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            fieldBridge.set("jsonWrapper", value, new Document(), TestingUtils.ANALYZED_FIELD_OPTIONS);
+        }
+        long time = System.nanoTime() - start;
+        long allocated = allocatedBytes() - allocatedBefore;
+        return (iterations * 1000000000L / time) + " documents/s" +
+                (allocatedBefore >= 0 ? ", " + allocated / iterations + " bytes allocated/document" : "");
+    }
+
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        if (threadMXBean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threadMXBean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    /**
+     * Frozen copy of the original JsonValueWrapperFieldBridge (before it was made streaming), kept for comparison
+     * only. Its warnings about not indexed number fields are suppressed by log4j-benchmarks.properties.
+     */
+    private static final class BaselineFieldBridge implements FieldBridge, Serializable {
+
+        private static final Logger log = Logger.getLogger(BaselineFieldBridge.class.getName());
+
+        private JsonValueWrapper valueWrapper;
+        private String json;
+        private ObjectMapper mapper = new ObjectMapper();
+
+        @Override
+        public void set(String name, Object value, Document document, LuceneOptions luceneOptions) {
+            if (!(value instanceof JsonValueWrapper)) {
+                throw new IllegalArgumentException("This FieldBridge can only be applied to a JsonValueWrapper");
+            }
+            valueWrapper = (JsonValueWrapper) value;
+            json = valueWrapper.getJson();
+
+            try {
+                Map<String, Object> entryAsMap = (Map<String, Object>) mapper.readValue(json, Object.class);
+                for (String field : entryAsMap.keySet()) {
+                    if (entryAsMap.get(field) instanceof Number) {
+                        log.warn("Number field recognized. Field: " + field + " value: " + entryAsMap.get(field) +
+                                " Indexing of number fields will be supported in later versions.");
+                    } else {
+                        luceneOptions.addFieldToDocument(field, entryAsMap.get(field).toString(), document);
+                    }
+                }
+            } catch (Exception e) {
+                log.error("EXCEPTION occurred in JsonValueWrapperFieldBridge during adding fields into Lucene Document.", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,90 @@
+import org.apache.lucene.search.Query;
+import org.infinispan.odata.producer.FilterQueryCache;
+import org.infinispan.odata.producer.FilterTemplate;
+import org.infinispan.odata.producer.MapQueryExpressionVisitor;
+import org.infinispan.odata.producer.ODataCacheSettings;
+import org.junit.Test;
+import org.odata4j.expression.BoolCommonExpression;
+import org.odata4j.expression.Expression;
+import org.odata4j.expression.ExpressionParser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Checks that FilterQueryCache binds literals of filters of the same shape to the cached translation,
+ * without Infinispan (translation doesn't need the Hibernate Search query builder).
+ *
+ * @author Tomas Sykora <tomas@infinispan.org>
+ */
+public class FilterQueryCacheTest {
+
+    private static final ODataCacheSettings SETTINGS = JsonValueWrapperFieldBridgeTest.settings("filterQueryCacheTest",
+            ODataCacheSettings.REVERSED_FIELDS, "lastName");
+
+    @Test
+    public void differentLiteralsHitTheSameEntryTest() {
+        FilterQueryCache filterQueryCache = new FilterQueryCache("filterQueryCacheTest", 10);
+        assertNull(get(filterQueryCache, "lastName eq 'Smith' and age gt 30 or startswith(firstName,'J')"));
+        put(filterQueryCache, "lastName eq 'Smith' and age gt 30 or startswith(firstName,'J')");
+
+        String filter = "lastName eq 'Doe' and age gt 40.5 or startswith(firstName,'K')";
+        assertEquals("Bound query was expected to be the same as translated one.",
+                translate(filter), get(filterQueryCache, filter));
+        assertEquals(1, filterQueryCache.getHits());
+        assertEquals(1, filterQueryCache.getSize());
+    }
+
+    @Test
+    public void literalsOfOtherKindMissTest() {
+        FilterQueryCache filterQueryCache = new FilterQueryCache("filterQueryCacheTest", 10);
+        put(filterQueryCache, "age eq 5");
+
+        assertNull("String literal was not expected to be bound to numeric query.",
+                get(filterQueryCache, "age eq '5'"));
+        put(filterQueryCache, "age eq '5'");
+        assertEquals(translate("age eq 'x'"), get(filterQueryCache, "age eq 'x'"));
+        assertEquals(1, filterQueryCache.getHits());
+        assertEquals(2, filterQueryCache.getMisses());
+    }
+
+    @Test
+    public void negationsAndSuffixesTest() {
+        FilterQueryCache filterQueryCache = new FilterQueryCache("filterQueryCacheTest", 10);
+        put(filterQueryCache, "not (lastName eq 'A') and gender ne 'MALE' and endswith(lastName,'son')");
+
+        String filter = "not (lastName eq 'B') and gender ne 'FEMALE' and endswith(lastName,'sen')";
+        assertEquals(translate(filter), get(filterQueryCache, filter));
+    }
+
+    @Test
+    public void foldedLiteralsAreNotCachedTest() {
+        assertNull("Translation depending on values of literals was not expected to be a template.",
+                template("1 eq 1 and lastName eq 'A'"));
+        assertNotNull(template("lastName eq 'A' and true"));
+    }
+
+    private static Query get(FilterQueryCache filterQueryCache, String filter) {
+        BoolCommonExpression expression = (BoolCommonExpression) ExpressionParser.parse(filter);
+        return filterQueryCache.get(Expression.asFilterString(expression), expression);
+    }
+
+    private static void put(FilterQueryCache filterQueryCache, String filter) {
+        BoolCommonExpression expression = (BoolCommonExpression) ExpressionParser.parse(filter);
+        filterQueryCache.put(Expression.asFilterString(expression), template(filter));
+    }
+
+    private static FilterTemplate template(String filter) {
+        BoolCommonExpression expression = (BoolCommonExpression) ExpressionParser.parse(filter);
+        MapQueryExpressionVisitor visitor = new MapQueryExpressionVisitor(null, SETTINGS);
+        visitor.visit(expression);
+        return visitor.getBuiltFilterTemplate(expression);
+    }
+
+    private static Query translate(String filter) {
+        MapQueryExpressionVisitor visitor = new MapQueryExpressionVisitor(null, SETTINGS);
+        visitor.visit((BoolCommonExpression) ExpressionParser.parse(filter));
+        return visitor.getBuiltLuceneQuery();
+    }
+}
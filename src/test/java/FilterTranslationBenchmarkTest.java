@@ -0,0 +1,126 @@
+import java.io.IOException;
+
+import org.apache.log4j.Logger;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
+import org.infinispan.odata.producer.JsonValueWrapperFieldBridge;
+import org.infinispan.odata.producer.MapQueryExpressionVisitor;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.odata4j.expression.AndExpression;
+import org.odata4j.expression.BoolCommonExpression;
+import org.odata4j.expression.BoolParenExpression;
+import org.odata4j.expression.EqExpression;
+import org.odata4j.expression.EntitySimpleProperty;
+import org.odata4j.expression.ExpressionParser;
+import org.odata4j.expression.OrExpression;
+import org.odata4j.expression.StringLiteral;
+
+/**
+ * Compares translation and search time of deep $filter expressions (50 operands of or, 10 of and) translated
+ * into nested two-clause BooleanQueries (former translation) and into flat BooleanQueries, on an in-memory index
+ * (see InMemoryIndex). Matches of flat queries and constant folding are checked by MapQueryExpressionVisitorTest.
+ * <p/>
+ * Run by mvn test -Pbenchmarks.
+ *
+ * @author Tomas Sykora <tomas@infinispan.org>
+ */
+public class FilterTranslationBenchmarkTest {
+
+    private static final Logger log = Logger.getLogger(FilterTranslationBenchmarkTest.class.getName());
+
+    private static final int DOCUMENTS = 100000;
+    private static final int OR_OPERANDS = 50;
+    private static final int WARM_UP_ITERATIONS = 2000;
+    private static final int ITERATIONS = 10000;
+
+    private static InMemoryIndex index;
+
+    @BeforeClass
+    public static void setUpClass() throws IOException {
+        index = new InMemoryIndex(DOCUMENTS, new InMemoryIndex.Documents() {
+            @Override
+            public String json(int i) {
+                return "{\"id\":\"ID-" + i + "\",\"group\":\"G" + (i % 10) + "\",\"kind\":\"K" + (i % 3) + "\"}";
+            }
+        });
+    }
+
+    @AfterClass
+    public static void tearDownClass() throws IOException {
+        index.close();
+    }
+
+    @Test
+    public void nestedVersusFlatOrTest() throws IOException {
+        StringBuilder filter = new StringBuilder();
+        for (int i = 0; i < OR_OPERANDS; i++) {
+            filter.append(i > 0 ? " or " : "").append("id eq 'ID-").append(i * 7).append("'");
+        }
+        compare(filter.toString());
+    }
+
+    @Test
+    public void nestedVersusFlatAndTest() throws IOException {
+        StringBuilder filter = new StringBuilder("group eq 'G1'");
+        for (int i = 0; i < 9; i++) {
+            filter.append(" and (kind eq 'K1' or id eq 'ID-").append(i).append("')");
+        }
+        compare(filter.toString());
+    }
+
+    private static void compare(String filter) throws IOException {
+        BoolCommonExpression expression = (BoolCommonExpression) ExpressionParser.parse(filter);
+        Query nested = translateNested(expression);
+        Query flat = MapQueryExpressionVisitorTest.translate(filter);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            translateNested(expression);
+        }
+        long nestedTranslation = System.nanoTime() - start;
+        start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            MapQueryExpressionVisitor visitor = new MapQueryExpressionVisitor(null);
+            visitor.visit(expression);
+        }
+        long flatTranslation = System.nanoTime() - start;
+
+        index.measure(nested, WARM_UP_ITERATIONS);
+        index.measure(flat, WARM_UP_ITERATIONS);
+        log.info("Filter: " + filter + ", " + index.count(flat) + " hits");
+        log.info("Nested translation: " + nestedTranslation / ITERATIONS + " ns, search: " +
+                index.measure(nested, ITERATIONS) + " ns/query");
+        log.info("Flat translation: " + flatTranslation / ITERATIONS + " ns, search: " +
+                index.measure(flat, ITERATIONS) + " ns/query");
+    }
+
+    /**
+     * Former translation, two-clause BooleanQuery per operator (string eq only).
+     */
+    private static Query translateNested(BoolCommonExpression expr) {
+        if (expr instanceof BoolParenExpression) {
+            return translateNested((BoolCommonExpression) ((BoolParenExpression) expr).getExpression());
+        }
+        if (expr instanceof AndExpression || expr instanceof OrExpression) {
+            BooleanClause.Occur occur = expr instanceof AndExpression ?
+                    BooleanClause.Occur.MUST : BooleanClause.Occur.SHOULD;
+            BooleanQuery booleanQuery = new BooleanQuery();
+            if (expr instanceof AndExpression) {
+                booleanQuery.add(translateNested(((AndExpression) expr).getLHS()), occur);
+                booleanQuery.add(translateNested(((AndExpression) expr).getRHS()), occur);
+            } else {
+                booleanQuery.add(translateNested(((OrExpression) expr).getLHS()), occur);
+                booleanQuery.add(translateNested(((OrExpression) expr).getRHS()), occur);
+            }
+            return booleanQuery;
+        }
+        EqExpression eq = (EqExpression) expr;
+        return new TermQuery(new Term(JsonValueWrapperFieldBridge.keywordFieldName(
+                ((EntitySimpleProperty) eq.getLHS()).getPropertyName()), ((StringLiteral) eq.getRHS()).getValue()));
+    }
+}
@@ -0,0 +1,120 @@
+import java.io.IOException;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.Version;
+import org.infinispan.odata.producer.JsonValueWrapper;
+import org.infinispan.odata.producer.JsonValueWrapperFieldBridge;
+import org.infinispan.odata.producer.ODataCacheSettings;
+import org.infinispan.odata.producer.SkipToken;
+
+/**
+ * In-memory Lucene index of JSON documents indexed by JsonValueWrapperFieldBridge, shared by tests and benchmarks
+ * of translated queries which don't need Infinispan.
+ * <p/>
+ * Position of the document (0..size-1) is stored as its document id (SkipToken.DOCUMENT_ID_FIELD), as Hibernate
+ * Search stores keys of cache entries.
+ *
+ * @author Tomas Sykora <tomas@infinispan.org>
+ */
+public class InMemoryIndex {
+
+    public static final Analyzer ANALYZER = new StandardAnalyzer(Version.LUCENE_36);
+
+    /**
+     * Source of indexed JSON documents.
+     */
+    public interface Documents {
+
+        String json(int position);
+    }
+
+    private final String[] documents;
+    private final RAMDirectory directory;
+    private final IndexReader reader;
+    private final IndexSearcher searcher;
+
+    public InMemoryIndex(int size, Documents source) throws IOException {
+        this(null, size, source);
+    }
+
+    /**
+     * @param settings -- documents are indexed according to the given cache settings (as if they were bound
+     *                 by IndexingSettingsInterceptor), null for defaults
+     */
+    public InMemoryIndex(ODataCacheSettings settings, int size, Documents source) throws IOException {
+        documents = new String[size];
+        directory = new RAMDirectory();
+        IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig(Version.LUCENE_36, ANALYZER));
+        JsonValueWrapperFieldBridge fieldBridge = new JsonValueWrapperFieldBridge();
+        for (int i = 0; i < size; i++) {
+            documents[i] = source.json(i);
+            Document document = new Document();
+            document.add(new Field(SkipToken.DOCUMENT_ID_FIELD, String.valueOf(i), Field.Store.YES,
+                    Field.Index.NOT_ANALYZED_NO_NORMS));
+            JsonValueWrapper value = JsonValueWrapper.create(documents[i].getBytes("UTF-8"), 0);
+            value.bindIndexingSettings(settings);
+            fieldBridge.set("jsonWrapper", value, document, TestingUtils.ANALYZED_FIELD_OPTIONS);
+            writer.addDocument(document);
+        }
+        writer.close();
+        reader = IndexReader.open(directory);
+        searcher = new IndexSearcher(reader);
+    }
+
+    public IndexSearcher getSearcher() {
+        return searcher;
+    }
+
+    public int size() {
+        return documents.length;
+    }
+
+    /**
+     * @return number of documents matched by the query
+     */
+    public int count(Query query) throws IOException {
+        return searcher.search(query, 1).totalHits;
+    }
+
+    /**
+     * @param doc -- Lucene document number
+     * @return position of the indexed document
+     */
+    public int position(int doc) throws IOException {
+        return Integer.parseInt(searcher.doc(doc).get(SkipToken.DOCUMENT_ID_FIELD));
+    }
+
+    /**
+     * @param position -- position of the indexed document
+     * @return the indexed JSON document
+     */
+    public String json(int position) {
+        return documents[position];
+    }
+
+    /**
+     * @return average time of search for the first 10 hits in nanoseconds
+     */
+    public long measure(Query query, int iterations) throws IOException {
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            searcher.search(query, 10);
+        }
+        return (System.nanoTime() - start) / iterations;
+    }
+
+    public void close() throws IOException {
+        searcher.close();
+        reader.close();
+        directory.close();
+    }
+}
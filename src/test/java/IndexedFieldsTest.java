@@ -0,0 +1,50 @@
+import org.infinispan.odata.producer.IndexedFields;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks parsing of indexed_fields cache setting (see JsonValueWrapperFieldBridgeTest for indexing
+ * of whitelisted fields).
+ *
+ * @author Tomas Sykora <tomas@infinispan.org>
+ */
+public class IndexedFieldsTest {
+
+    @Test
+    public void parseTest() {
+        IndexedFields indexedFields = IndexedFields.parse("indexedFieldsTest",
+                " lastName:keyword,age : NUMERIC, address.city:analyzed,, ");
+
+        assertEquals(IndexedFields.Mode.KEYWORD, indexedFields.getMode("lastName"));
+        assertEquals(IndexedFields.Mode.NUMERIC, indexedFields.getMode("age"));
+        assertEquals(IndexedFields.Mode.ANALYZED, indexedFields.getMode("address.city"));
+        assertNull("Field which is not listed was not expected to be indexed.", indexedFields.getMode("firstName"));
+        assertNull(indexedFields.getMode("address"));
+    }
+
+    @Test
+    public void invalidEntriesAreSkippedTest() {
+        IndexedFields indexedFields = IndexedFields.parse("indexedFieldsTest",
+                "lastName, firstName:fulltext, :keyword, age:numeric");
+
+        assertNull(indexedFields.getMode("lastName"));
+        assertNull(indexedFields.getMode("firstName"));
+        assertNull(indexedFields.getMode(""));
+        assertEquals(IndexedFields.Mode.NUMERIC, indexedFields.getMode("age"));
+    }
+
+    @Test
+    public void parentsOfNestedFieldsTest() {
+        IndexedFields indexedFields = IndexedFields.parse("indexedFieldsTest", "a.b.c:keyword, d:keyword");
+
+        assertTrue(indexedFields.containsIndexedFields("a"));
+        assertTrue(indexedFields.containsIndexedFields("a.b"));
+        assertFalse("Indexed field was not expected to be a parent.", indexedFields.containsIndexedFields("a.b.c"));
+        assertFalse(indexedFields.containsIndexedFields("d"));
+        assertFalse(indexedFields.containsIndexedFields("b"));
+    }
+}
@@ -0,0 +1,253 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Fieldable;
+import org.apache.lucene.document.NumericField;
+import org.apache.lucene.util.NumericUtils;
+import org.infinispan.configuration.cache.ConfigurationBuilder;
+import org.infinispan.odata.producer.JsonValueWrapper;
+import org.infinispan.odata.producer.JsonValueWrapperFieldBridge;
+import org.infinispan.odata.producer.ODataCacheSettings;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks Lucene fields created by JsonValueWrapperFieldBridge against fixed expected documents,
+ * outside of Hibernate Search (see TestingUtils.ANALYZED_FIELD_OPTIONS).
+ *
+ * @author Tomas Sykora <tomas@infinispan.org>
+ */
+public class JsonValueWrapperFieldBridgeTest {
+
+    @Test
+    public void simpleFieldsTest() {
+        String json = TestingUtils.createJsonPersonString(
+                "org.infinispan.odata.Person", "bridged", "MALE", "Field", "Bridge", 42);
+
+        assertEquals(Arrays.asList(
+                "entityClass=org.infinispan.odata.Person analyzed",
+                "entityClass__keyword=org.infinispan.odata.Person keyword",
+                "id=bridged analyzed",
+                "id__keyword=bridged keyword",
+                "gender=MALE analyzed",
+                "gender__keyword=MALE keyword",
+                "firstName=Field analyzed",
+                "firstName__keyword=Field keyword",
+                "lastName=Bridge analyzed",
+                "lastName__keyword=Bridge keyword",
+                "age=42.0 numeric",
+                "age__keyword=" + NumericUtils.doubleToPrefixCoded(42) + " keyword"),
+                fields(json));
+    }
+
+    @Test
+    public void nestedFieldsAndArraysTest() {
+        String json = "{\"address\":{\"city\":\"Brno\",\"zip\":60200},\"tags\":[\"red\",\"blue\"]," +
+                "\"scores\":[1,2.5],\"nothing\":null}";
+
+        // elements of arrays are values of the same field, numeric arrays have no keyword field
+        assertEquals(Arrays.asList(
+                "address.city=Brno analyzed",
+                "address.city__keyword=Brno keyword",
+                "address.zip=60200.0 numeric",
+                "address.zip__keyword=" + NumericUtils.doubleToPrefixCoded(60200) + " keyword",
+                "tags=red analyzed",
+                "tags__keyword=red keyword",
+                "tags=blue analyzed",
+                "tags__keyword=blue keyword",
+                "scores=1.0 numeric",
+                "scores=2.5 numeric"),
+                fields(json));
+    }
+
+    @Test
+    public void whitelistedFieldsTest() {
+        ODataCacheSettings settings = settings("whitelistedFieldsTest", ODataCacheSettings.INDEXED_FIELDS,
+                "lastName:keyword, age:numeric, address.city:analyzed, firstName:numeric");
+        String json = "{\"firstName\":\"John\",\"lastName\":\"Smith\",\"age\":42," +
+                "\"address\":{\"city\":\"Brno\",\"zip\":60200},\"other\":{\"lastName\":\"Doe\"}}";
+
+        // non-numeric value of numeric field and fields which are not listed are skipped
+        assertEquals(Arrays.asList(
+                "lastName__keyword=Smith keyword",
+                "age=42.0 numeric",
+                "age__keyword=" + NumericUtils.doubleToPrefixCoded(42) + " keyword",
+                "address.city=Brno analyzed",
+                "address.city__keyword=Brno keyword"),
+                fields(settings, json));
+    }
+
+    @Test
+    public void boundSettingsAreAppliedTest() {
+        ODataCacheSettings settings = settings("whitelistedCache", ODataCacheSettings.INDEXED_FIELDS, "age:numeric");
+        String json = "{\"age\":42,\"name\":\"x\"}";
+
+        assertEquals("All fields of a document without bound settings were expected to be indexed.",
+                fields(json), fields(null, json));
+        assertEquals(Arrays.asList(
+                "age=42.0 numeric",
+                "age__keyword=" + NumericUtils.doubleToPrefixCoded(42) + " keyword"),
+                fields(settings, json));
+
+        // the same document written into a cache without settings
+        JsonValueWrapper value = new JsonValueWrapper(json);
+        value.bindIndexingSettings(settings);
+        value.bindIndexingSettings(null);
+        assertEquals(fields(json), fields(value));
+    }
+
+    @Test
+    public void ngramFieldsTest() {
+        ODataCacheSettings settings = settings("ngramFieldsTest", ODataCacheSettings.NGRAM_FIELDS, "lastName, address.street, tags, age",
+                ODataCacheSettings.NGRAM_SIZE, "3");
+        String json = "{\"lastName\":\"Smith\",\"address\":{\"street\":\"Main\"},\"tags\":[\"abcd\"],\"age\":42}";
+
+        // grams at consecutive positions, the last ones are shorter, arrays and numbers are not indexed as n-grams
+        List<String> fields = fields(settings, json);
+        assertTrue(fields.contains("lastName__ngram tokens Smi mit ith th h"));
+        assertTrue(fields.contains("address.street__ngram tokens Mai ain in n"));
+        assertEquals(2, count(fields, "__ngram "));
+    }
+
+    @Test
+    public void reversedFieldsTest() {
+        ODataCacheSettings settings = settings("reversedFieldsTest", ODataCacheSettings.REVERSED_FIELDS,
+                "lastName, address.city, tags, age");
+        String json = "{\"firstName\":\"John\",\"lastName\":\"Smith\",\"address\":{\"city\":\"Brno\"}," +
+                "\"tags\":[\"red\",\"blue\"],\"age\":42}";
+
+        // string values of listed fields only, including elements of arrays
+        List<String> fields = fields(settings, json);
+        assertTrue(fields.contains("lastName__reversed=htimS keyword"));
+        assertTrue(fields.contains("address.city__reversed=onrB keyword"));
+        assertTrue(fields.contains("tags__reversed=der keyword"));
+        assertTrue(fields.contains("tags__reversed=eulb keyword"));
+        assertEquals(4, count(fields, "__reversed="));
+    }
+
+    @Test
+    public void storedFieldsTest() {
+        ODataCacheSettings settings = settings("storedFieldsTest", ODataCacheSettings.INDEXED_FIELDS, "age:numeric",
+                ODataCacheSettings.STORED_FIELDS, "name, age, address.city, nothing, tags, address, missing");
+        String json = "{\"name\":\"A \\\"B\\\"\",\"age\":42,\"address\":{\"city\":\"Brno\"}," +
+                "\"nothing\":null,\"tags\":[\"red\"]}";
+
+        // objects and arrays are not stored and their paths are not answered by the document
+        List<String> fields = fields(settings, json);
+        List<String> stored = new ArrayList<String>();
+        for (String field : fields) {
+            if (field.endsWith(" stored")) {
+                stored.add(field);
+            }
+        }
+        assertEquals(Arrays.asList(
+                "name__stored=\"A \\\"B\\\"\" stored",
+                "age__stored=42 stored",
+                "address.city__stored=\"Brno\" stored",
+                "nothing__stored=null stored",
+                "__stored_paths=" + storedPaths(stored) + " stored"),
+                stored);
+        String storedPaths = stored.get(stored.size() - 1);
+        for (String path : new String[]{"name", "age", "address.city", "nothing", "missing"}) {
+            assertTrue("Path " + path + " was expected to be answered by the document.",
+                    storedPaths.contains("," + path + ","));
+        }
+        assertFalse(storedPaths.contains(",tags,"));
+        assertFalse(storedPaths.contains(",address,"));
+    }
+
+    /**
+     * @param settings -- pairs of setting names and values
+     * @return settings of the given cache as if they were specified in its configuration
+     */
+    static ODataCacheSettings settings(String cacheName, String... settings) {
+        ConfigurationBuilder configuration = new ConfigurationBuilder();
+        for (int i = 0; i < settings.length; i += 2) {
+            configuration.indexing().addProperty(ODataCacheSettings.PREFIX + cacheName + "." + settings[i],
+                    settings[i + 1]);
+        }
+        return ODataCacheSettings.fromConfiguration(cacheName, configuration.build());
+    }
+
+    /**
+     * @return value of the stored paths field, which is the last field of the document (order of paths
+     *         is not defined)
+     */
+    private static String storedPaths(List<String> stored) {
+        String field = stored.get(stored.size() - 1);
+        return field.substring(field.indexOf('=') + 1, field.length() - " stored".length());
+    }
+
+    private static int count(List<String> fields, String substring) {
+        int count = 0;
+        for (String field : fields) {
+            if (field.contains(substring)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @param settings -- settings bound to the document (as by IndexingSettingsInterceptor), null for defaults
+     * @return fields of the document created by JsonValueWrapperFieldBridge according to the given settings
+     */
+    static List<String> fields(ODataCacheSettings settings, String json) {
+        JsonValueWrapper value = JsonValueWrapper.create(json.getBytes(), 0);
+        value.bindIndexingSettings(settings);
+        return fields(value);
+    }
+
+    /**
+     * @return fields of the document created by JsonValueWrapperFieldBridge, in order of their adding
+     */
+    static List<String> fields(JsonValueWrapper value) {
+        Document document = new Document();
+        new JsonValueWrapperFieldBridge().set("jsonWrapper", value, document, TestingUtils.ANALYZED_FIELD_OPTIONS);
+        List<String> fields = new ArrayList<String>();
+        for (Fieldable field : document.getFields()) {
+            fields.add(describe(field));
+        }
+        return fields;
+    }
+
+    private static List<String> fields(String json) {
+        return fields(new JsonValueWrapper(json));
+    }
+
+    private static String describe(Fieldable field) {
+        if (field instanceof NumericField) {
+            return field.name() + "=" + ((NumericField) field).getNumericValue() + " numeric";
+        }
+        if (!field.isIndexed()) {
+            return field.name() + "=" + field.stringValue() + " stored";
+        }
+        if (field.stringValue() == null) {
+            // token stream (n-grams)
+            return field.name() + " tokens" + tokens(field.tokenStreamValue());
+        }
+        return field.name() + "=" + field.stringValue() + (field.isTokenized() ? " analyzed" : " keyword");
+    }
+
+    private static String tokens(TokenStream tokenStream) {
+        StringBuilder tokens = new StringBuilder();
+        CharTermAttribute termAttribute = tokenStream.addAttribute(CharTermAttribute.class);
+        try {
+            tokenStream.reset();
+            while (tokenStream.incrementToken()) {
+                tokens.append(' ').append(termAttribute);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return tokens.toString();
+    }
+}
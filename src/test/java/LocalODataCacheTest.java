@@ -0,0 +1,288 @@
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.ws.rs.WebApplicationException;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.util.EntityUtils;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.infinispan.odata.producer.FilterQueryCache;
+import org.infinispan.odata.producer.InfinispanProducer;
+import org.infinispan.odata.server.ODataInfinispanServerRunner;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Functional tests of OData settings which are disabled in infinispan-dist.xml, served from local caches
+ * configured by infinispan-local-test.xml (see the file for settings of particular caches).
+ *
+ * @author Tomas Sykora <tomas@infinispan.org>
+ */
+public class LocalODataCacheTest {
+
+    private static final String SERVICE_URI = "http://localhost:8897/ODataInfinispanEndpoint.svc/";
+    private static final long WAIT_MILLIS = 10000;
+
+    private static ODataInfinispanServerRunner serverRunner;
+
+    @BeforeClass
+    public static void setUpClass() {
+        String[] args = {SERVICE_URI, "infinispan-local-test.xml"};
+        serverRunner = new ODataInfinispanServerRunner();
+        serverRunner.run(args);
+    }
+
+    @Test
+    public void asyncWritesTest() throws Exception {
+        final String cacheName = "asyncCache";
+        int entries = 40;
+
+        // more concurrent writes than async_writes_max_pending, the others are refused by 503 and retried
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Integer>> puts = new ArrayList<Future<Integer>>();
+            for (int i = 0; i < entries; i++) {
+                final String key = "async" + i;
+                puts.add(executor.submit(new Callable<Integer>() {
+                    @Override
+                    public Integer call() throws Exception {
+                        long deadline = System.currentTimeMillis() + WAIT_MILLIS;
+                        while (true) {
+                            HttpResponse response = TestingUtils.httpPostPutJsonEntry(SERVICE_URI, cacheName, key,
+                                    TestingUtils.createJsonPersonString(
+                                            "org.infinispan.odata.Person", key, "MALE", "Async", "Writer", 20), true);
+                            EntityUtils.consume(response.getEntity());
+                            int status = response.getStatusLine().getStatusCode();
+                            if (status != 503 || System.currentTimeMillis() > deadline) {
+                                return status;
+                            }
+                            Thread.sleep(10);
+                        }
+                    }
+                }));
+            }
+            for (Future<Integer> put : puts) {
+                assertEquals("Status code from asynchronous put was expected 202.", 202, (int) put.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+        for (int i = 0; i < entries; i++) {
+            assertEquals("Asynchronously put entry was expected to be stored.", 200,
+                    waitForStatus(cacheName, "async" + i, 200));
+        }
+
+        HttpResponse httpDeleteResponse = TestingUtils.httpDeleteRemoveJsonEntryByEntryKey(SERVICE_URI, cacheName, "async0");
+        EntityUtils.consume(httpDeleteResponse.getEntity());
+        assertEquals("Status code from asynchronous remove was expected 202.", 202,
+                httpDeleteResponse.getStatusLine().getStatusCode());
+        assertEquals("Asynchronously removed entry was expected to be gone.", 404,
+                waitForStatus(cacheName, "async0", 404));
+
+        assertEquals("No asynchronous write was expected to fail.", 0,
+                serverRunner.getInfinispanProducer().getAsyncWriteFailures());
+    }
+
+    @Test
+    public void substringofTest() throws Exception {
+        // lastName is indexed as n-grams as well (odata.ngramCache.ngram_fields)
+        String cacheName = "ngramCache";
+        String jsonPerson = TestingUtils.createJsonPersonString(
+                "org.infinispan.odata.Person", "strfun1", "FEMALE", "Stringa", "Funkcionova", 27);
+        TestingUtils.httpPostPutJsonEntry(SERVICE_URI, cacheName, "strfun1", jsonPerson, true);
+
+        // phrase of grams
+        HttpResponse httpGetResponse = TestingUtils.httpGetJsonEntryByODataQuery(
+                SERVICE_URI, cacheName, "substringof('nkcion',lastName) eq true");
+        TestingUtils.compareHttpResponseWithJsonEntity(httpGetResponse, jsonPerson);
+
+        // shorter than n-gram size, at the end of the value
+        httpGetResponse = TestingUtils.httpGetJsonEntryByODataQuery(
+                SERVICE_URI, cacheName, "substringof('va',lastName) eq true and id eq 'strfun1'");
+        TestingUtils.compareHttpResponseWithJsonEntity(httpGetResponse, jsonPerson);
+    }
+
+    @Test
+    public void indexOnlySelectTest() throws Exception {
+        // lastName, age, nickName and tags are stored in the index (odata.storedCache.stored_fields)
+        String cacheName = "storedCache";
+        String jsonPerson = "{\"id\":\"stored1\",\"lastName\":\"Person\",\"age\":33,\"nickName\":null}";
+        String jsonTagged = "{\"id\":\"stored2\",\"tags\":[\"red\",\"blue\"],\"lastName\":\"Tagged\"}";
+        EntityUtils.consume(TestingUtils.httpPostPutJsonEntry(SERVICE_URI, cacheName, "stored1", jsonPerson, true)
+                .getEntity());
+        EntityUtils.consume(TestingUtils.httpPostPutJsonEntry(SERVICE_URI, cacheName, "stored2", jsonTagged, true)
+                .getEntity());
+
+        // read from stored fields in the order of $select, the document is not loaded
+        long retrievalsBefore = TestingUtils.cacheRetrievals(cacheName);
+        HttpResponse httpGetResponse = TestingUtils.httpGetJsonEntriesByODataQuery(
+                SERVICE_URI, cacheName, "id eq 'stored1'", "&$select=age,lastName,nickName");
+        TestingUtils.compareHttpResponseWithString(httpGetResponse,
+                "{ \"d\" : {\"age\":33,\"lastName\":\"Person\",\"nickName\":null}}");
+        assertEquals("Stored fields were expected to be read from the index.", retrievalsBefore,
+                TestingUtils.cacheRetrievals(cacheName));
+
+        // tags is an array in the document, it's not stored -- the document is loaded and the fields are extracted
+        httpGetResponse = TestingUtils.httpGetJsonEntriesByODataQuery(
+                SERVICE_URI, cacheName, "id eq 'stored2'", "&$select=lastName,tags");
+        TestingUtils.compareHttpResponseWithString(httpGetResponse,
+                "{ \"d\" : {\"tags\":[\"red\",\"blue\"],\"lastName\":\"Tagged\"}}");
+        assertEquals("Document with an array was expected to be loaded.", retrievalsBefore + 1,
+                TestingUtils.cacheRetrievals(cacheName));
+    }
+
+    @Test
+    public void serverDrivenPagingTest() throws Exception {
+        // pages of 3 results (odata.pagedCache.page_size), id and age are stored in the index
+        String cacheName = "pagedCache";
+        int entries = 10;
+        for (int i = 0; i < entries; i++) {
+            // ages are tied by 4 entries, ties are ordered by document id
+            String json = TestingUtils.createJsonPersonString(
+                    "org.infinispan.odata.Person", "paged" + i, "MALE", "Paged", "Pager", i / 4);
+            EntityUtils.consume(TestingUtils.httpPostPutJsonEntry(SERVICE_URI, cacheName, "paged" + i, json, true)
+                    .getEntity());
+        }
+
+        assertEquals(entries, walkPages(cacheName, "&$orderby=age"));
+        // index-only $select loads only the last result of pages followed by another page
+        long retrievalsBefore = TestingUtils.cacheRetrievals(cacheName);
+        assertEquals(entries, walkPages(cacheName, "&$orderby=age%20desc&$select=id,age"));
+        assertEquals("Only the last results of the first 3 pages were expected to be loaded.", retrievalsBefore + 3,
+                TestingUtils.cacheRetrievals(cacheName));
+
+        HttpResponse httpGetResponse = TestingUtils.httpGetByRelativeUri(SERVICE_URI, cacheName + "?$skiptoken=invalid");
+        EntityUtils.consume(httpGetResponse.getEntity());
+        assertEquals("Malformed $skiptoken of the entity set was expected to be rejected.", 400,
+                httpGetResponse.getStatusLine().getStatusCode());
+    }
+
+    @Test
+    public void concurrentFirstStartupTest() throws Exception {
+        // not configured, started with the default configuration on the first access
+        final String cacheName = "lazilyStartedCache";
+        final InfinispanProducer producer = serverRunner.getInfinispanProducer();
+        final CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<FilterQueryCache>> lookups = new ArrayList<Future<FilterQueryCache>>();
+            for (int i = 0; i < 8; i++) {
+                lookups.add(executor.submit(new Callable<FilterQueryCache>() {
+                    @Override
+                    public FilterQueryCache call() throws Exception {
+                        start.await();
+                        return producer.getFilterQueryCache(cacheName);
+                    }
+                }));
+            }
+            start.countDown();
+            FilterQueryCache registered = lookups.get(0).get();
+            assertNotNull("Cache was expected to be started on the first access.", registered);
+            for (Future<FilterQueryCache> lookup : lookups) {
+                assertSame("Cache was expected to be started and registered once.", registered, lookup.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void failedStartupTest() throws Exception {
+        InfinispanProducer producer = new InfinispanProducer("InfinispanODataContainer", "missing-infinispan.xml");
+        assertNotNull("Failed startup was expected to be reported.", producer.getStartupFailure());
+        assertFalse("Producer was not expected to be ready after failed startup.", producer.isReady());
+        assertFalse(producer.awaitReady(1, TimeUnit.SECONDS));
+        try {
+            producer.callFunction(null, null, null, null);
+            fail("Function call was expected to be rejected before the producer is ready.");
+        } catch (WebApplicationException e) {
+            assertEquals(503, e.getResponse().getStatus());
+        }
+        try {
+            producer.getEntitiesCount(null, "pagedCache", null);
+            fail("Entity set was expected to be rejected before the producer is ready.");
+        } catch (WebApplicationException e) {
+            assertEquals(503, e.getResponse().getStatus());
+        }
+    }
+
+    @Test
+    public void failedCacheStartupTest() throws Exception {
+        // the configuration is valid, the only configured cache fails to start in the background
+        InfinispanProducer producer = new InfinispanProducer("InfinispanODataContainer",
+                "infinispan-failing-cache-test.xml");
+        assertFalse("Producer was not expected to be ready when a configured cache failed to start.",
+                producer.awaitReady(WAIT_MILLIS, TimeUnit.MILLISECONDS));
+        assertNotNull("Failed startup of the cache was expected to be reported.", producer.getStartupFailure());
+        assertTrue(producer.getStartupFailure().getMessage(),
+                producer.getStartupFailure().getMessage().contains("brokenCache"));
+        assertFalse(producer.isReady());
+    }
+
+    /**
+     * Follows __next links from the first page of Pager entries, every entry is expected to be returned once,
+     * ordered by age.
+     *
+     * @return number of returned entries
+     */
+    private static int walkPages(String cacheName, String queryOptions) throws Exception {
+        ObjectMapper mapper = new ObjectMapper();
+        boolean descending = queryOptions.contains("desc");
+        Set<Object> ids = new HashSet<Object>();
+        int lastAge = descending ? Integer.MAX_VALUE : Integer.MIN_VALUE;
+        HttpResponse httpGetResponse = TestingUtils.httpGetJsonEntriesByODataQuery(
+                SERVICE_URI, cacheName, "lastName eq 'Pager'", queryOptions);
+        while (true) {
+            assertEquals(200, httpGetResponse.getStatusLine().getStatusCode());
+            Map<String, Object> page = (Map<String, Object>) ((Map<String, Object>) mapper.readValue(
+                    httpGetResponse.getEntity().getContent(), Object.class)).get("d");
+            List<Map<String, Object>> results = (List<Map<String, Object>>) page.get("results");
+            assertTrue("Page was expected to have at most 3 results.", results.size() <= 3);
+            for (Map<String, Object> result : results) {
+                assertTrue("Entry " + result.get("id") + " was returned twice.", ids.add(result.get("id")));
+                int age = (Integer) result.get("age");
+                assertTrue("Entries were expected to be ordered by age.", descending ? age <= lastAge : age >= lastAge);
+                lastAge = age;
+            }
+            String next = (String) page.get("__next");
+            if (next == null) {
+                return ids.size();
+            }
+            httpGetResponse = TestingUtils.httpGetByRelativeUri(SERVICE_URI, next);
+        }
+    }
+
+    /**
+     * Polls get of the entry until the expected status code is returned or WAIT_MILLIS elapse.
+     *
+     * @return the last status code
+     */
+    private static int waitForStatus(String cacheName, String entryKey, int expectedStatus) throws Exception {
+        long deadline = System.currentTimeMillis() + WAIT_MILLIS;
+        while (true) {
+            HttpResponse response = TestingUtils.httpGetJsonEntryByEntryKey(SERVICE_URI, cacheName, entryKey);
+            EntityUtils.consume(response.getEntity());
+            int status = response.getStatusLine().getStatusCode();
+            if (status == expectedStatus || System.currentTimeMillis() > deadline) {
+                return status;
+            }
+            Thread.sleep(50);
+        }
+    }
+}
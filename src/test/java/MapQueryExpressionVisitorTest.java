@@ -0,0 +1,231 @@
+import java.io.IOException;
+
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.search.PrefixQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
+import org.infinispan.odata.producer.JsonValueWrapperFieldBridge;
+import org.infinispan.odata.producer.MapQueryExpressionVisitor;
+import org.infinispan.odata.producer.ODataCacheSettings;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.odata4j.exceptions.BadRequestException;
+import org.odata4j.exceptions.NotImplementedException;
+import org.odata4j.expression.BoolCommonExpression;
+import org.odata4j.expression.ExpressionParser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks translation of $filter expressions by MapQueryExpressionVisitor on an in-memory index
+ * (see InMemoryIndex), matches are compared with documents selected by the same condition in Java.
+ *
+ * @author Tomas Sykora <tomas@infinispan.org>
+ */
+public class MapQueryExpressionVisitorTest {
+
+    private static final int DOCUMENTS = 1000;
+
+    private static InMemoryIndex index;
+
+    @BeforeClass
+    public static void setUpClass() throws IOException {
+        index = new InMemoryIndex(DOCUMENTS, new InMemoryIndex.Documents() {
+            @Override
+            public String json(int i) {
+                // ID-12-B documents are matched by phrase "ID-12" of the analyzed field
+                return "{\"id\":\"ID-" + (i / 2) + (i % 2 == 0 ? "" : "-B") + "\",\"group\":\"G" + (i % 10) +
+                        "\",\"kind\":\"K" + (i % 3) + "\",\"age\":" + (i % 97) + "}";
+            }
+        });
+    }
+
+    @AfterClass
+    public static void tearDownClass() throws IOException {
+        index.close();
+    }
+
+    @Test
+    public void eqIsTermQueryOnKeywordFieldTest() {
+        Term term = new Term(JsonValueWrapperFieldBridge.keywordFieldName("id"), "ID-12");
+        assertEquals(new TermQuery(term), translate("id eq 'ID-12'"));
+
+        BooleanQuery ne = (BooleanQuery) translate("id ne 'ID-12'");
+        assertEquals(2, ne.clauses().size());
+        assertEquals(new BooleanClause(new MatchAllDocsQuery(), BooleanClause.Occur.MUST), ne.clauses().get(0));
+        assertEquals(new BooleanClause(new TermQuery(term), BooleanClause.Occur.MUST_NOT), ne.clauses().get(1));
+    }
+
+    @Test
+    public void eqMatchesWholeValueTest() throws IOException {
+        assertEquals("eq was expected to match ID-12 only, not ID-12-B.", 1, index.count(translate("id eq 'ID-12'")));
+        assertEquals(DOCUMENTS - 1, index.count(translate("id ne 'ID-12'")));
+    }
+
+    @Test
+    public void flatOrTest() throws IOException {
+        StringBuilder filter = new StringBuilder();
+        for (int i = 0; i < 50; i++) {
+            filter.append(i > 0 ? " or " : "").append("id eq 'ID-").append(i * 7).append("'");
+        }
+        assertEquals(50, index.count(translate(filter.toString())));
+    }
+
+    @Test
+    public void flatAndTest() throws IOException {
+        StringBuilder filter = new StringBuilder("group eq 'G1'");
+        for (int i = 0; i < 9; i++) {
+            filter.append(" and (kind eq 'K1' or id eq 'ID-").append(i).append("')");
+        }
+        // every id is listed in one operand only, so all operands hold for kind K1 only
+        int expected = 0;
+        for (int i = 0; i < DOCUMENTS; i++) {
+            if (i % 10 == 1 && i % 3 == 1) {
+                expected++;
+            }
+        }
+        assertEquals(expected, index.count(translate(filter.toString())));
+    }
+
+    @Test
+    public void andChainLongerThanMaxClauseCountTest() throws IOException {
+        int terms = BooleanQuery.getMaxClauseCount() + 100;
+
+        // negations are kept next to the positive operand, no MatchAllDocsQuery is needed
+        StringBuilder filter = new StringBuilder("kind eq 'K1'");
+        for (int i = 0; i < terms; i++) {
+            filter.append(" and id ne 'ID-").append(i).append("'");
+        }
+        Query query = translate(filter.toString());
+        assertFalse("Negations were expected to be anchored by the positive operand.", containsMatchAll(query));
+        int expected = 0;
+        for (int i = 0; i < DOCUMENTS; i++) {
+            // even documents have ids ID-0 .. ID-499, all of them are excluded
+            if (i % 3 == 1 && i % 2 == 1) {
+                expected++;
+            }
+        }
+        assertEquals(expected, index.count(query));
+
+        filter = new StringBuilder();
+        for (int i = 0; i < terms; i++) {
+            filter.append(i > 0 ? " and " : "").append("age le ").append(50 + i);
+        }
+        expected = 0;
+        for (int i = 0; i < DOCUMENTS; i++) {
+            if (i % 97 <= 50) {
+                expected++;
+            }
+        }
+        assertEquals(expected, index.count(translate(filter.toString())));
+
+        filter = new StringBuilder();
+        for (int i = 0; i < terms; i++) {
+            filter.append(i > 0 ? " and " : "").append("id ne 'ID-").append(i).append("-B'");
+        }
+        assertEquals("Odd documents were expected to be excluded.", DOCUMENTS / 2,
+                index.count(translate(filter.toString())));
+    }
+
+    @Test
+    public void negationTest() throws IOException {
+        int expectedConjunction = 0;
+        int expectedNegation = 0;
+        for (int i = 0; i < DOCUMENTS; i++) {
+            if (i % 97 != 5) {
+                expectedNegation++;
+                if (i % 10 == 5) {
+                    expectedConjunction++;
+                }
+            }
+        }
+        assertEquals(expectedConjunction, index.count(translate("group eq 'G5' and age ne 5")));
+        assertEquals(expectedConjunction, index.count(translate("not (age eq 5) and group eq 'G5'")));
+        assertEquals(expectedNegation, index.count(translate("not (age eq 5)")));
+        assertEquals("Negation of negation was expected to match the original query.",
+                DOCUMENTS - expectedNegation, index.count(translate("not (age ne 5)")));
+    }
+
+    @Test
+    public void constantFoldingTest() {
+        assertTrue("Constant operand was expected to be folded.",
+                translate("id eq 'ID-1' and 1 eq 1") instanceof TermQuery);
+        assertTrue("Constant operand was expected to be folded.",
+                translate("id eq 'ID-1' or 'a' gt 'b'") instanceof TermQuery);
+        assertTrue("True disjunction was expected to be folded.",
+                translate("id eq 'ID-1' or true") instanceof MatchAllDocsQuery);
+        assertTrue("False conjunction was expected to match nothing.",
+                ((BooleanQuery) translate("id eq 'ID-1' and not (2 ge 1)")).clauses().isEmpty());
+    }
+
+    @Test
+    public void fieldsAreQueriedAsTheyAreIndexedTest() {
+        ODataCacheSettings settings = JsonValueWrapperFieldBridgeTest.settings("indexedFieldsQueryTest",
+                ODataCacheSettings.INDEXED_FIELDS, "group:keyword, age:numeric", ODataCacheSettings.REVERSED_FIELDS, "age");
+
+        // the same leaf queries as for fields indexed in all ways
+        assertEquals(translate("group eq 'G1' and age gt 10"),
+                translate("group eq 'G1' and age gt 10", settings));
+        assertEquals(translate("startswith(group,'G') eq true"),
+                translate("startswith(group,'G') eq true", settings));
+
+        // not listed fields and literals of other kind than the field would match nothing
+        for (String filter : new String[]{"kind eq 'K1'", "group eq 1", "age eq '10'", "age lt 'Z'",
+                "startswith(age,'1') eq true", "endswith(age,'1') eq true", "age eq true"}) {
+            try {
+                translate(filter, settings);
+                fail("Filter " + filter + " was expected to be rejected.");
+            } catch (BadRequestException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void endswithOfNotReversedFieldIsRejectedTest() {
+        ODataCacheSettings settings = JsonValueWrapperFieldBridgeTest.settings("reversedFieldsQueryTest",
+                ODataCacheSettings.REVERSED_FIELDS, "lastName");
+
+        assertEquals(new PrefixQuery(new Term(JsonValueWrapperFieldBridge.reversedFieldName("lastName"), "nos")),
+                translate("endswith(lastName,'son') eq true", settings));
+        for (ODataCacheSettings rejecting : new ODataCacheSettings[]{null, settings}) {
+            try {
+                translate("endswith(firstName,'son') eq true", rejecting);
+                fail("endswith of a field which is not indexed reversed was expected to be rejected.");
+            } catch (NotImplementedException e) {
+                // expected
+            }
+        }
+    }
+
+    private static boolean containsMatchAll(Query query) {
+        if (query instanceof MatchAllDocsQuery) {
+            return true;
+        }
+        if (query instanceof BooleanQuery) {
+            for (BooleanClause clause : ((BooleanQuery) query).clauses()) {
+                if (containsMatchAll(clause.getQuery())) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    static Query translate(String filter) {
+        return translate(filter, null);
+    }
+
+    private static Query translate(String filter, ODataCacheSettings settings) {
+        MapQueryExpressionVisitor visitor = new MapQueryExpressionVisitor(null, settings);
+        visitor.visit((BoolCommonExpression) ExpressionParser.parse(filter));
+        return visitor.getBuiltLuceneQuery();
+    }
+}
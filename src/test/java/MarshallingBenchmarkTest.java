@@ -0,0 +1,64 @@
+import org.apache.log4j.Logger;
+import org.infinispan.commons.marshall.StreamingMarshaller;
+import org.infinispan.odata.producer.CachedValue;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Compares marshalling of CachedValue by registered externalizers with the default Java serialization
+ * (bytes on the wire and time of marshalling + unmarshalling), see MarshallingFixture.
+ * <p/>
+ * Correctness of marshalling is checked by MarshallingTest. Run by mvn test -Pbenchmarks.
+ *
+ * @author Tomas Sykora <tomas@infinispan.org>
+ */
+public class MarshallingBenchmarkTest {
+
+    private static final Logger log = Logger.getLogger(MarshallingBenchmarkTest.class.getName());
+
+    private static final int WARM_UP_ITERATIONS = 20000;
+    private static final int ITERATIONS = 100000;
+
+    private static MarshallingFixture marshallers;
+
+    @BeforeClass
+    public static void setUpClass() {
+        marshallers = new MarshallingFixture();
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+        marshallers.stop();
+    }
+
+    @Test
+    public void externalizerVersusSerializationTest() throws Exception {
+        CachedValue value = new CachedValue(TestingUtils.createJsonPersonString(
+                "org.infinispan.odata.Person", "marshalled", "MALE", "Marshall", "Externalizer", 42));
+
+        StreamingMarshaller serializing = marshallers.getSerializingMarshaller();
+        StreamingMarshaller externalizing = marshallers.getExternalizingMarshaller();
+
+        log.info("JSON document bytes: " + value.getJsonValueWrapper().getJsonBytes().length +
+                ", Java serialization bytes: " + serializing.objectToByteBuffer(value).length +
+                ", externalizer bytes: " + externalizing.objectToByteBuffer(value).length);
+
+        measure(serializing, value, WARM_UP_ITERATIONS);
+        measure(externalizing, value, WARM_UP_ITERATIONS);
+        log.info("Java serialization marshall + unmarshall: " +
+                measure(serializing, value, ITERATIONS) / ITERATIONS + " ns/op");
+        log.info("Externalizer marshall + unmarshall: " +
+                measure(externalizing, value, ITERATIONS) / ITERATIONS + " ns/op");
+    }
+
+    private static long measure(StreamingMarshaller marshaller, CachedValue value, int iterations) throws Exception {
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            if (marshaller.objectFromByteBuffer(marshaller.objectToByteBuffer(value)) == null) {
+                throw new IllegalStateException("Value was not unmarshalled.");
+            }
+        }
+        return System.nanoTime() - start;
+    }
+}
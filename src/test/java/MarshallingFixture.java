@@ -0,0 +1,51 @@
+import org.infinispan.commons.marshall.StreamingMarshaller;
+import org.infinispan.configuration.cache.ConfigurationBuilder;
+import org.infinispan.configuration.global.GlobalConfigurationBuilder;
+import org.infinispan.factories.KnownComponentNames;
+import org.infinispan.manager.DefaultCacheManager;
+import org.infinispan.odata.producer.CachedValue;
+import org.infinispan.odata.producer.JsonValueWrapper;
+
+/**
+ * Cache marshallers of two local cache managers, one with the externalizers of CachedValue and JsonValueWrapper
+ * registered and one using the default Java serialization. The same marshallers are used for replication,
+ * state transfer and cache stores. Shared by tests and benchmarks of marshalling.
+ *
+ * @author Tomas Sykora <tomas@infinispan.org>
+ */
+public class MarshallingFixture {
+
+    private final DefaultCacheManager serializingCacheManager;
+    private final DefaultCacheManager externalizingCacheManager;
+
+    public MarshallingFixture() {
+        GlobalConfigurationBuilder serializing = new GlobalConfigurationBuilder();
+        serializing.globalJmxStatistics().allowDuplicateDomains(true);
+        serializingCacheManager = new DefaultCacheManager(serializing.build(), new ConfigurationBuilder().build());
+
+        GlobalConfigurationBuilder externalizing = new GlobalConfigurationBuilder();
+        externalizing.globalJmxStatistics().allowDuplicateDomains(true);
+        externalizing.serialization()
+                .addAdvancedExternalizer(new CachedValue.Externalizer())
+                .addAdvancedExternalizer(new JsonValueWrapper.Externalizer());
+        externalizingCacheManager = new DefaultCacheManager(externalizing.build(), new ConfigurationBuilder().build());
+    }
+
+    public StreamingMarshaller getSerializingMarshaller() {
+        return getMarshaller(serializingCacheManager);
+    }
+
+    public StreamingMarshaller getExternalizingMarshaller() {
+        return getMarshaller(externalizingCacheManager);
+    }
+
+    public void stop() {
+        serializingCacheManager.stop();
+        externalizingCacheManager.stop();
+    }
+
+    private static StreamingMarshaller getMarshaller(DefaultCacheManager cacheManager) {
+        return cacheManager.getCache().getAdvancedCache().getComponentRegistry()
+                .getComponent(StreamingMarshaller.class, KnownComponentNames.CACHE_MARSHALLER);
+    }
+}
@@ -0,0 +1,67 @@
+import org.infinispan.commons.marshall.StreamingMarshaller;
+import org.infinispan.odata.producer.CachedValue;
+import org.infinispan.odata.producer.JsonValueWrapper;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks marshalling of CachedValue by registered externalizers (see MarshallingFixture), including
+ * compressed documents.
+ *
+ * @author Tomas Sykora <tomas@infinispan.org>
+ */
+public class MarshallingTest {
+
+    private static MarshallingFixture marshallers;
+
+    @BeforeClass
+    public static void setUpClass() {
+        marshallers = new MarshallingFixture();
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+        marshallers.stop();
+    }
+
+    @Test
+    public void externalizedValueTest() throws Exception {
+        CachedValue value = new CachedValue(TestingUtils.createJsonPersonString(
+                "org.infinispan.odata.Person", "marshalled", "MALE", "Marshall", "Externalizer", 42));
+
+        StreamingMarshaller serializing = marshallers.getSerializingMarshaller();
+        StreamingMarshaller externalizing = marshallers.getExternalizingMarshaller();
+
+        byte[] serialized = serializing.objectToByteBuffer(value);
+        byte[] externalized = externalizing.objectToByteBuffer(value);
+        assertEquals("Serialized value was expected to be unmarshalled.", value, serializing.objectFromByteBuffer(serialized));
+        assertEquals("Externalized value was expected to be unmarshalled.", value, externalizing.objectFromByteBuffer(externalized));
+        assertTrue("Externalized value was expected to be smaller than serialized one.",
+                externalized.length < serialized.length);
+    }
+
+    @Test
+    public void compressedValueTest() throws Exception {
+        StringBuilder json = new StringBuilder("{\"entries\":[");
+        for (int i = 0; i < 200; i++) {
+            json.append(i > 0 ? "," : "").append(TestingUtils.createJsonPersonString(
+                    "org.infinispan.odata.Person", "compressed" + i, "FEMALE", "Compressed", "Document", i));
+        }
+        json.append("]}");
+        byte[] jsonBytes = json.toString().getBytes("UTF-8");
+
+        CachedValue value = new CachedValue(JsonValueWrapper.create(jsonBytes, 1024));
+        assertTrue("Document was expected to be compressed.", value.getJsonValueWrapper().isCompressed());
+        assertEquals("Decompressed document was expected.", json.toString(), value.getJsonValueWrapper().getJson());
+
+        StreamingMarshaller externalizing = marshallers.getExternalizingMarshaller();
+        byte[] externalized = externalizing.objectToByteBuffer(value);
+        assertTrue("Compressed document was expected to be smaller on the wire.", externalized.length < jsonBytes.length);
+        assertEquals("Compressed value was expected to be unmarshalled.", value,
+                externalizing.objectFromByteBuffer(externalized));
+    }
+}
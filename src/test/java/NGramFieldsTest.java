@@ -0,0 +1,93 @@
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.lucene.search.Query;
+import org.infinispan.odata.producer.MapQueryExpressionVisitor;
+import org.infinispan.odata.producer.NGramFields;
+import org.infinispan.odata.producer.ODataCacheSettings;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.odata4j.expression.BoolCommonExpression;
+import org.odata4j.expression.ExpressionParser;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks substringof answered from n-gram fields (ngram_fields cache setting) on an in-memory index
+ * (see InMemoryIndex), matches are compared with documents selected by String.contains.
+ *
+ * @author Tomas Sykora <tomas@infinispan.org>
+ */
+public class NGramFieldsTest {
+
+    private static final String CACHE_NAME = "ngramFieldsTest";
+    private static final int DOCUMENTS = 500;
+    private static final String[] NAMES = {"Funkcionova", "Novak", "Novotny", "Kovar", "Vanova", "Ivanov", "Nov"};
+
+    private static ODataCacheSettings settings;
+    private static InMemoryIndex index;
+
+    @BeforeClass
+    public static void setUpClass() throws IOException {
+        settings = JsonValueWrapperFieldBridgeTest.settings(CACHE_NAME, ODataCacheSettings.NGRAM_FIELDS, "lastName",
+                ODataCacheSettings.NGRAM_SIZE, "3");
+        index = new InMemoryIndex(settings, DOCUMENTS, new InMemoryIndex.Documents() {
+            @Override
+            public String json(int i) {
+                return "{\"id\":\"ID-" + i + "\",\"lastName\":\"" + lastName(i) + "\"}";
+            }
+        });
+    }
+
+    @AfterClass
+    public static void tearDownClass() throws IOException {
+        index.close();
+    }
+
+    @Test
+    public void gramsTest() {
+        assertEquals(Arrays.asList("Nov", "ova", "vak", "ak", "k"), NGramFields.parse("lastName", 3).grams("Novak"));
+    }
+
+    @Test
+    public void substringofTest() throws IOException {
+        // phrase of grams, single gram, prefix of the shorter grams at the end of values and whole values
+        for (String substring : new String[]{"nkcion", "ova", "ov", "a", "Novak", "Nov", "vanova", "xyz"}) {
+            assertEquals("Unexpected matches of substringof('" + substring + "',lastName).",
+                    expected(substring), index.count(translate("substringof('" + substring + "',lastName) eq true")));
+        }
+    }
+
+    @Test
+    public void substringofInConjunctionTest() throws IOException {
+        int expected = 0;
+        for (int i = 0; i < DOCUMENTS; i++) {
+            if (lastName(i).contains("ov") && !lastName(i).contains("Nov")) {
+                expected++;
+            }
+        }
+        assertEquals(expected, index.count(translate(
+                "substringof('ov',lastName) eq true and not (substringof('Nov',lastName) eq true)")));
+    }
+
+    private static String lastName(int i) {
+        return NAMES[i % NAMES.length];
+    }
+
+    private static int expected(String substring) {
+        int expected = 0;
+        for (int i = 0; i < DOCUMENTS; i++) {
+            if (lastName(i).contains(substring)) {
+                expected++;
+            }
+        }
+        return expected;
+    }
+
+    private static Query translate(String filter) {
+        MapQueryExpressionVisitor visitor = new MapQueryExpressionVisitor(null, settings);
+        visitor.visit((BoolCommonExpression) ExpressionParser.parse(filter));
+        return visitor.getBuiltLuceneQuery();
+    }
+}
@@ -0,0 +1,75 @@
+import java.io.IOException;
+
+import org.apache.log4j.Logger;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.search.NumericRangeQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
+import org.infinispan.odata.producer.JsonValueWrapperFieldBridge;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Compares negations nested in conjunctions (MatchAllDocsQuery + MUST_NOT as a MUST clause, former translation
+ * of ne) with MUST_NOT clauses added directly to the conjunction, on an in-memory index (see InMemoryIndex).
+ * Selective positive clause (1 % of documents) is combined with unselective negation (excludes 1 % of documents).
+ * <p/>
+ * Matches of negations are checked by MapQueryExpressionVisitorTest. Run by mvn test -Pbenchmarks.
+ *
+ * @author Tomas Sykora <tomas@infinispan.org>
+ */
+public class NegationBenchmarkTest {
+
+    private static final Logger log = Logger.getLogger(NegationBenchmarkTest.class.getName());
+
+    private static final int DOCUMENTS = 100000;
+    private static final int WARM_UP_ITERATIONS = 2000;
+    private static final int ITERATIONS = 10000;
+
+    private static InMemoryIndex index;
+
+    @BeforeClass
+    public static void setUpClass() throws IOException {
+        index = new InMemoryIndex(DOCUMENTS, new InMemoryIndex.Documents() {
+            @Override
+            public String json(int i) {
+                return "{\"id\":\"ID-" + i + "\",\"group\":\"G" + (i % 100) + "\",\"age\":" + (i % 97) + "}";
+            }
+        });
+    }
+
+    @AfterClass
+    public static void tearDownClass() throws IOException {
+        index.close();
+    }
+
+    @Test
+    public void nestedVersusFlatNegationTest() throws IOException {
+        Query group = new TermQuery(new Term(JsonValueWrapperFieldBridge.keywordFieldName("group"), "G5"));
+        Query age = NumericRangeQuery.newDoubleRange("age", 5.0, 5.0, true, true);
+
+        BooleanQuery negation = new BooleanQuery();
+        negation.add(new MatchAllDocsQuery(), BooleanClause.Occur.MUST);
+        negation.add(age, BooleanClause.Occur.MUST_NOT);
+        BooleanQuery nested = new BooleanQuery();
+        nested.add(group, BooleanClause.Occur.MUST);
+        nested.add(negation, BooleanClause.Occur.MUST);
+
+        Query flat = MapQueryExpressionVisitorTest.translate("group eq 'G5' and age ne 5");
+        Query pure = MapQueryExpressionVisitorTest.translate("not (age eq 5)");
+
+        log.info("Selectivity -- group eq 'G5' and age ne 5: " + index.count(flat) + " of " + DOCUMENTS +
+                ", not (age eq 5): " + index.count(pure) + " of " + DOCUMENTS);
+
+        index.measure(nested, WARM_UP_ITERATIONS);
+        index.measure(flat, WARM_UP_ITERATIONS);
+        index.measure(pure, WARM_UP_ITERATIONS);
+        log.info("Negation nested in conjunction: " + index.measure(nested, ITERATIONS) + " ns/query");
+        log.info("MUST_NOT clause of conjunction: " + index.measure(flat, ITERATIONS) + " ns/query");
+        log.info("Pure negation (anchored): " + index.measure(pure, ITERATIONS) + " ns/query");
+    }
+}
@@ -0,0 +1,52 @@
+import org.infinispan.configuration.cache.ConfigurationBuilder;
+import org.infinispan.odata.producer.ODataCacheSettings;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks validation of cache settings, which is done while the configuration is parsed.
+ *
+ * @author Tomas Sykora <tomas@infinispan.org>
+ */
+public class ODataCacheSettingsTest {
+
+    @Test
+    public void pagingSettingsTest() {
+        assertEquals(ODataCacheSettings.DEFAULT_PAGE_SIZE,
+                JsonValueWrapperFieldBridgeTest.settings("settingsTest").getPageSize());
+        ODataCacheSettings settings = JsonValueWrapperFieldBridgeTest.settings("settingsTest",
+                ODataCacheSettings.FETCH_SIZE, "1", ODataCacheSettings.PAGE_SIZE, "0");
+        assertEquals(1, settings.getFetchSize());
+        assertEquals(0, settings.getPageSize());
+    }
+
+    @Test
+    public void invalidPagingSettingsAreRejectedTest() {
+        assertRejected("odata.settingsTest.fetch_size", ODataCacheSettings.FETCH_SIZE, "0");
+        assertRejected("odata.settingsTest.fetch_size", ODataCacheSettings.FETCH_SIZE, "-5");
+        assertRejected("odata.settingsTest.page_size", ODataCacheSettings.PAGE_SIZE, "-1");
+
+        // general property applying to all caches
+        ConfigurationBuilder configuration = new ConfigurationBuilder();
+        configuration.indexing().addProperty("odata.page_size", "-1");
+        try {
+            ODataCacheSettings.fromConfiguration("settingsTest", configuration.build());
+            fail("Negative page_size was expected to be rejected.");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("odata.page_size"));
+        }
+    }
+
+    private static void assertRejected(String property, String setting, String value) {
+        try {
+            JsonValueWrapperFieldBridgeTest.settings("settingsTest", setting, value);
+            fail("Value " + value + " of " + property + " was expected to be rejected.");
+        } catch (IllegalArgumentException e) {
+            assertTrue("Message was expected to name the property: " + e.getMessage(),
+                    e.getMessage().contains(property));
+        }
+    }
+}
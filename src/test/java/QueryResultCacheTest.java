@@ -0,0 +1,109 @@
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import org.infinispan.notifications.cachelistener.event.CacheEntryEvent;
+import org.infinispan.notifications.cachelistener.event.Event;
+import org.infinispan.odata.producer.QueryResultCache;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Checks bounds, eviction and invalidation of QueryResultCache without Infinispan, events of the cache
+ * listener are simulated.
+ *
+ * @author Tomas Sykora <tomas@infinispan.org>
+ */
+public class QueryResultCacheTest {
+
+    private static final String RESULT = "[{\"id\":\"1\"}]";
+
+    @Test
+    public void leastRecentlyUsedResultIsEvictedTest() {
+        String first = key("one");
+        String second = key("two");
+        String third = key("six");
+        // room for two results, keys are of the same length
+        QueryResultCache queryResultCache = new QueryResultCache("queryResultCacheTest",
+                2 * size(first, RESULT) + 1);
+
+        queryResultCache.put(first, RESULT, queryResultCache.getGeneration());
+        queryResultCache.put(second, RESULT, queryResultCache.getGeneration());
+        assertEquals(RESULT, queryResultCache.get(first));
+        queryResultCache.put(third, RESULT, queryResultCache.getGeneration());
+
+        assertEquals(2, queryResultCache.getSize());
+        assertEquals(2 * size(first, RESULT), queryResultCache.getSizeInBytes());
+        assertNull("Least recently used result was expected to be evicted.", queryResultCache.get(second));
+        assertEquals(RESULT, queryResultCache.get(first));
+        assertEquals(RESULT, queryResultCache.get(third));
+    }
+
+    @Test
+    public void resultOverTheBoundIsNotStoredTest() {
+        String key = key("big");
+        QueryResultCache queryResultCache = new QueryResultCache("queryResultCacheTest", size(key, RESULT) - 1);
+
+        queryResultCache.put(key, RESULT, queryResultCache.getGeneration());
+        assertEquals(0, queryResultCache.getSize());
+        assertEquals(0, queryResultCache.getSizeInBytes());
+        assertNull(queryResultCache.get(key));
+    }
+
+    @Test
+    public void writeInvalidatesResultsTest() {
+        String key = key("invalidated");
+        QueryResultCache queryResultCache = new QueryResultCache("queryResultCacheTest", 1000);
+        queryResultCache.put(key, RESULT, queryResultCache.getGeneration());
+
+        queryResultCache.cacheEntryChanged(event(Event.Type.CACHE_ENTRY_MODIFIED, true));
+        assertEquals("Pre-event was not expected to invalidate results.", RESULT, queryResultCache.get(key));
+
+        queryResultCache.cacheEntryChanged(event(Event.Type.CACHE_ENTRY_MODIFIED, false));
+        assertNull("Write was expected to invalidate results.", queryResultCache.get(key));
+        assertEquals(0, queryResultCache.getSizeInBytes());
+        assertEquals(1, queryResultCache.getInvalidations());
+    }
+
+    @Test
+    public void resultOfInvalidatedGenerationIsNotStoredTest() {
+        String key = key("concurrent");
+        QueryResultCache queryResultCache = new QueryResultCache("queryResultCacheTest", 1000);
+        long generation = queryResultCache.getGeneration();
+
+        // entry written while the query runs
+        queryResultCache.cacheEntryChanged(event(Event.Type.CACHE_ENTRY_CREATED, false));
+        queryResultCache.put(key, RESULT, generation);
+        assertNull("Result computed before the write was not expected to be stored.", queryResultCache.get(key));
+
+        queryResultCache.put(key, RESULT, queryResultCache.getGeneration());
+        assertEquals(RESULT, queryResultCache.get(key));
+    }
+
+    private static String key(String filter) {
+        return QueryResultCache.createKey("lastName eq '" + filter + "'", 10, null, null, false, null, null);
+    }
+
+    private static long size(String key, String result) {
+        // chars are 2 bytes
+        return 2L * (key.length() + result.length());
+    }
+
+    private static CacheEntryEvent event(final Event.Type type, final boolean pre) {
+        return (CacheEntryEvent) Proxy.newProxyInstance(QueryResultCacheTest.class.getClassLoader(),
+                new Class[]{CacheEntryEvent.class}, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if (method.getName().equals("isPre")) {
+                    return pre;
+                }
+                if (method.getName().equals("getType")) {
+                    return type;
+                }
+                return null;
+            }
+        });
+    }
+}
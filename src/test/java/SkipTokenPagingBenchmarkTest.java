@@ -0,0 +1,93 @@
+import java.io.IOException;
+
+import org.apache.log4j.Logger;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.SortField;
+import org.apache.lucene.search.TopDocs;
+import org.infinispan.odata.producer.CachedValue;
+import org.infinispan.odata.producer.JsonValueWrapperFieldBridge;
+import org.infinispan.odata.producer.SkipToken;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Compares deep paging by $skip (collecting skip + top hits) with paging by SkipToken (the first page of the query
+ * restricted to documents sorted after the last result) on an in-memory index (see InMemoryIndex).
+ * Correctness of pages is checked by SkipTokenTest.
+ * <p/>
+ * Run by mvn test -Pbenchmarks.
+ *
+ * @author Tomas Sykora <tomas@infinispan.org>
+ */
+public class SkipTokenPagingBenchmarkTest {
+
+    private static final Logger log = Logger.getLogger(SkipTokenPagingBenchmarkTest.class.getName());
+
+    private static final int DOCUMENTS = 100000;
+    private static final int PAGE_SIZE = 1000;
+    private static final int DEEP_SKIP = 90000;
+    private static final int ITERATIONS = 50;
+    private static final int QUERY_HASH = SkipToken.queryHash(null, "group desc,age,");
+
+    private static final Sort SORT = new Sort(
+            new SortField(JsonValueWrapperFieldBridge.keywordFieldName("group"), SortField.STRING, true),
+            new SortField(JsonValueWrapperFieldBridge.keywordFieldName("age"), SortField.STRING));
+
+    private static InMemoryIndex index;
+
+    @BeforeClass
+    public static void setUpClass() throws IOException {
+        index = new InMemoryIndex(DOCUMENTS, new InMemoryIndex.Documents() {
+            @Override
+            public String json(int i) {
+                return "{\"id\":\"ID-" + i + "\"," + (i % 7 == 0 ? "" : "\"group\":\"G" + (i % 10) + "\",") +
+                        "\"age\":" + (i % 50) + "}";
+            }
+        });
+    }
+
+    @AfterClass
+    public static void tearDownClass() throws IOException {
+        index.close();
+    }
+
+    @Test
+    public void deepSkipVersusSkipTokenTest() throws IOException {
+        Query query = new MatchAllDocsQuery();
+        Sort pagingSort = SkipToken.pagingSort(SORT);
+        SkipToken after = lastPosition(index.getSearcher().search(query, null, DEEP_SKIP, pagingSort));
+
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            index.getSearcher().search(query, null, DEEP_SKIP + PAGE_SIZE, pagingSort);
+        }
+        long skipNanos = (System.nanoTime() - start) / ITERATIONS;
+        start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            nextPage(query, after);
+        }
+        long tokenNanos = (System.nanoTime() - start) / ITERATIONS;
+        start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            nextPage(query, null);
+        }
+        long firstPageNanos = (System.nanoTime() - start) / ITERATIONS;
+
+        log.info("Page at " + DEEP_SKIP + " by $skip: " + skipNanos / 1000 + " us, by $skiptoken: " +
+                tokenNanos / 1000 + " us, first page: " + firstPageNanos / 1000 + " us");
+    }
+
+    private static TopDocs nextPage(Query query, SkipToken after) throws IOException {
+        Query restricted = after != null ? after.restrict(query, SORT) : query;
+        return index.getSearcher().search(restricted, null, PAGE_SIZE, SkipToken.pagingSort(SORT));
+    }
+
+    private static SkipToken lastPosition(TopDocs page) throws IOException {
+        int last = page.scoreDocs[page.scoreDocs.length - 1].doc;
+        return SkipToken.after(QUERY_HASH, -1, SORT, index.getSearcher().doc(last),
+                new CachedValue(index.json(index.position(last))), null);
+    }
+}
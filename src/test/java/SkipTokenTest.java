@@ -0,0 +1,102 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.SortField;
+import org.apache.lucene.search.TopDocs;
+import org.infinispan.odata.producer.CachedValue;
+import org.infinispan.odata.producer.JsonValueWrapperFieldBridge;
+import org.infinispan.odata.producer.SkipToken;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that pages restricted by SkipToken cover all matches in the sort order on an in-memory index
+ * (see InMemoryIndex), including documents missing the sort field, descending order and ties of sort values.
+ *
+ * @author Tomas Sykora <tomas@infinispan.org>
+ */
+public class SkipTokenTest {
+
+    private static final int DOCUMENTS = 1000;
+    private static final int PAGE_SIZE = 37;
+    private static final int QUERY_HASH = SkipToken.queryHash(null, "group desc,age,");
+
+    private static final Sort SORT = new Sort(
+            new SortField(JsonValueWrapperFieldBridge.keywordFieldName("group"), SortField.STRING, true),
+            new SortField(JsonValueWrapperFieldBridge.keywordFieldName("age"), SortField.STRING));
+
+    private static InMemoryIndex index;
+
+    @BeforeClass
+    public static void setUpClass() throws IOException {
+        index = new InMemoryIndex(DOCUMENTS, new InMemoryIndex.Documents() {
+            @Override
+            public String json(int i) {
+                // every 7th document is missing the group, ages repeat so the document id decides
+                return "{\"id\":\"ID-" + i + "\"," + (i % 7 == 0 ? "" : "\"group\":\"G" + (i % 10) + "\",") +
+                        "\"age\":" + (i % 50) + "}";
+            }
+        });
+    }
+
+    @AfterClass
+    public static void tearDownClass() throws IOException {
+        index.close();
+    }
+
+    @Test
+    public void pagesCoverAllMatchesTest() throws IOException {
+        Query query = new MatchAllDocsQuery();
+        TopDocs all = index.getSearcher().search(query, null, DOCUMENTS, SkipToken.pagingSort(SORT));
+
+        List<Integer> paged = new ArrayList<Integer>();
+        SkipToken after = null;
+        do {
+            TopDocs page = nextPage(query, after);
+            for (ScoreDoc scoreDoc : page.scoreDocs) {
+                paged.add(index.position(scoreDoc.doc));
+            }
+            after = page.totalHits > page.scoreDocs.length ? lastPosition(page) : null;
+        } while (after != null);
+
+        assertEquals("Pages were expected to cover all documents.", DOCUMENTS, paged.size());
+        for (int i = 0; i < DOCUMENTS; i++) {
+            assertEquals("Pages were expected to keep the sort order.",
+                    index.position(all.scoreDocs[i].doc), (int) paged.get(i));
+        }
+    }
+
+    @Test
+    public void tokenRoundTripTest() throws IOException {
+        SkipToken token = lastPosition(nextPage(new MatchAllDocsQuery(), null));
+        String encoded = token.encode();
+        assertTrue("Token was expected to be URL-safe: " + encoded, encoded.matches("[A-Za-z0-9_-]+"));
+        assertEquals(token.toString(), SkipToken.parse(encoded, QUERY_HASH).toString());
+        try {
+            SkipToken.parse(encoded, QUERY_HASH + 1);
+            throw new AssertionError("Token of another query was expected to be rejected.");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    private static TopDocs nextPage(Query query, SkipToken after) throws IOException {
+        Query restricted = after != null ? after.restrict(query, SORT) : query;
+        return index.getSearcher().search(restricted, null, PAGE_SIZE, SkipToken.pagingSort(SORT));
+    }
+
+    private static SkipToken lastPosition(TopDocs page) throws IOException {
+        int last = page.scoreDocs[page.scoreDocs.length - 1].doc;
+        return SkipToken.after(QUERY_HASH, -1, SORT, index.getSearcher().doc(last),
+                new CachedValue(index.json(index.position(last))), null);
+    }
+}
@@ -0,0 +1,56 @@
+import java.util.concurrent.TimeUnit;
+
+import org.infinispan.odata.producer.QueryProfile;
+import org.infinispan.odata.producer.SlowQueryLog;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that SlowQueryLog keeps filter shapes with the highest total time, without Infinispan
+ * (profiles of queries are simulated).
+ *
+ * @author Tomas Sykora <tomas@infinispan.org>
+ */
+public class SlowQueryLogTest {
+
+    @Test
+    public void frequentCheapShapeReplacesExpensiveShapesTest() {
+        SlowQueryLog slowQueryLog = new SlowQueryLog("slowQueryLogTest", 0, 2);
+        record(slowQueryLog, "a eq 1", 100);
+        record(slowQueryLog, "b eq 1", 50);
+
+        // every single execution is cheaper than the total of the cheapest kept shape
+        for (int i = 0; i < 200; i++) {
+            record(slowQueryLog, "c eq " + i, 1);
+        }
+
+        String[] top = slowQueryLog.getTopFilterShapes();
+        assertEquals(2, top.length);
+        assertTrue("Shape with the highest total time was expected first: " + top[0], top[0].startsWith("c eq ?"));
+        assertTrue("Shape with higher total time was expected to be kept: " + top[1], top[1].startsWith("a eq ?"));
+        assertEquals(202, slowQueryLog.getQueries());
+    }
+
+    @Test
+    public void shapesAreOrderedByTotalTimeTest() {
+        SlowQueryLog slowQueryLog = new SlowQueryLog("slowQueryLogTest", 0, 3);
+        record(slowQueryLog, "a eq 1", 30);
+        for (int i = 0; i < 4; i++) {
+            record(slowQueryLog, "b eq 'x'", 10);
+        }
+        record(slowQueryLog, "c eq 1", 20);
+
+        String[] top = slowQueryLog.getTopFilterShapes();
+        assertTrue(top[0].startsWith("b eq ?"));
+        assertTrue(top[1].startsWith("a eq ?"));
+        assertTrue(top[2].startsWith("c eq ?"));
+    }
+
+    private static void record(SlowQueryLog slowQueryLog, String filter, long millis) {
+        QueryProfile profile = new QueryProfile(filter);
+        profile.searched(TimeUnit.MILLISECONDS.toNanos(millis));
+        slowQueryLog.record(profile);
+    }
+}
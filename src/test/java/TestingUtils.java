@@ -4,21 +4,30 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.UnsupportedEncodingException;
+import java.lang.management.ManagementFactory;
 import java.net.URLEncoder;
+import java.util.List;
 import java.util.Map;
 
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
 import org.apache.http.HttpResponse;
-import org.apache.http.client.ClientProtocolException;
-import org.apache.http.client.HttpClient;
 import org.apache.http.client.methods.HttpDelete;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpPut;
+import org.apache.http.client.methods.HttpUriRequest;
 import org.apache.http.entity.StringEntity;
 import org.apache.http.impl.client.DefaultHttpClient;
 import org.apache.http.message.BasicHeader;
 import org.apache.http.protocol.HTTP;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.NumericField;
+import org.apache.lucene.util.NumericUtils;
 import org.codehaus.jackson.map.ObjectMapper;
+import org.hibernate.search.bridge.LuceneOptions;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
@@ -33,10 +42,69 @@ public class TestingUtils {
 
     private static ObjectMapper mapper = new ObjectMapper();
 
+    /**
+     * Lucene options of CachedValue.jsonWrapper field (analyzed, not stored, no norms), for tests of field bridge
+     * outside of Hibernate Search.
+     */
+    public static final LuceneOptions ANALYZED_FIELD_OPTIONS = new LuceneOptions() {
+        @Override
+        public void addFieldToDocument(String name, String indexedString, Document document) {
+            document.add(new Field(name, indexedString, getStore(), getIndex(), getTermVector()));
+        }
+
+        @Override
+        public void addNumericFieldToDocument(String fieldName, Object value, Document document) {
+            // the same as Hibernate Search does for numeric fields
+            NumericField numericField = new NumericField(fieldName, NumericUtils.PRECISION_STEP_DEFAULT, getStore(),
+                    getIndex() != Field.Index.NO);
+            if (value instanceof Double) {
+                numericField.setDoubleValue((Double) value);
+            } else if (value instanceof Float) {
+                numericField.setFloatValue((Float) value);
+            } else if (value instanceof Long) {
+                numericField.setLongValue((Long) value);
+            } else if (value instanceof Integer) {
+                numericField.setIntValue((Integer) value);
+            } else {
+                throw new IllegalArgumentException("Numeric value expected for field " + fieldName + ": " + value);
+            }
+            document.add(numericField);
+        }
+
+        @Override
+        public boolean isCompressed() {
+            return false;
+        }
+
+        @Override
+        public Field.Store getStore() {
+            return Field.Store.NO;
+        }
+
+        @Override
+        public Field.Index getIndex() {
+            return Field.Index.ANALYZED_NO_NORMS;
+        }
+
+        @Override
+        public Field.TermVector getTermVector() {
+            return Field.TermVector.NO;
+        }
+
+        @Override
+        public Float getBoost() {
+            return 1.0f;
+        }
+
+        @Override
+        public String indexNullAs() {
+            return null;
+        }
+    };
+
     public static HttpResponse httpPostPutJsonEntry(String serviceUri, String cacheName,
                                                     String entryKey, String jsonValue, boolean ignoreReturnValues) throws UnsupportedEncodingException {
 
-        HttpClient httpClient = new DefaultHttpClient();
         String post = "";
 
         if (ignoreReturnValues) {
@@ -49,116 +117,185 @@ public class TestingUtils {
         HttpPost httpPost = new HttpPost(post);
         httpPost.setHeader("Content-Type", "application/json; charset=UTF-8");
         httpPost.setHeader("Accept", "application/json; charset=UTF-8");
+        httpPost.setEntity(jsonEntity(jsonValue));
+        return execute(httpPost);
+    }
 
-        try {
-            StringEntity se = new StringEntity(jsonValue, HTTP.UTF_8);
-            se.setContentEncoding(new BasicHeader(HTTP.CONTENT_TYPE, "application/json; charset=UTF-8"));
-            se.setContentType("application/json; charset=UTF-8");
-            httpPost.setEntity(se);
 
-            return httpClient.execute(httpPost);
-        } catch (UnsupportedEncodingException e) {
-            e.printStackTrace();
-        } catch (ClientProtocolException e) {
-            e.printStackTrace();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-        fail("HttpResponse for return expected");
-        return null;
-    }
+    public static HttpResponse httpPostPutAllJsonEntries(String serviceUri, String cacheName, String jsonBody) {
 
+        HttpPost httpPost = new HttpPost(serviceUri + "" + cacheName + "_putAll");
+        httpPost.setHeader("Content-Type", "application/json; charset=UTF-8");
+        httpPost.setHeader("Accept", "application/json; charset=UTF-8");
+        httpPost.setEntity(jsonEntity(jsonBody));
+        return execute(httpPost);
+    }
 
     public static HttpResponse httpGetJsonEntryByEntryKey(String serviceUri, String cacheName, String entryKey) {
 
-        HttpClient httpClient = new DefaultHttpClient();
-
         String get = serviceUri + "" + cacheName + "_get?key=%27" + entryKey + "%27";
         HttpGet httpGet = new HttpGet(get);
         httpGet.setHeader("Content-Type", "application/json; charset=UTF-8");
         httpGet.setHeader("Accept", "application/json; charset=UTF-8");
+        return execute(httpGet);
+    }
 
+    public static HttpResponse httpGetJsonEntriesByEntryKeys(String serviceUri, String cacheName, String... entryKeys) {
+
+        String keys = null;
         try {
-            return httpClient.execute(httpGet);
-        } catch (UnsupportedEncodingException e) {
-            e.printStackTrace();
-        } catch (ClientProtocolException e) {
-            e.printStackTrace();
+            // keys as JSON array, they can contain commas (single quotes are doubled in OData string literal)
+            keys = mapper.writeValueAsString(entryKeys).replace("'", "''");
         } catch (IOException e) {
-            e.printStackTrace();
+            fail("Serialization of keys failed: " + e.getMessage());
         }
-        fail("HttpResponse for return expected");
-        return null;
+        String get = serviceUri + "" + cacheName + "_getAll?keys=" + encode("'" + keys + "'").replace("+", "%20");
+        HttpGet httpGet = new HttpGet(get);
+        httpGet.setHeader("Content-Type", "application/json; charset=UTF-8");
+        httpGet.setHeader("Accept", "application/json; charset=UTF-8");
+        return execute(httpGet);
     }
 
     public static HttpResponse httpPutReplaceJsonEntry(String serviceUri, String cacheName,
                                                     String entryKey, String jsonValue, boolean ignoreReturnValues) throws UnsupportedEncodingException {
-        HttpClient httpClient = new DefaultHttpClient();
         String put = "";
 
         put = serviceUri + "" + cacheName + "_replace?key=%27" + entryKey + "%27";
 
         HttpPut httpPut = new HttpPut(put);
-
-        try {
-            StringEntity se = new StringEntity(jsonValue, HTTP.UTF_8);
-            se.setContentEncoding(new BasicHeader(HTTP.CONTENT_TYPE, "application/json; charset=UTF-8"));
-            se.setContentType("application/json; charset=UTF-8");
-            httpPut.setEntity(se);
-
-            return httpClient.execute(httpPut);
-        } catch (UnsupportedEncodingException e) {
-            e.printStackTrace();
-        } catch (ClientProtocolException e) {
-            e.printStackTrace();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-        fail("HttpResponse for return expected");
-        return null;
+        httpPut.setEntity(jsonEntity(jsonValue));
+        return execute(httpPut);
     }
 
     public static HttpResponse httpDeleteRemoveJsonEntryByEntryKey(String serviceUri, String cacheName, String entryKey) {
 
-        HttpClient httpClient = new DefaultHttpClient();
-
         String delete = serviceUri + "" + cacheName + "_remove?key=%27" + entryKey + "%27";
         HttpDelete httpDelete = new HttpDelete(delete);
         httpDelete.setHeader("Content-Type", "application/json; charset=UTF-8");
         httpDelete.setHeader("Accept", "application/json; charset=UTF-8");
+        return execute(httpDelete);
+    }
 
+    public static HttpResponse httpGetJsonEntryByODataQuery(String serviceUri, String cacheName, String filterQuery) {
+        String get = serviceUri + "" + cacheName + "_get?$filter=" + encode(filterQuery);
+        HttpGet httpGet = new HttpGet(get);
+        httpGet.setHeader("Content-Type", "application/json; charset=UTF-8");
+        httpGet.setHeader("Accept", "application/json; charset=UTF-8");
+        return execute(httpGet);
+    }
+
+    /**
+     * Same as httpGetJsonEntryByODataQuery but allows appending of other system query options.
+     *
+     * @param queryOptions - already encoded query options appended after $filter, e.g. "&$top=5&$skip=3"
+     */
+    public static HttpResponse httpGetJsonEntriesByODataQuery(String serviceUri, String cacheName,
+                                                              String filterQuery, String queryOptions) {
+        String get = serviceUri + "" + cacheName + "_get?$filter=" + encode(filterQuery) + queryOptions;
+        HttpGet httpGet = new HttpGet(get);
+        httpGet.setHeader("Content-Type", "application/json; charset=UTF-8");
+        httpGet.setHeader("Accept", "application/json; charset=UTF-8");
+        return execute(httpGet);
+    }
+
+    /**
+     * HTTP GET of a link returned by the service, e.g. __next link of a page of results.
+     *
+     * @param relativeUri - already encoded URI relative to the service root, e.g. "cacheName_get?$filter=..."
+     */
+    public static HttpResponse httpGetByRelativeUri(String serviceUri, String relativeUri) {
+        HttpGet httpGet = new HttpGet(serviceUri + relativeUri);
+        httpGet.setHeader("Content-Type", "application/json; charset=UTF-8");
+        httpGet.setHeader("Accept", "application/json; charset=UTF-8");
+        return execute(httpGet);
+    }
+
+    /**
+     * Count of entries matching the filter, issued on service/cacheName/$count?$filter=... URI.
+     * The count is returned as plain text.
+     */
+    public static HttpResponse httpGetCountByODataQuery(String serviceUri, String cacheName, String filterQuery) {
+        String get = serviceUri + "" + cacheName + "/$count?$filter=" + encode(filterQuery);
+        return execute(new HttpGet(get));
+    }
+
+    /**
+     * Query approach through streamed cacheName_stream resource.
+     *
+     * @param queryOptions - already encoded query options appended after $filter, e.g. "&$top=5&$skip=3"
+     */
+    public static HttpResponse httpGetStreamedJsonEntriesByODataQuery(String serviceUri, String cacheName,
+                                                                      String filterQuery, String queryOptions) {
+        String get = serviceUri + "" + cacheName + "_stream?$filter=" + encode(filterQuery) + queryOptions;
+        HttpGet httpGet = new HttpGet(get);
+        httpGet.setHeader("Accept", "application/json; charset=UTF-8");
+        return execute(httpGet);
+    }
+
+    public static HttpResponse httpGetStreamedJsonEntryByEntryKey(String serviceUri, String cacheName, String entryKey) {
+        // key as OData string literal, the same form as for cacheName_get
+        String get = serviceUri + "" + cacheName + "_stream?key=" + encode("'" + entryKey.replace("'", "''") + "'");
+        HttpGet httpGet = new HttpGet(get);
+        httpGet.setHeader("Accept", "application/json; charset=UTF-8");
+        return execute(httpGet);
+    }
+
+    /**
+     * Executes the request by a new HTTP client, the test fails when the request can't be executed.
+     */
+    private static HttpResponse execute(HttpUriRequest request) {
         try {
-            return httpClient.execute(httpDelete);
-        } catch (UnsupportedEncodingException e) {
-            e.printStackTrace();
-        } catch (ClientProtocolException e) {
-            e.printStackTrace();
+            return new DefaultHttpClient().execute(request);
         } catch (IOException e) {
             e.printStackTrace();
+            fail("HttpResponse for return expected, " + request.getMethod() + " " + request.getURI() +
+                    " failed: " + e.getMessage());
         }
-        fail("HttpResponse for return expected");
         return null;
     }
 
-    public static HttpResponse httpGetJsonEntryByODataQuery(String serviceUri, String cacheName, String filterQuery) {
-        HttpClient httpClient = new DefaultHttpClient();
+    private static StringEntity jsonEntity(String json) {
+        try {
+            StringEntity se = new StringEntity(json, HTTP.UTF_8);
+            se.setContentEncoding(new BasicHeader(HTTP.CONTENT_TYPE, "application/json; charset=UTF-8"));
+            se.setContentType("application/json; charset=UTF-8");
+            return se;
+        } catch (UnsupportedEncodingException e) {
+            fail("UTF-8 encoding expected: " + e.getMessage());
+        }
+        return null;
+    }
 
+    private static String encode(String queryValue) {
         try {
-            filterQuery = URLEncoder.encode(filterQuery, "UTF-8");
-            String get = serviceUri + "" + cacheName + "_get?$filter=" + filterQuery;
-            HttpGet httpGet = new HttpGet(get);
-            httpGet.setHeader("Content-Type", "application/json; charset=UTF-8");
-            httpGet.setHeader("Accept", "application/json; charset=UTF-8");
-            return httpClient.execute(httpGet);
+            return URLEncoder.encode(queryValue, "UTF-8");
         } catch (UnsupportedEncodingException e) {
-            e.printStackTrace();
-        } catch (ClientProtocolException e) {
-            e.printStackTrace();
+            fail("UTF-8 encoding expected: " + e.getMessage());
+        }
+        return null;
+    }
+
+    /**
+     * Returns number of JSON entries under "d" in standardized service response.
+     * Single entry is returned as a JSON object, collection of entries as a JSON array.
+     *
+     * @param httpResponse - HTTP response of a service
+     * @return number of returned JSON entries
+     */
+    public static int countJsonEntriesInHttpResponse(HttpResponse httpResponse) {
+        try {
+            InputStream jsonInStream = httpResponse.getEntity().getContent();
+            Map<String, Object> response = (Map<String, Object>) mapper.readValue(jsonInStream, Object.class);
+            Object data = response.get("d");
+            if (data instanceof List) {
+                return ((List) data).size();
+            }
+            return data == null ? 0 : 1;
         } catch (IOException e) {
             e.printStackTrace();
+            fail("Reading of JSON entries from response failed: " + e.getMessage());
         }
-        fail("HttpResponse for return expected");
-        return null;
+        return -1;
     }
 
 
@@ -272,4 +409,19 @@ public class TestingUtils {
             }
         }
     }
+
+    /**
+     * Number of retrievals from the cache as reported by its JMX statistics, summed over all nodes
+     * started in this JVM.
+     */
+    public static long cacheRetrievals(String cacheName) throws Exception {
+        MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+        long retrievals = 0;
+        for (ObjectName name : mBeanServer.queryNames(new ObjectName("*:type=Cache,component=Statistics,*"), null)) {
+            if (ObjectName.unquote(name.getKeyProperty("name")).startsWith(cacheName + "(")) {
+                retrievals += (Long) mBeanServer.getAttribute(name, "retrievals");
+            }
+        }
+        return retrievals;
+    }
 }